@@ -0,0 +1,121 @@
+package net.fsodre.merkle_tree.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.fsodre.merkle_tree.ExistenceProof;
+import net.fsodre.merkle_tree.MerkleTree;
+import net.fsodre.merkle_tree.PersistentMerkleTree;
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+import net.fsodre.merkle_tree.nodes.LeafNode;
+
+/**
+ * Throughput of proof readers running alongside a writer that keeps updating
+ * the tree: a MerkleTree behind a global lock, against a PersistentMerkleTree
+ * whose readers use snapshots. Snapshot reads only scale when each of the
+ * four threads has its own core; with fewer cores the numbers compare the
+ * cost of a single proof.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConcurrentProofBenchmark {
+    // Number of leaves that are only read, at the start of the tree. Writers update the rest.
+    private static final int READ_LEAVES = 1 << 12;
+
+    /**
+     * The same leaves in both kinds of tree.
+     */
+    @State(Scope.Group)
+    public static class Trees {
+        @Param({"65536"})
+        public int treeSize;
+
+        public MerkleHash[] readHashes;
+        public LeafNode[] updates;
+        public MerkleTree lockedTree;
+        public PersistentMerkleTree persistentTree;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            List<LeafNode> leaves = new ArrayList<>(treeSize);
+            persistentTree = new PersistentMerkleTree();
+            for (int i = 0; i < treeSize; i++) {
+                leaves.add(LeafNode.fromData("leaf " + i));
+                persistentTree.addLeaf(leaves.get(i));
+            }
+            lockedTree = MerkleTree.buildFrom(leaves);
+
+            readHashes = new MerkleHash[READ_LEAVES];
+            for (int i = 0; i < READ_LEAVES; i++) {
+                readHashes[i] = leaves.get(i).getHash();
+            }
+            updates = new LeafNode[READ_LEAVES];
+            for (int i = 0; i < READ_LEAVES; i++) {
+                updates[i] = LeafNode.fromData("update " + i);
+            }
+        }
+
+        int randomReadLeaf() {
+            return ThreadLocalRandom.current().nextInt(READ_LEAVES);
+        }
+
+        int randomWrittenLeaf() {
+            return READ_LEAVES + ThreadLocalRandom.current().nextInt(treeSize - READ_LEAVES);
+        }
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(3)
+    public ExistenceProof lockedRead(Trees trees) {
+        MerkleHash hash = trees.readHashes[trees.randomReadLeaf()];
+        synchronized (trees.lockedTree) {
+            return trees.lockedTree.buildExistenceProof(hash);
+        }
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(1)
+    public LeafNode lockedWrite(Trees trees) {
+        LeafNode leaf = trees.updates[trees.randomReadLeaf()];
+        synchronized (trees.lockedTree) {
+            return trees.lockedTree.updateLeafAt(trees.randomWrittenLeaf(), leaf);
+        }
+    }
+
+    @Benchmark
+    @Group("persistent")
+    @GroupThreads(3)
+    public ExistenceProof persistentRead(Trees trees) {
+        return trees.persistentTree.snapshot().buildExistenceProof(trees.readHashes[trees.randomReadLeaf()]);
+    }
+
+    @Benchmark
+    @Group("persistent")
+    @GroupThreads(1)
+    public LeafNode persistentWrite(Trees trees) {
+        LeafNode leaf = trees.updates[trees.randomReadLeaf()];
+        return trees.persistentTree.updateLeafAt(trees.randomWrittenLeaf(), leaf);
+    }
+}
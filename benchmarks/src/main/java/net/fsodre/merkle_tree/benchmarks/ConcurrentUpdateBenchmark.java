@@ -0,0 +1,82 @@
+package net.fsodre.merkle_tree.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.fsodre.merkle_tree.MerkleTree;
+import net.fsodre.merkle_tree.StripedMerkleTree;
+import net.fsodre.merkle_tree.nodes.LeafNode;
+
+/**
+ * Throughput of several threads updating random leaves: a MerkleTree behind a
+ * global lock, against a StripedMerkleTree.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class ConcurrentUpdateBenchmark {
+    private static final int UPDATES = 1 << 12;
+
+    /**
+     * The same leaves in both kinds of tree.
+     */
+    @State(Scope.Benchmark)
+    public static class Trees {
+        @Param({"65536"})
+        public int treeSize;
+
+        public LeafNode[] updates;
+        public MerkleTree lockedTree;
+        public StripedMerkleTree stripedTree;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            List<LeafNode> leaves = new ArrayList<>(treeSize);
+            for (int i = 0; i < treeSize; i++) {
+                leaves.add(LeafNode.fromData("leaf " + i));
+            }
+            lockedTree = MerkleTree.buildFrom(leaves);
+            stripedTree = new StripedMerkleTree(MerkleTree.buildFrom(leaves));
+
+            updates = new LeafNode[UPDATES];
+            for (int i = 0; i < UPDATES; i++) {
+                updates[i] = LeafNode.fromData("update " + i);
+            }
+        }
+    }
+
+    @Benchmark
+    public LeafNode lockedUpdate(Trees trees) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        LeafNode leaf = trees.updates[random.nextInt(UPDATES)];
+        int index = random.nextInt(trees.treeSize);
+        synchronized (trees.lockedTree) {
+            return trees.lockedTree.updateLeafAt(index, leaf);
+        }
+    }
+
+    @Benchmark
+    public LeafNode stripedUpdate(Trees trees) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return trees.stripedTree.updateLeafAt(random.nextInt(trees.treeSize), trees.updates[random.nextInt(UPDATES)]);
+    }
+}
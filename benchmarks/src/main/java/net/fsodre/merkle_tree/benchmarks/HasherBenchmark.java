@@ -0,0 +1,105 @@
+package net.fsodre.merkle_tree.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.fsodre.merkle_tree.hashers.Blake2b256Hasher;
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+import net.fsodre.merkle_tree.hashers.Murmur3Hasher;
+import net.fsodre.merkle_tree.hashers.Sha256Hasher;
+import net.fsodre.merkle_tree.hashers.Sha512256Hasher;
+
+/**
+ * Raw throughput of each hasher, for inputs of the size of an internal node
+ * (two hashes) and of typical leaf data.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class HasherBenchmark {
+
+    // Number of pairs of hashes in each call to hashBatch.
+    private static final int BATCH_SIZE = 256;
+
+    @Param({"sha512-256", "sha256", "blake2b-256", "murmur3-128"})
+    public String algorithm;
+
+    @Param({"64", "1024"})
+    public int inputBytes;
+
+    private Hasher hasher;
+    private byte[] input;
+    private MerkleHash left;
+    private MerkleHash right;
+    private ByteBuffer batchInputs;
+    private ByteBuffer batchOutput;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        hasher = hasherFor(algorithm);
+        input = new byte[inputBytes];
+        new Random(42).nextBytes(input);
+        left = hasher.hash("left".getBytes());
+        right = hasher.hash("right".getBytes());
+        byte[] pairs = new byte[BATCH_SIZE * 2 * hasher.outputBitsCount() / 8];
+        new Random(43).nextBytes(pairs);
+        batchInputs = ByteBuffer.wrap(pairs);
+        batchOutput = ByteBuffer.allocate(BATCH_SIZE * hasher.outputBitsCount() / 8);
+    }
+
+    static Hasher hasherFor(String algorithm) {
+        switch (algorithm) {
+            case "sha512-256":
+                return new Sha512256Hasher();
+            case "sha256":
+                return new Sha256Hasher();
+            case "blake2b-256":
+                return new Blake2b256Hasher();
+            case "murmur3-128":
+                return new Murmur3Hasher();
+            default:
+                throw new IllegalArgumentException("Unknown algorithm " + algorithm);
+        }
+    }
+
+    @Benchmark
+    public MerkleHash hash() {
+        return hasher.hash(input);
+    }
+
+    @Benchmark
+    public MerkleHash hashPair() {
+        return hasher.hashPair(left, right);
+    }
+
+    /**
+     * Same as `hashPair`, but hashing many pairs with a single call.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public ByteBuffer hashPairBatch() {
+        batchInputs.clear();
+        batchOutput.clear();
+        hasher.hashBatch(batchInputs, 2 * hasher.outputBitsCount() / 8, BATCH_SIZE, batchOutput);
+        return batchOutput;
+    }
+}
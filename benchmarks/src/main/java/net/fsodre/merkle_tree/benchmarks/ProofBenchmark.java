@@ -0,0 +1,117 @@
+package net.fsodre.merkle_tree.benchmarks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.fsodre.merkle_tree.CompactProof;
+import net.fsodre.merkle_tree.ExistenceProof;
+import net.fsodre.merkle_tree.MerkleTree;
+import net.fsodre.merkle_tree.MultiProof;
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+
+/**
+ * Throughput of building existence proofs for random leaves, and of
+ * validating them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProofBenchmark {
+    // Number of leaves covered by each multi-proof.
+    private static final int MULTI_PROOF_LEAVES = 64;
+
+    // Number of proofs kept by the cached tree. Every requested proof fits.
+    private static final int PROOF_CACHE_CAPACITY = 1 << 12;
+
+    /**
+     * Proofs for some random leaves of the tree.
+     */
+    @State(Scope.Thread)
+    public static class Proofs {
+        public MerkleHash root;
+        public MerkleHash[] leafHashes;
+        public ExistenceProof[] proofs;
+        public CompactProof[] compactProofs;
+
+        // Reused by the allocation-free benchmarks.
+        public CompactProof reusedProof = new CompactProof();
+        public byte[] scratch;
+
+        // Random leaves proven together, and their multi-proof.
+        public List<MerkleHash> multiProofLeaves;
+        public MultiProof multiProof;
+
+        // Same tree as the benchmark state, with a proof cache.
+        public MerkleTree cachedTree;
+
+        @Setup(Level.Trial)
+        public void setUp(TreeBenchmarkState state) {
+            root = state.tree.getRoot().getHash();
+            leafHashes = new MerkleHash[state.randomPositions.length];
+            proofs = new ExistenceProof[state.randomPositions.length];
+            compactProofs = new CompactProof[state.randomPositions.length];
+            for (int i = 0; i < leafHashes.length; i++) {
+                leafHashes[i] = state.leaves.get(state.randomPositions[i]).getHash();
+                proofs[i] = state.tree.buildExistenceProof(leafHashes[i]);
+                compactProofs[i] = state.tree.buildCompactProof(leafHashes[i]);
+            }
+            scratch = new byte[compactProofs[0].scratchBytes()];
+            multiProofLeaves = Arrays.asList(Arrays.copyOf(leafHashes, MULTI_PROOF_LEAVES));
+            multiProof = state.tree.buildMultiProof(multiProofLeaves);
+            cachedTree = MerkleTree.builder().proofCache(PROOF_CACHE_CAPACITY).buildFrom(state.leaves);
+        }
+    }
+
+    @Benchmark
+    public ExistenceProof buildExistenceProof(TreeBenchmarkState state, Proofs proofs) {
+        return state.tree.buildExistenceProof(proofs.leafHashes[state.nextIndex()]);
+    }
+
+    @Benchmark
+    public ExistenceProof buildCachedExistenceProof(TreeBenchmarkState state, Proofs proofs) {
+        return proofs.cachedTree.buildExistenceProof(proofs.leafHashes[state.nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean validate(TreeBenchmarkState state, Proofs proofs) {
+        int i = state.nextIndex();
+        return proofs.proofs[i].validate(proofs.leafHashes[i], proofs.root);
+    }
+
+    @Benchmark
+    public CompactProof buildCompactProof(TreeBenchmarkState state, Proofs proofs) {
+        state.tree.buildCompactProof(proofs.leafHashes[state.nextIndex()], proofs.reusedProof);
+        return proofs.reusedProof;
+    }
+
+    @Benchmark
+    public boolean verifyCompactProof(TreeBenchmarkState state, Proofs proofs) {
+        int i = state.nextIndex();
+        return proofs.compactProofs[i].verify(proofs.leafHashes[i], proofs.root, proofs.scratch);
+    }
+
+    @Benchmark
+    public MultiProof buildMultiProof(TreeBenchmarkState state, Proofs proofs) {
+        return state.tree.buildMultiProof(proofs.multiProofLeaves);
+    }
+
+    @Benchmark
+    public boolean verifyMultiProof(Proofs proofs) {
+        return proofs.multiProof.verify(proofs.multiProofLeaves, proofs.root);
+    }
+}
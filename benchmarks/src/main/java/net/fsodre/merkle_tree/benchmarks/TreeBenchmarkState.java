@@ -0,0 +1,58 @@
+package net.fsodre.merkle_tree.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import net.fsodre.merkle_tree.MerkleTree;
+import net.fsodre.merkle_tree.nodes.LeafNode;
+
+/**
+ * A tree with `treeSize` leaves, plus a pool of extra leaves and random
+ * positions to be used by the benchmarks.
+ */
+@State(Scope.Thread)
+public class TreeBenchmarkState {
+    private static final int RANDOM_VALUES = 1 << 12;
+
+    @Param({"1024", "65536", "1048576"})
+    public int treeSize;
+
+    public List<LeafNode> leaves;
+    public MerkleTree tree;
+    public LeafNode[] extraLeaves;
+    public int[] randomPositions;
+
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        leaves = new ArrayList<>(treeSize);
+        for (int i = 0; i < treeSize; i++) {
+            leaves.add(LeafNode.fromData("leaf " + i));
+        }
+        tree = MerkleTree.buildFrom(leaves);
+
+        Random random = new Random(42);
+        extraLeaves = new LeafNode[RANDOM_VALUES];
+        randomPositions = new int[RANDOM_VALUES];
+        for (int i = 0; i < RANDOM_VALUES; i++) {
+            extraLeaves[i] = LeafNode.fromData("extra leaf " + i);
+            randomPositions[i] = random.nextInt(treeSize);
+        }
+    }
+
+    /**
+     * Returns a different index in [0, RANDOM_VALUES) on each call.
+     */
+    public int nextIndex() {
+        next = (next + 1) & (RANDOM_VALUES - 1);
+        return next;
+    }
+}
@@ -0,0 +1,42 @@
+package net.fsodre.merkle_tree.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.fsodre.merkle_tree.MerkleTree;
+import net.fsodre.merkle_tree.nodes.LeafNode;
+
+/**
+ * Time to build a whole tree, either adding leaves one by one or in a single
+ * bottom-up pass.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TreeBuildBenchmark {
+
+    @Benchmark
+    public MerkleTree addLeaf(TreeBenchmarkState state) {
+        MerkleTree tree = new MerkleTree();
+        List<LeafNode> leaves = state.leaves;
+        for (int i = 0; i < leaves.size(); i++) {
+            tree.addLeaf(leaves.get(i));
+        }
+        return tree;
+    }
+
+    @Benchmark
+    public MerkleTree buildFrom(TreeBenchmarkState state) {
+        return MerkleTree.buildFrom(state.leaves);
+    }
+}
@@ -0,0 +1,110 @@
+package net.fsodre.merkle_tree.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.fsodre.merkle_tree.MerkleTree;
+import net.fsodre.merkle_tree.nodes.LeafNode;
+import net.fsodre.merkle_tree.nodes.MerkleNode;
+import net.fsodre.merkle_tree.storage.FlatNodeStorage;
+
+/**
+ * Throughput of single leaf changes at random positions of an existing tree,
+ * and of bursts of changes followed by a read of the root.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TreeUpdateBenchmark {
+    // Number of updates made before each read of the root in the burst benchmarks.
+    private static final int BURST = 64;
+
+    /**
+     * Same tree as the benchmark state, hashed lazily.
+     */
+    @State(Scope.Thread)
+    public static class LazyTree {
+        public MerkleTree tree;
+
+        @Setup(Level.Trial)
+        public void setUp(TreeBenchmarkState state) {
+            tree = MerkleTree.builder().lazyHashing(true).buildFrom(state.leaves);
+        }
+    }
+
+    /**
+     * Same tree as the benchmark state, keeping its hashes in a FlatNodeStorage.
+     */
+    @State(Scope.Thread)
+    public static class FlatTree {
+        public MerkleTree tree;
+
+        @Setup(Level.Trial)
+        public void setUp(TreeBenchmarkState state) {
+            tree = MerkleTree.builder().storage(FlatNodeStorage::new).buildFrom(state.leaves);
+        }
+    }
+
+    @Benchmark
+    public LeafNode updateLeafAt(TreeBenchmarkState state) {
+        int i = state.nextIndex();
+        return state.tree.updateLeafAt(state.randomPositions[i], state.extraLeaves[i]);
+    }
+
+    @Benchmark
+    public LeafNode updateLeafAtFlat(TreeBenchmarkState state, FlatTree flatTree) {
+        int i = state.nextIndex();
+        return flatTree.tree.updateLeafAt(state.randomPositions[i], state.extraLeaves[i]);
+    }
+
+    @Benchmark
+    public LeafNode updateLeaf(TreeBenchmarkState state) {
+        // Swaps an original leaf with an extra one and back, so the tree keeps its leaves.
+        int i = state.nextIndex();
+        LeafNode original = state.leaves.get(state.randomPositions[i]);
+        state.tree.updateLeaf(original.getHash(), state.extraLeaves[i]);
+        return state.tree.updateLeaf(state.extraLeaves[i].getHash(), original);
+    }
+
+    @Benchmark
+    public int removeLeafAt(TreeBenchmarkState state) {
+        // Removes a leaf and adds it back, which takes the same spot.
+        int position = state.randomPositions[state.nextIndex()];
+        state.tree.removeLeafAt(position);
+        return state.tree.addLeaf(state.leaves.get(position));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public MerkleNode updateBurst(TreeBenchmarkState state) {
+        for (int update = 0; update < BURST; update++) {
+            int i = state.nextIndex();
+            state.tree.updateLeafAt(state.randomPositions[i], state.extraLeaves[i]);
+        }
+        return state.tree.getRoot();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public MerkleNode updateBurstLazily(TreeBenchmarkState state, LazyTree lazyTree) {
+        for (int update = 0; update < BURST; update++) {
+            int i = state.nextIndex();
+            lazyTree.tree.updateLeafAt(state.randomPositions[i], state.extraLeaves[i]);
+        }
+        return lazyTree.tree.getRoot();
+    }
+}
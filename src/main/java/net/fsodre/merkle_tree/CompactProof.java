@@ -0,0 +1,174 @@
+package net.fsodre.merkle_tree;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+
+/**
+ * A proof of existence stored in a flat layout: the sibling hashes of every
+ * level, from the leaves up, are kept one after the other in a single byte
+ * array, and two bitmasks tell on which side each sibling is and whether it
+ * exists at all.
+ *
+ * Proofs can be filled again by `MerkleTree.buildCompactProof(hash, proof)`,
+ * and are verified against a scratch buffer provided by the caller, so
+ * neither building nor verifying them creates objects once the proof and the
+ * buffer exist (as long as the hasher implements `Hasher.hashInto`).
+ */
+public final class CompactProof implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Proofs can't cover more levels than this, as the side and presence of each sibling are bits of a long.
+    static final int MAX_DEPTH = Long.SIZE;
+
+    // Hasher of the tree the proof refers to.
+    private Hasher hasher;
+
+    // Number of bytes of each hash.
+    private int hashBytes;
+
+    // Number of siblings, one for each level below the root.
+    private int depth;
+
+    // Bit `l` is set if the sibling at level `l` is on the left.
+    private long leftSiblings;
+
+    // Bit `l` is set if there's no node (or no hash) at the sibling position of level `l`.
+    private long missingSiblings;
+
+    // Hashes of the siblings, `hashBytes` bytes per level. The bytes of missing siblings are meaningless.
+    private byte[] siblings;
+
+    /**
+     * Creates an empty proof, to be filled by a tree.
+     */
+    public CompactProof() {
+        siblings = new byte[0];
+    }
+
+    /**
+     * Returns the number of levels covered by the proof, that is, the number
+     * of siblings.
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * Returns the number of bytes needed in the scratch buffer given to
+     * `verify`.
+     */
+    public int scratchBytes() {
+        return 2 * hashBytes;
+    }
+
+    /**
+     * Verifies that the leaf with hash `leafHash` is in the tree whose root
+     * has hash `root`. See `verify(byte[], int, byte[], int, byte[])`.
+     */
+    public boolean verify(MerkleHash leafHash, MerkleHash root, byte[] scratch) {
+        assert scratch.length >= scratchBytes() : "The scratch buffer is too small";
+        if (leafHash.sizeInBytes() != hashBytes || root.sizeInBytes() != hashBytes) {
+            return false;
+        }
+        leafHash.copyTo(scratch, 0);
+        return climb(scratch) && root.matches(scratch, 0);
+    }
+
+    /**
+     * Verifies that the leaf whose hash is in `leafHash`, starting at
+     * `leafOffset`, is in the tree whose root has the hash in `root`, starting
+     * at `rootOffset`. `scratch` must have at least `scratchBytes()` bytes;
+     * its content is overwritten.
+     */
+    public boolean verify(byte[] leafHash, int leafOffset, byte[] root, int rootOffset, byte[] scratch) {
+        assert scratch.length >= scratchBytes() : "The scratch buffer is too small";
+        System.arraycopy(leafHash, leafOffset, scratch, 0, hashBytes);
+        if (!climb(scratch)) {
+            return false;
+        }
+        for (int i = 0; i < hashBytes; i++) {
+            if (scratch[i] != root[rootOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the hash at the start of `scratch` by the hash of the root it
+     * leads to. Returns false if the proof is empty or doesn't hold a hash
+     * for each level.
+     */
+    private boolean climb(byte[] scratch) {
+        if (hasher == null || depth > MAX_DEPTH || siblings.length < (long) depth * hashBytes) {
+            return false;
+        }
+        for (int level = 0; level < depth; level++) {
+            long bit = 1L << level;
+            if ((missingSiblings & bit) != 0) {
+                hasher.hashInto(scratch, 0, hashBytes, scratch, 0);
+                continue;
+            }
+            if ((leftSiblings & bit) != 0) {
+                System.arraycopy(scratch, 0, scratch, hashBytes, hashBytes);
+                System.arraycopy(siblings, level * hashBytes, scratch, 0, hashBytes);
+            } else {
+                System.arraycopy(siblings, level * hashBytes, scratch, hashBytes, hashBytes);
+            }
+            hasher.hashInto(scratch, 0, 2 * hashBytes, scratch, 0);
+        }
+        return true;
+    }
+
+    /**
+     * Rejects proofs without room for the hash of each level, so that a
+     * deserialized proof is as consistent as a built one.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (depth < 0 || depth > MAX_DEPTH || hashBytes < 0 || siblings == null
+                || siblings.length < (long) depth * hashBytes) {
+            throw new InvalidObjectException("Corrupted compact proof");
+        }
+    }
+
+    /**
+     * Empties the proof and prepares it for a tree with the given hasher and
+     * number of levels below the root.
+     */
+    void reset(Hasher hasher, int hashBytes, int depth) {
+        assert depth <= MAX_DEPTH : "The tree is too tall";
+        this.hasher = hasher;
+        this.hashBytes = hashBytes;
+        this.depth = depth;
+        this.leftSiblings = 0;
+        this.missingSiblings = 0;
+        if (siblings.length < depth * hashBytes) {
+            siblings = new byte[depth * hashBytes];
+        }
+    }
+
+    /**
+     * Returns the sibling hashes, where the tree writes them.
+     */
+    byte[] siblings() {
+        return siblings;
+    }
+
+    /**
+     * Records on which side the sibling of `level` is and whether it exists.
+     */
+    void setSibling(int level, boolean left, boolean present) {
+        if (left) {
+            leftSiblings |= 1L << level;
+        }
+        if (!present) {
+            missingSiblings |= 1L << level;
+        }
+    }
+}
@@ -3,6 +3,8 @@ package net.fsodre.merkle_tree;
 import java.io.Serializable;
 import java.util.ArrayList;
 
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.hashers.HasherProvider;
 import net.fsodre.merkle_tree.hashers.MerkleHash;
 
 /**
@@ -43,8 +45,11 @@ final public class ExistenceProof implements Serializable {
          * hash. The order in which the hashes are concatenated are defined by
          * the `side` field.
          */
-        public MerkleHash combinedHash(MerkleHash otherHash) {
-            return MerkleHash.fromData(concatenate(otherHash));
+        public MerkleHash combinedHash(MerkleHash otherHash, Hasher hasher) {
+            if (hash != null && otherHash != null) {
+                return side == Side.LEFT ? hasher.hashPair(hash, otherHash) : hasher.hashPair(otherHash, hash);
+            }
+            return hasher.hash(concatenate(otherHash));
         }
 
         private byte[] concatenate(MerkleHash otherSibling) {
@@ -65,27 +70,49 @@ final public class ExistenceProof implements Serializable {
         }
     }
 
+    // The hasher of the tree the proof refers to.
+    private final Hasher hasher;
+
     // The sequence of siblings that comprise the proof of existence.
     private final ArrayList<Sibling> proofSequence;
 
+    // Whether the proof is shared (by the proof cache of a tree) and therefore can't be modified.
+    private transient boolean frozen = false;
+
     /**
-     * Creates a new proof of existence.
+     * Creates a new proof of existence for a tree using the default hasher.
      */
     public ExistenceProof() {
+        this(HasherProvider.getHasher());
+    }
+
+    /**
+     * Creates a new proof of existence for a tree using the given hasher.
+     */
+    public ExistenceProof(Hasher hasher) {
+        this.hasher = hasher;
         proofSequence = new ArrayList<>();
     }
 
     /**
      * Adds a left sibling to the proof.
+     *
+     * @throws UnsupportedOperationException if the proof came from the proof
+     * cache of a tree, which shares it between callers.
      */
     public void addLeftSibling(MerkleHash hash) {
+        checkNotFrozen();
         proofSequence.add(new Sibling(hash, Sibling.Side.LEFT));
     }
 
     /**
      * Adds a right sibling to the proof.
+     *
+     * @throws UnsupportedOperationException if the proof came from the proof
+     * cache of a tree, which shares it between callers.
      */
     public void addRightSibling(MerkleHash hash) {
+        checkNotFrozen();
         proofSequence.add(new Sibling(hash, Sibling.Side.RIGHT));
     }
 
@@ -96,8 +123,37 @@ final public class ExistenceProof implements Serializable {
     public boolean validate(MerkleHash target, MerkleHash root) {
         MerkleHash currentHash = target;
         for (Sibling sibling : proofSequence) {
-            currentHash = sibling.combinedHash(currentHash);
+            currentHash = sibling.combinedHash(currentHash, hasher);
+        }
+        return currentHash.equals(root);
+    }
+
+    /**
+     * Returns the number of siblings in the proof.
+     */
+    int size() {
+        return proofSequence.size();
+    }
+
+    /**
+     * Returns the hash of the sibling at the given level, which may be null.
+     */
+    MerkleHash siblingHash(int level) {
+        return proofSequence.get(level).hash;
+    }
+
+    /**
+     * Prevents any further siblings from being added, before the proof is
+     * shared. Returns the proof itself.
+     */
+    ExistenceProof freeze() {
+        frozen = true;
+        return this;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new UnsupportedOperationException("Cached proofs are shared and can't be modified");
         }
-        return currentHash.toString().equals(root.toString());
     }
 }
@@ -0,0 +1,272 @@
+package net.fsodre.merkle_tree;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Set of the empty positions of the bottom layer of a tree, which are reused
+ * by new leaves before the layer grows.
+ *
+ * Membership is kept in a bitmap with one bit per position, so a position is
+ * never stored twice and can be removed in constant time when a leaf is put
+ * there by other means. Positions are handed out either in the order they
+ * became empty, through a queue of ints next to the bitmap, or lowest first,
+ * by scanning the bitmap a word at a time from the lowest word that may have
+ * a free position. The latter keeps the tree dense and needs only the bitmap.
+ *
+ * Positions removed while queued aren't looked for in the queue; their
+ * entries are skipped when reached, and dropped whenever the queue would
+ * otherwise have to grow past twice the number of free positions.
+ *
+ * The bitmap and the number of free positions can also live in a region
+ * provided by the caller (for instance, in a memory-mapped file), so that
+ * they're found again without scanning the leaves when the tree is reopened.
+ * Such a bitmap never grows.
+ */
+final class FreeLeafSlots implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_QUEUE_CAPACITY = 16;
+
+    // Whether the lowest free position is reused first, instead of the one that became empty first.
+    private final boolean lowestFirst;
+
+    // Bit `i % 64` of word `i / 64` is set when position `i` is free.
+    private transient LongBuffer bits = LongBuffer.allocate(1);
+
+    // Number of free positions.
+    private int size;
+
+    // Region the number of free positions is kept in, ahead of the bitmap. Null unless provided by the caller.
+    private transient ByteBuffer region;
+
+    // Lowest word of the bitmap that may have a set bit. Only used when reusing the lowest position first.
+    private int lowestWord;
+
+    // Circular queue of free positions, in the order they'll be reused. May contain stale entries.
+    private int[] queue;
+    private int head;
+    private int queued;
+
+    /**
+     * Creates an empty set that hands out positions lowest first, or in the
+     * order they were added.
+     */
+    FreeLeafSlots(boolean lowestFirst) {
+        this.lowestFirst = lowestFirst;
+        this.queue = lowestFirst ? null : new int[INITIAL_QUEUE_CAPACITY];
+    }
+
+    /**
+     * Creates a set kept in `region`, which starts with the number of free
+     * positions as a long, followed by the bitmap, and keeps the positions it
+     * already has. Only positions covered by the bitmap can be added.
+     *
+     * Positions are only scanned for when handing them out in the order they
+     * were added, as that order isn't kept in the region: the ones already
+     * there are queued lowest first.
+     */
+    FreeLeafSlots(boolean lowestFirst, ByteBuffer region) {
+        this(lowestFirst);
+        this.region = region;
+        ByteBuffer bitmap = region.duplicate();
+        bitmap.position(Long.BYTES);
+        this.bits = bitmap.slice().asLongBuffer();
+        this.size = (int) region.getLong(0);
+        if (!lowestFirst) {
+            for (int index = next(0); index >= 0; index = next(index + 1)) {
+                enqueue(index);
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(int index) {
+        int word = index >>> 6;
+        return word < bits.capacity() && (bits.get(word) & (1L << index)) != 0;
+    }
+
+    /**
+     * Marks a position as free. Does nothing if it's already free.
+     */
+    void add(int index) {
+        assert index >= 0 : "Freeing an invalid position";
+        if (contains(index)) {
+            return;
+        }
+        int word = index >>> 6;
+        if (word >= bits.capacity()) {
+            assert region == null : "Freeing a position outside of the bitmap";
+            bits = LongBuffer.wrap(Arrays.copyOf(bits.array(), Math.max(2 * bits.capacity(), word + 1)));
+        }
+        bits.put(word, bits.get(word) | (1L << index));
+        setSize(size + 1);
+
+        if (lowestFirst) {
+            lowestWord = Math.min(lowestWord, word);
+        } else {
+            enqueue(index);
+        }
+    }
+
+    /**
+     * Marks a position as taken. Does nothing if it isn't free.
+     */
+    void remove(int index) {
+        if (contains(index)) {
+            bits.put(index >>> 6, bits.get(index >>> 6) & ~(1L << index));
+            setSize(size - 1);
+        }
+    }
+
+    /**
+     * Forgets all free positions from `size` onwards, once the bottom layer
+     * is cut there.
+     */
+    void truncate(int size) {
+        int word = size >>> 6;
+        if (word >= bits.capacity()) {
+            return;
+        }
+        long kept = bits.get(word) & ((1L << size) - 1);
+        int dropped = Long.bitCount(bits.get(word) & ~kept);
+        bits.put(word, kept);
+        for (int i = word + 1; i < bits.capacity(); i++) {
+            dropped += Long.bitCount(bits.get(i));
+            bits.put(i, 0);
+        }
+        setSize(this.size - dropped);
+        if (region == null) {
+            bits = LongBuffer.wrap(Arrays.copyOf(bits.array(), word + 1));
+        }
+    }
+
+    /**
+     * Returns the lowest free position that isn't below `from`, or -1 if
+     * there's none. Scans the bitmap a word at a time.
+     */
+    int next(int from) {
+        int word = from >>> 6;
+        if (word >= bits.capacity()) {
+            return -1;
+        }
+        for (long remaining = bits.get(word) & (-1L << from); ; remaining = bits.get(word)) {
+            if (remaining != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(remaining);
+            }
+            if (++word == bits.capacity()) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Takes the next free position to be reused.
+     *
+     * @throws AssertionError if there are no free positions.
+     */
+    int poll() {
+        assert size > 0 : "Taking a free position from an empty set";
+        int index;
+        if (lowestFirst) {
+            while (bits.get(lowestWord) == 0) {
+                lowestWord++;
+            }
+            index = (lowestWord << 6) + Long.numberOfTrailingZeros(bits.get(lowestWord));
+        } else {
+            do {
+                index = queue[head];
+                head = (head + 1) % queue.length;
+                queued--;
+            } while (!contains(index));
+        }
+        remove(index);
+        return index;
+    }
+
+    /**
+     * Returns the free positions, in the order they'll be reused.
+     */
+    int[] toArray() {
+        int[] indexes = new int[size];
+        int count = 0;
+        if (lowestFirst) {
+            for (int word = lowestWord; word < bits.capacity(); word++) {
+                for (long remaining = bits.get(word); remaining != 0; remaining &= remaining - 1) {
+                    indexes[count++] = (word << 6) + Long.numberOfTrailingZeros(remaining);
+                }
+            }
+            return indexes;
+        }
+
+        copyQueued(indexes);
+        return indexes;
+    }
+
+    private void enqueue(int index) {
+        if (queued == queue.length) {
+            // Dropping the stale entries frees enough room when at least half of them are stale.
+            int[] newQueue = new int[2 * size <= queue.length ? queue.length : 2 * queue.length];
+            queued = copyQueued(newQueue);
+            queue = newQueue;
+            head = 0;
+        }
+        queue[(head + queued) % queue.length] = index;
+        queued++;
+    }
+
+    /**
+     * Copies the queued positions that are still free into `target`, in
+     * order, and returns how many there are. A position may be queued again
+     * after being removed, and only its first entry is reused.
+     */
+    private int copyQueued(int[] target) {
+        long[] seen = new long[bits.capacity()];
+        int count = 0;
+        for (int i = 0; i < queued; i++) {
+            int index = queue[(head + i) % queue.length];
+            long bit = 1L << index;
+            if (contains(index) && (seen[index >>> 6] & bit) == 0) {
+                seen[index >>> 6] |= bit;
+                target[count++] = index;
+            }
+        }
+        return count;
+    }
+
+    private void setSize(int size) {
+        this.size = size;
+        if (region != null) {
+            region.putLong(0, size);
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(bits.capacity());
+        for (int word = 0; word < bits.capacity(); word++) {
+            out.writeLong(bits.get(word));
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        long[] words = new long[in.readInt()];
+        for (int word = 0; word < words.length; word++) {
+            words[word] = in.readLong();
+        }
+        bits = LongBuffer.wrap(words);
+    }
+}
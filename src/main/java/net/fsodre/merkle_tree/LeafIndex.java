@@ -0,0 +1,399 @@
+package net.fsodre.merkle_tree;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+
+/**
+ * Maps leaf hashes to their position in the bottom layer of a tree.
+ *
+ * It's an open addressing hash table with linear probing, keyed directly on the
+ * bytes of the hashes. Each entry takes a fixed-size slot made of the hash bytes
+ * followed by the position as an int. Positions are stored shifted by one, so
+ * that a zeroed slot means an empty one. Lookups don't allocate, and removals
+ * shift the following entries back instead of leaving tombstones.
+ *
+ * Slots are numbered with longs and split into segments of at most
+ * `SEGMENT_SLOTS` slots, each one a ByteBuffer (optionally allocated
+ * off-heap), so the table isn't bound by the 2GB limit of a single buffer.
+ *
+ * The segments can also be provided by the caller (for instance, regions of a
+ * memory-mapped file), in which case the table has a fixed capacity and the
+ * number of entries is kept next to it, so it isn't counted again.
+ */
+public final class LeafIndex implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int POSITION_BYTES = Integer.BYTES;
+
+    /**
+     * Maximum number of slots of each segment of a table allocated by the
+     * index.
+     */
+    static final int SEGMENT_SLOTS = 1 << 20;
+
+    // Number of bytes of each key.
+    private final int keyBytes;
+
+    // Number of bytes of each slot (a key followed by its position).
+    private final int slotBytes;
+
+    // Whether the table lives outside of the Java heap.
+    private final boolean offHeap;
+
+    // Whether the table was provided by the caller, and therefore can't be resized.
+    private final boolean fixedCapacity;
+
+    // Maximum number of slots of each segment allocated by the index. Always a power of two.
+    private final int maxSegmentSlots;
+
+    // Number of slots in the table. Always a power of two.
+    private long capacity;
+
+    // Log2 of the number of slots of each segment.
+    private int segmentShift;
+
+    // Number of occupied slots.
+    private int size;
+
+    // Region the number of occupied slots is kept in, as an int. Null unless the table was provided by the caller.
+    private transient ByteBuffer sizeRegion;
+
+    // The slots themselves, `1 << segmentShift` in each segment.
+    private transient ByteBuffer[] segments;
+
+    /**
+     * Creates an empty index for keys with `keyBytes` bytes, kept in the heap.
+     */
+    public LeafIndex(int keyBytes) {
+        this(keyBytes, false);
+    }
+
+    /**
+     * Creates an empty index for keys with `keyBytes` bytes. If `offHeap` is
+     * true, the table is allocated as direct buffers.
+     */
+    public LeafIndex(int keyBytes, boolean offHeap) {
+        this(keyBytes, offHeap, SEGMENT_SLOTS);
+    }
+
+    /**
+     * Same as `LeafIndex(keyBytes, offHeap)`, with segments of at most
+     * `maxSegmentSlots` slots, which must be a power of two.
+     */
+    LeafIndex(int keyBytes, boolean offHeap, int maxSegmentSlots) {
+        assert Integer.bitCount(maxSegmentSlots) == 1 : "Segments must have a power of two number of slots";
+        this.keyBytes = keyBytes;
+        this.slotBytes = keyBytes + POSITION_BYTES;
+        this.offHeap = offHeap;
+        this.fixedCapacity = false;
+        this.maxSegmentSlots = maxSegmentSlots;
+        this.size = 0;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Creates an index for keys with `keyBytes` bytes on top of an existing
+     * table, keeping the entries it already has. The table is made of a power
+     * of two number of segments, all with room for the same power of two
+     * number of slots, each one with `keyBytes + 4` bytes. It's never resized.
+     * The number of entries is read from and kept up to date in `sizeRegion`,
+     * as an int.
+     *
+     * @throws AssertionError if the segment sizes aren't valid.
+     */
+    public LeafIndex(int keyBytes, ByteBuffer sizeRegion, ByteBuffer[] segments) {
+        this.keyBytes = keyBytes;
+        this.slotBytes = keyBytes + POSITION_BYTES;
+        this.offHeap = segments[0].isDirect();
+        this.fixedCapacity = true;
+        int segmentSlots = segments[0].capacity() / slotBytes;
+        assert segmentSlots > 0 && Integer.bitCount(segmentSlots) == 1 : "Segments must have a power of two number of slots";
+        assert Integer.bitCount(segments.length) == 1 : "The table must have a power of two number of segments";
+        assert Arrays.stream(segments).allMatch(segment -> segment.capacity() / slotBytes == segmentSlots)
+                : "All segments must have the same number of slots";
+        this.maxSegmentSlots = segmentSlots;
+        this.segmentShift = Integer.numberOfTrailingZeros(segmentSlots);
+        this.capacity = (long) segments.length * segmentSlots;
+        this.segments = segments;
+        this.sizeRegion = sizeRegion;
+        this.size = sizeRegion.getInt(0);
+    }
+
+    /**
+     * Returns the position associated with `key`, or -1 if there's none.
+     */
+    public int get(MerkleHash key) {
+        long slot = findSlot(key);
+        return slot < 0 ? -1 : positionAt(slot);
+    }
+
+    /**
+     * Associates `key` with `position`, replacing any previous association.
+     *
+     * @throws AssertionError if the position is negative.
+     * @throws IllegalStateException if the table has a fixed capacity and
+     * it's full.
+     */
+    public void put(MerkleHash key, int position) {
+        assert position >= 0 : "Leaf positions can't be negative";
+        if (4L * (size + 1) > 3L * capacity) {
+            if (fixedCapacity) {
+                throw new IllegalStateException("The leaf index is full");
+            }
+            resize(2 * capacity);
+        }
+
+        long slot = homeSlot(key.hashCode());
+        while (!isEmpty(slot) && !key.matches(segmentOf(slot), offsetOf(slot))) {
+            slot = nextSlot(slot);
+        }
+        if (isEmpty(slot)) {
+            key.writeTo(segmentOf(slot), offsetOf(slot));
+            setSize(size + 1);
+        }
+        segmentOf(slot).putInt(offsetOf(slot) + keyBytes, position + 1);
+    }
+
+    /**
+     * Removes the association of `key`, if any. Returns the position it was
+     * associated with, or -1 if there was none.
+     */
+    public int remove(MerkleHash key) {
+        long slot = findSlot(key);
+        if (slot < 0) {
+            return -1;
+        }
+        int position = positionAt(slot);
+        deleteSlot(slot);
+        setSize(size - 1);
+        return position;
+    }
+
+    /**
+     * Same as `remove`, but only if `key` is currently associated with
+     * `position`.
+     */
+    public boolean remove(MerkleHash key, int position) {
+        long slot = findSlot(key);
+        if (slot < 0 || positionAt(slot) != position) {
+            return false;
+        }
+        deleteSlot(slot);
+        setSize(size - 1);
+        return true;
+    }
+
+    /**
+     * Same as `remove(key, position)`, with the key given as the `keyBytes`
+     * bytes of `key` starting at `offset`, so no MerkleHash is needed.
+     */
+    public boolean remove(byte[] key, int offset, int position) {
+        long slot = findSlot(key, offset);
+        if (slot < 0 || positionAt(slot) != position) {
+            return false;
+        }
+        deleteSlot(slot);
+        setSize(size - 1);
+        return true;
+    }
+
+    /**
+     * Returns the number of keys in the index.
+     */
+    public int size() {
+        return size;
+    }
+
+    private void setSize(int size) {
+        this.size = size;
+        if (sizeRegion != null) {
+            sizeRegion.putInt(0, size);
+        }
+    }
+
+    private long findSlot(MerkleHash key) {
+        for (long slot = homeSlot(key.hashCode()); !isEmpty(slot); slot = nextSlot(slot)) {
+            if (key.matches(segmentOf(slot), offsetOf(slot))) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private long findSlot(byte[] key, int offset) {
+        int keyHash = 1;
+        for (int i = 0; i < keyBytes; i++) {
+            keyHash = 31 * keyHash + key[offset + i];
+        }
+        for (long slot = homeSlot(keyHash); !isEmpty(slot); slot = nextSlot(slot)) {
+            if (matches(key, offset, segmentOf(slot), offsetOf(slot))) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(byte[] key, int offset, ByteBuffer segment, int slotOffset) {
+        for (int i = 0; i < keyBytes; i++) {
+            if (key[offset + i] != segment.get(slotOffset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Empties a slot, moving back the entries of the same probe sequence that
+     * follow it so that they stay reachable.
+     */
+    private void deleteSlot(long hole) {
+        for (long slot = nextSlot(hole); !isEmpty(slot); slot = nextSlot(slot)) {
+            long home = homeSlot(keyHashAt(segmentOf(slot), offsetOf(slot)));
+            // The entry can only be moved if the hole isn't before its home slot in the probe sequence.
+            if (((slot - home) & (capacity - 1)) >= ((slot - hole) & (capacity - 1))) {
+                copySlot(segmentOf(slot), offsetOf(slot), segmentOf(hole), offsetOf(hole));
+                hole = slot;
+            }
+        }
+        ByteBuffer segment = segmentOf(hole);
+        int offset = offsetOf(hole);
+        for (int i = 0; i < slotBytes; i++) {
+            segment.put(offset + i, (byte) 0);
+        }
+    }
+
+    private void resize(long newCapacity) {
+        ByteBuffer[] oldSegments = segments;
+        int oldShift = segmentShift;
+        long oldCapacity = capacity;
+        allocate(newCapacity);
+
+        for (long oldSlot = 0; oldSlot < oldCapacity; oldSlot++) {
+            ByteBuffer oldSegment = oldSegments[(int) (oldSlot >>> oldShift)];
+            int oldOffset = (int) (oldSlot & ((1 << oldShift) - 1)) * slotBytes;
+            if (oldSegment.getInt(oldOffset + keyBytes) == 0) {
+                continue;
+            }
+            long slot = homeSlot(keyHashAt(oldSegment, oldOffset));
+            while (!isEmpty(slot)) {
+                slot = nextSlot(slot);
+            }
+            copySlot(oldSegment, oldOffset, segmentOf(slot), offsetOf(slot));
+        }
+    }
+
+    private void copySlot(ByteBuffer from, int fromOffset, ByteBuffer to, int toOffset) {
+        for (int i = 0; i < slotBytes; i++) {
+            to.put(toOffset + i, from.get(fromOffset + i));
+        }
+    }
+
+    /**
+     * Hash of the key stored at `offset`. Same as `MerkleHash.hashCode()` for
+     * the equivalent MerkleHash.
+     */
+    private int keyHashAt(ByteBuffer buffer, int offset) {
+        int result = 1;
+        for (int i = 0; i < keyBytes; i++) {
+            result = 31 * result + buffer.get(offset + i);
+        }
+        return result;
+    }
+
+    /**
+     * Spreads the bits of a key hash (MurmurHash3's finalizer) and maps it to
+     * a slot. Tables with more than 2^32 slots only use the lower ones as home
+     * slots, which never happens with int positions and a 3/4 load factor.
+     */
+    private long homeSlot(int keyHash) {
+        int h = keyHash;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h & 0xffffffffL) & (capacity - 1);
+    }
+
+    private long nextSlot(long slot) {
+        return (slot + 1) & (capacity - 1);
+    }
+
+    private boolean isEmpty(long slot) {
+        return segmentOf(slot).getInt(offsetOf(slot) + keyBytes) == 0;
+    }
+
+    private int positionAt(long slot) {
+        return segmentOf(slot).getInt(offsetOf(slot) + keyBytes) - 1;
+    }
+
+    /**
+     * Returns the segment holding `slot`.
+     */
+    ByteBuffer segmentOf(long slot) {
+        return segments[(int) (slot >>> segmentShift)];
+    }
+
+    /**
+     * Returns the offset of `slot` within its segment.
+     */
+    int offsetOf(long slot) {
+        return (int) (slot & ((1L << segmentShift) - 1)) * slotBytes;
+    }
+
+    /**
+     * Returns the number of segments of the table.
+     */
+    int segmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * Replaces the table by an empty one with `slots` slots, split in as many
+     * segments as needed.
+     */
+    private void allocate(long slots) {
+        int segmentSlots = (int) Math.min(slots, maxSegmentSlots);
+        int segmentBytes = segmentSlots * slotBytes;
+        capacity = slots;
+        segmentShift = Integer.numberOfTrailingZeros(segmentSlots);
+        segments = new ByteBuffer[Math.toIntExact(slots >>> segmentShift)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = offHeap ? ByteBuffer.allocateDirect(segmentBytes) : ByteBuffer.allocate(segmentBytes);
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        byte[] chunk = new byte[slotBytes];
+        for (long slot = 0; slot < capacity; slot++) {
+            ByteBuffer segment = segmentOf(slot);
+            int offset = offsetOf(slot);
+            for (int i = 0; i < slotBytes; i++) {
+                chunk[i] = segment.get(offset + i);
+            }
+            out.write(chunk);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        allocate(capacity);
+        byte[] chunk = new byte[slotBytes];
+        for (long slot = 0; slot < capacity; slot++) {
+            in.readFully(chunk);
+            ByteBuffer segment = segmentOf(slot);
+            int offset = offsetOf(slot);
+            for (int i = 0; i < slotBytes; i++) {
+                segment.put(offset + i, chunk[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package net.fsodre.merkle_tree;
+
+import java.util.concurrent.RecursiveAction;
+
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+import net.fsodre.merkle_tree.storage.NodeStorage;
+
+/**
+ * Computes a range of parent nodes of a tree level from their children, or of
+ * the given parent positions. Ranges larger than the threshold are split in
+ * halves and hashed in parallel, which is possible because nodes in the same
+ * level don't depend on each other.
+ */
+final class LevelHashTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final NodeStorage nodes;
+    private final Hasher hasher;
+    private final int childLevel;
+
+    // Positions of the parents to compute, or null if they are the positions of the range themselves.
+    private final int[] parentIndexes;
+
+    private final MerkleHash[] parents;
+    private final int from;
+    private final int to;
+    private final int threshold;
+
+    /**
+     * Creates a task that fills `parents[from, to)` using the nodes of
+     * `childLevel`, hashed with `hasher`.
+     */
+    LevelHashTask(NodeStorage nodes, Hasher hasher, int childLevel, MerkleHash[] parents, int from, int to,
+            int threshold) {
+        this(nodes, hasher, childLevel, null, parents, from, to, threshold);
+    }
+
+    /**
+     * Creates a task that computes the parents at positions
+     * `parentIndexes[from, to)`, putting the hash of `parentIndexes[i]` in
+     * `parents[i]`.
+     */
+    LevelHashTask(NodeStorage nodes, Hasher hasher, int childLevel, int[] parentIndexes, MerkleHash[] parents,
+            int from, int to, int threshold) {
+        this.nodes = nodes;
+        this.hasher = hasher;
+        this.childLevel = childLevel;
+        this.parentIndexes = parentIndexes;
+        this.parents = parents;
+        this.from = from;
+        this.to = to;
+        this.threshold = threshold;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= threshold) {
+            hashSequentially();
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        invokeAll(
+                new LevelHashTask(nodes, hasher, childLevel, parentIndexes, parents, from, middle, threshold),
+                new LevelHashTask(nodes, hasher, childLevel, parentIndexes, parents, middle, to, threshold));
+    }
+
+    /**
+     * Hashes the whole range in the calling thread.
+     */
+    void hashSequentially() {
+        ParentHasher parentHasher = new ParentHasher(nodes, hasher);
+        if (parentIndexes == null) {
+            parentHasher.hashRange(childLevel, from, to, parents);
+        } else {
+            parentHasher.hashIndexes(childLevel, parentIndexes, from, to, parents);
+        }
+    }
+}
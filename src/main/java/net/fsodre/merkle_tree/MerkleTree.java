@@ -1,15 +1,27 @@
 package net.fsodre.merkle_tree;
 
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.hashers.HasherProvider;
 import net.fsodre.merkle_tree.hashers.MerkleHash;
 import net.fsodre.merkle_tree.nodes.InternalNode;
 import net.fsodre.merkle_tree.nodes.LeafNode;
 import net.fsodre.merkle_tree.nodes.MerkleNode;
+import net.fsodre.merkle_tree.storage.LazyNodeStorage;
+import net.fsodre.merkle_tree.storage.ListNodeStorage;
+import net.fsodre.merkle_tree.storage.MappedNodeStorage;
+import net.fsodre.merkle_tree.storage.NodeStorage;
 
 /**
  * Represents a Merkle tree.
@@ -23,32 +35,124 @@ import net.fsodre.merkle_tree.nodes.MerkleNode;
  *
  * Instead, we just indicate an empty spot using the `null` value and use those
  * spots upon adding new leaves in order to be mindful with memory utilization.
+ * Trees with many empty spots can be made dense again with `compact`, which
+ * moves leaves and reports their new positions.
  *
+ * Each tree has its own hasher, set through the builder, which is used for all
+ * its internal nodes and the proofs it builds. Its leaves must have been hashed
+ * with the same hasher (see `LeafNode.fromData(data, hasher)`).
+ *
+ * Trees built with `Builder.lazyHashing` defer rehashing the internal nodes
+ * until they're read, so reading the root or building proofs may change
+ * them as well.
  */
 final public class MerkleTree implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
+
+    // Hasher of the internal nodes.
+    private final Hasher hasher;
 
-    // All nodes in the tree. The bottom layer (leaf nodes) is represented by nodes[0].
-    private final ArrayList<ArrayList<MerkleNode>> nodes;
+    // Hashes of all nodes in the tree. The bottom layer (leaf nodes) is level 0.
+    private final NodeStorage nodes;
 
     // Position of each leaf node in the bottom layer (nodes[0]).
-    private final HashMap<String, Integer> leafPosition;
+    private final LeafIndex leafPosition;
+
+    // Positions of currently empty leafs (initialized as null or deleted), reused by new leaves.
+    private final FreeLeafSlots emptyLeafIndexes;
+
+    // Pool used to hash large levels in parallel. Null means everything is hashed sequentially.
+    private final transient ForkJoinPool pool;
+
+    // Levels with fewer parent nodes than this are always hashed sequentially.
+    private final int parallelThreshold;
+
+    // Hashes the dirty nodes of each level when a batch is committed. Created when first needed.
+    private transient ParentHasher parentHasher;
 
-    // List of positions of currently empty leafs (initialized as null or deleted).
-    private final LinkedList<Integer> emptyLeafIndexes;
+    // Children of the node being rehashed by single changes, side by side. Created when first needed.
+    private transient byte[] pathScratch;
 
-    // Root node.
-    private MerkleNode root;
+    // Maximum number of cached existence proofs. Zero disables the cache.
+    private final int proofCacheCapacity;
+
+    // Recently built existence proofs. Created when the first proof is built, if enabled.
+    private transient ProofCache proofCache;
+
+    // Whether changes leave the ancestors of their leaves to be rehashed when the internal nodes are next read.
+    private final boolean lazyHashing;
+
+    // Leaves changed since the internal nodes were last rehashed, when hashing lazily.
+    private final BitSet pendingLeaves;
+
+    // Background computation of the internal nodes left unknown by a lazy load. Null if nothing was left unknown.
+    private transient CompletableFuture<Void> materialization;
 
     /**
-     * Initializes an empty tree.
+     * Initializes an empty tree that uses the default hasher.
      */
     public MerkleTree() {
-        root = null;
-        nodes = new ArrayList<>();
-        nodes.add(new ArrayList<>());
-        leafPosition = new HashMap<>();
-        emptyLeafIndexes = new LinkedList<>();
+        this(builder());
+    }
+
+    private MerkleTree(Builder builder) {
+        this(builder, builder.mappedStorage != null
+                ? builder.mappedStorage
+                : builder.storageFactory.create(builder.hashBytes()));
+    }
+
+    private MerkleTree(Builder builder, NodeStorage nodes) {
+        int hashBytes = builder.hashBytes();
+        assert nodes.hashBytes() == hashBytes : "The storage doesn't match the size of the hasher's hashes";
+        this.hasher = builder.hasher;
+        this.nodes = nodes;
+        pool = builder.pool;
+        parallelThreshold = builder.parallelThreshold;
+        proofCacheCapacity = builder.proofCacheCapacity;
+        lazyHashing = builder.lazyHashing;
+        pendingLeaves = new BitSet();
+
+        if (builder.mappedStorage == null) {
+            emptyLeafIndexes = new FreeLeafSlots(builder.reuseLowestEmptyLeaf);
+            leafPosition = new LeafIndex(hashBytes, builder.offHeapIndex);
+            return;
+        }
+
+        if (!builder.mappedStorage.hasherId().equals(builder.hasher.getClass().getName())) {
+            throw new IllegalArgumentException("The tree file was created with hasher " + builder.mappedStorage.hasherId());
+        }
+        // A mapped storage may already contain a tree, whose empty spots and leaf index are kept in the file too.
+        emptyLeafIndexes = new FreeLeafSlots(builder.reuseLowestEmptyLeaf, builder.mappedStorage.emptyLeaves());
+        leafPosition = new LeafIndex(hashBytes, builder.mappedStorage.leafIndexSize(),
+                builder.mappedStorage.leafIndexTable());
+    }
+
+    /**
+     * Returns a builder used to configure how a tree is created.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the hasher used by this tree.
+     */
+    public Hasher getHasher() {
+        return hasher;
+    }
+
+    /**
+     * Builds a tree using the default hasher, containing the given leaves, in
+     * order, in a single bottom-up pass. The bottom layer is filled at once and each internal
+     * level is then computed from the level below it, so every internal node
+     * is hashed exactly once instead of once per leaf added under it.
+     *
+     * Null entries represent empty spots, just like leaves added with
+     * `addLeaf(null)`. The resulting tree is identical to the one obtained by
+     * adding the same leaves one by one.
+     */
+    public static MerkleTree buildFrom(List<LeafNode> leaves) {
+        return builder().buildFrom(leaves);
     }
 
     /**
@@ -59,21 +163,17 @@ final public class MerkleTree implements Serializable {
      * Returns the position in the bottom layer where the node was added.
      */
     public int addLeaf(LeafNode leaf) {
-        int index = emptyLeafIndexes.isEmpty() ? levelSize(0) : emptyLeafIndexes.removeFirst();
+        boolean appending = emptyLeafIndexes.isEmpty();
+        int index = placeLeaf(leaf);
 
-        if (leaf != null) {
-            leafPosition.put(leaf.getHash().toString(), index);
-        } else {
-            emptyLeafIndexes.addLast(index);
-        }
-
-        if (index == levelSize(0)) {
-            getLeaves().add(leaf);
+        if (lazyHashing) {
+            pendingLeaves.set(index);
+        } else if (appending) {
             processCreationAt(/* level= */0, /* index= */ index);
         } else {
-            getLeaves().set(index, leaf);
             updateInternalNode(1, getParentIndex(index));
         }
+        invalidateProofs(index);
 
         return index;
     }
@@ -85,10 +185,7 @@ final public class MerkleTree implements Serializable {
      * @throws AssertionError if there's no leaf with the provided hash.
      */
     public LeafNode updateLeaf(MerkleHash hash, LeafNode newLeaf) {
-        int currentIndex = leafPosition.getOrDefault(hash.toString(), -1);
-        assert currentIndex > -1 : "Updating a non-existing leaf node";
-        leafPosition.remove(hash.toString());
-        return updateLeafAt(currentIndex, newLeaf);
+        return updateLeafAt(findLeafIndex(hash), newLeaf);
     }
 
     /**
@@ -98,10 +195,9 @@ final public class MerkleTree implements Serializable {
      * @throws AssertionError if an invalid index is provided.
      */
     public LeafNode updateLeafAt(int index, LeafNode newLeaf) {
-        assert index < getLeaves().size() : "Trying to update a leaf in an invalid position";
-        leafPosition.put(newLeaf.getHash().toString(), index);
-        getLeaves().set(index, newLeaf);
-        updateInternalNode(1, getParentIndex(index));
+        setLeaf(index, newLeaf);
+        propagateChange(index);
+        invalidateProofs(index);
         return newLeaf;
     }
 
@@ -112,9 +208,7 @@ final public class MerkleTree implements Serializable {
      * @throws AssertionError if there's no leaf with the provided hash.
      */
     public void removeLeaf(MerkleHash hash) {
-        int currentIndex = leafPosition.getOrDefault(hash.toString(), -1);
-        assert currentIndex > -1 : "Removing a non-existing leaf node";
-        removeLeafAt(currentIndex);
+        removeLeafAt(findLeafIndex(hash));
     }
 
     /**
@@ -124,41 +218,125 @@ final public class MerkleTree implements Serializable {
      * @throws AssertionError if an invalid index is provided.
      */
     public void removeLeafAt(int index) {
-        assert index < getLeaves().size() : "Trying to remove a leaf in an invalid position";
+        clearLeaf(index);
+        propagateChange(index);
+        invalidateProofs(index);
+    }
 
-        leafPosition.remove(getLeaves().get(index).toString());
-        getLeaves().set(index, null);
-        emptyLeafIndexes.addLast(index);
-        updateInternalNode(1, getParentIndex(index));
+    /**
+     * Applies several leaf changes at once. The changes are made through the
+     * Batch given to `changes`, which offers the same leaf operations as the
+     * tree itself, but the hashes of the ancestors are only recomputed when
+     * `changes` returns. Ancestors shared by several changed leaves are then
+     * rehashed once instead of once per change.
+     *
+     * If `changes` throws, the changes made until then are still committed.
+     */
+    public void batch(Consumer<Batch> changes) {
+        Batch batch = new Batch();
+        try {
+            changes.accept(batch);
+        } finally {
+            batch.commit();
+        }
+    }
+
+    /**
+     * Moves the last leaves into the empty spots of the bottom layer until all
+     * leaves are packed at its start, then drops the empty spots left at its
+     * end along with the internal nodes above them. The tree gets shorter
+     * when the remaining leaves fit below a lower root, so proofs get
+     * smaller too. `listener` is told the old and new position of each
+     * moved leaf.
+     *
+     * Moving a leaf rehashes both of its paths, so see `compaction` to do it
+     * a few leaves at a time.
+     */
+    public void compact(LeafMoveListener listener) {
+        Compaction compaction = compaction(listener);
+        while (compaction.step(Integer.MAX_VALUE)) {
+        }
+    }
+
+    /**
+     * Returns a compaction of the tree that moves a limited number of leaves
+     * each time `Compaction.step` is called, so that other changes can be
+     * made between steps. The result is the same as `compact` once all
+     * steps are done.
+     */
+    public Compaction compaction(LeafMoveListener listener) {
+        return new Compaction(listener);
     }
 
     /**
      * Returns the root of the tree.
      */
     public MerkleNode getRoot() {
-        return root;
+        rehashPending();
+        if (treeHeight() < 2) {
+            return null;
+        }
+        return InternalNode.withHash(nodes.get(treeHeight() - 1, 0), hasher);
+    }
+
+    /**
+     * Returns the background computation of the internal nodes that
+     * `Builder.readSnapshotLazily` didn't read, which completes once all of
+     * them are known. Trees created otherwise return a completed future.
+     */
+    public CompletableFuture<Void> materialization() {
+        return materialization != null ? materialization : CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Makes sure all changes reach durable storage, when the tree is backed by
+     * a file. Does nothing otherwise.
+     */
+    public void flush() {
+        rehashPending();
+        nodes.flush();
+    }
+
+    /**
+     * Writes a binary snapshot of the tree to `channel`. Unlike Java
+     * serialization, snapshots are just the raw hashes of each level after a
+     * small header, so they can be written and read at disk speed. See
+     * `Builder.readSnapshot` to load them.
+     *
+     * @throws IOException upon issues writing to the channel.
+     */
+    public void writeSnapshot(WritableByteChannel channel) throws IOException {
+        rehashPending();
+        SnapshotFormat.write(this, channel);
     }
 
     /**
      * Builds and returns a proof that a leaf with hash `leafHash` is in the
      * tree. Returns null if the leaf isn't in the tree.
+     *
+     * If the proof cache is enabled (see `Builder.proofCache`), recently
+     * requested proofs are returned from the cache, and the same instance
+     * may be returned to several callers, so adding siblings to it throws
+     * UnsupportedOperationException.
      */
     public ExistenceProof buildExistenceProof(MerkleHash leafHash) {
-        ExistenceProof proof = new ExistenceProof();
-
-        int currentIndex = leafPosition.getOrDefault(leafHash.toString(), -1);
+        rehashPending();
+        int currentIndex = leafPosition.get(leafHash);
 
         if (currentIndex == -1) {
             return null;
         }
+        if (proofCacheCapacity > 0) {
+            return proofCache().get(currentIndex, treeHeight() - 1);
+        }
+
+        ExistenceProof proof = new ExistenceProof(hasher);
 
         for (int level = 0; level < treeHeight() - 1; level++, currentIndex = getParentIndex(currentIndex)) {
             if (currentIndex % 2 == 0) {
-                MerkleNode siblingNode = getNode(level, currentIndex + 1);
-                proof.addRightSibling(siblingNode != null ? siblingNode.getHash() : null);
+                proof.addRightSibling(getHash(level, currentIndex + 1));
             } else {
-                MerkleNode siblingNode = getNode(level, currentIndex - 1);
-                proof.addLeftSibling(siblingNode != null ? siblingNode.getHash() : null);
+                proof.addLeftSibling(getHash(level, currentIndex - 1));
             }
         }
 
@@ -166,110 +344,912 @@ final public class MerkleTree implements Serializable {
     }
 
     /**
-     * Adds a new internal node at a specific tree level.
+     * Returns the number of existence proofs returned from the proof cache,
+     * including cached proofs that had some siblings refreshed.
+     */
+    public long getProofCacheHits() {
+        return proofCache != null ? proofCache.hits() : 0;
+    }
+
+    /**
+     * Returns the number of existence proofs that had to be built from
+     * scratch while the proof cache was enabled.
+     */
+    public long getProofCacheMisses() {
+        return proofCache != null ? proofCache.misses() : 0;
+    }
+
+    /**
+     * Builds and returns a compact proof that a leaf with hash `leafHash` is
+     * in the tree. Returns null if the leaf isn't in the tree.
+     */
+    public CompactProof buildCompactProof(MerkleHash leafHash) {
+        CompactProof proof = new CompactProof();
+        return buildCompactProof(leafHash, proof) ? proof : null;
+    }
+
+    /**
+     * Fills `proof` with a proof that a leaf with hash `leafHash` is in the
+     * tree, reusing its memory. Returns false, leaving `proof` in an
+     * unspecified state, if the leaf isn't in the tree.
      */
-    private MerkleNode addInternalNode(int level) {
-        MerkleNode[] children = getChildren(level, levelSize(level));
-        MerkleNode newNode = InternalNode.from(children[0], children[1]);
+    public boolean buildCompactProof(MerkleHash leafHash, CompactProof proof) {
+        rehashPending();
+        int currentIndex = leafPosition.get(leafHash);
+        if (currentIndex == -1) {
+            return false;
+        }
 
-        // This level still doesn't exist, which means we are increasing the tree height and adding a new root
-        // to it.
-        if (level == nodes.size()) {
-            ArrayList<MerkleNode> newLevel = new ArrayList<>(List.of(newNode));
-            nodes.add(newLevel);
-            this.root = newNode;
-            return newNode;
+        int hashBytes = hashBytes();
+        proof.reset(hasher, hashBytes, treeHeight() - 1);
+        byte[] siblings = proof.siblings();
+        for (int level = 0; level < treeHeight() - 1; level++, currentIndex = getParentIndex(currentIndex)) {
+            int siblingIndex = currentIndex ^ 1;
+            boolean present = siblingIndex < levelSize(level) && nodes.read(level, siblingIndex, siblings, level * hashBytes);
+            proof.setSibling(level, siblingIndex < currentIndex, present);
         }
+        return true;
+    }
 
-        List<MerkleNode> levelNodes = nodes.get(level);
-        levelNodes.add(newNode);
-        processCreationAt(level, levelNodes.size() - 1);
-        return newNode;
+    /**
+     * Builds and returns a proof that all leaves with the given hashes are in
+     * the tree, containing only the siblings that can't be computed from the
+     * leaves themselves. Returns null if any of the leaves isn't in the tree.
+     *
+     * @throws AssertionError if no hashes are given.
+     */
+    public MultiProof buildMultiProof(Collection<MerkleHash> leafHashes) {
+        assert !leafHashes.isEmpty() : "Building a proof for no leaves";
+        rehashPending();
+        int[] positions = new int[leafHashes.size()];
+        int i = 0;
+        for (MerkleHash leafHash : leafHashes) {
+            positions[i] = leafPosition.get(leafHash);
+            if (positions[i++] == -1) {
+                return null;
+            }
+        }
+
+        // Known nodes of the current level, sorted and without duplicates.
+        int[] indexes = positions.clone();
+        Arrays.sort(indexes);
+        int count = 0;
+        for (int index : indexes) {
+            if (count == 0 || indexes[count - 1] != index) {
+                indexes[count++] = index;
+            }
+        }
+
+        int hashBytes = hashBytes();
+        byte[] siblings = new byte[count * hashBytes];
+        int siblingCount = 0;
+        int siblingBytes = 0;
+        BitSet missingSiblings = new BitSet();
+        for (int level = 0; level < treeHeight() - 1; level++) {
+            int parentCount = 0;
+            for (int j = 0; j < count; j++) {
+                int index = indexes[j];
+                if ((index & 1) == 0 && j + 1 < count && indexes[j + 1] == index + 1) {
+                    // Both children are known, so no sibling is needed.
+                    j++;
+                } else {
+                    if (siblings.length < siblingBytes + hashBytes) {
+                        siblings = Arrays.copyOf(siblings, 2 * siblings.length);
+                    }
+                    int siblingIndex = index ^ 1;
+                    if (siblingIndex < levelSize(level) && nodes.read(level, siblingIndex, siblings, siblingBytes)) {
+                        siblingBytes += hashBytes;
+                    } else {
+                        missingSiblings.set(siblingCount);
+                    }
+                    siblingCount++;
+                }
+                indexes[parentCount++] = getParentIndex(index);
+            }
+            count = parentCount;
+        }
+
+        return new MultiProof(hasher, hashBytes, treeHeight() - 1, positions, Arrays.copyOf(siblings, siblingBytes),
+                siblingCount, missingSiblings);
     }
 
     /**
-     * Propagate changes to ancestors of a new node. Creates new ancestor when
-     * necessary.
+     * Puts a leaf in the first empty spot of the bottom layer, or at its end
+     * if there are no empty spots, without updating its ancestors.
+     *
+     * Returns the position where the leaf was put.
      */
-    private void processCreationAt(int level, int index) {
-        int parentLevel = level + 1;
-        int parentIndex = getParentIndex(index);
-        MerkleNode parent = getNode(parentLevel, parentIndex);
-        // The new node doesn't have a parent node in the level above, so we propagate
-        // its creation.
-        if (parent == null) {
-            addInternalNode(parentLevel);
+    private int placeLeaf(LeafNode leaf) {
+        MerkleHash hash = leafHash(leaf);
+        int index;
+        if (emptyLeafIndexes.isEmpty()) {
+            // Appending first, as it fails when the storage is full.
+            index = levelSize(0);
+            nodes.append(0, hash);
         } else {
-            updateInternalNode(parentLevel, parentIndex);
+            index = emptyLeafIndexes.poll();
+            nodes.set(0, index, hash);
         }
+
+        if (leaf != null) {
+            leafPosition.put(leaf.getHash(), index);
+        } else {
+            emptyLeafIndexes.add(index);
+        }
+        return index;
+    }
+
+    /**
+     * Replaces the leaf at a position of the bottom layer without updating
+     * its ancestors.
+     */
+    void setLeaf(int index, LeafNode newLeaf) {
+        setLeafHash(index, leafHash(newLeaf));
+    }
+
+    /**
+     * Replaces the hash at a position of the bottom layer, which is emptied
+     * if the hash is null, without updating its ancestors.
+     */
+    private void setLeafHash(int index, MerkleHash hash) {
+        assert index < levelSize(0) : "Trying to update a leaf in an invalid position";
+        forgetLeafAt(index);
+        if (hash != null) {
+            leafPosition.put(hash, index);
+            emptyLeafIndexes.remove(index);
+        } else {
+            emptyLeafIndexes.add(index);
+        }
+        nodes.set(0, index, hash);
     }
 
-    private MerkleNode getNode(int level, int index) {
-        if (level >= nodes.size()) {
+    /**
+     * Returns the hash of a leaf, or null for empty leaves.
+     *
+     * @throws AssertionError if the leaf hash doesn't have the size of the
+     * hashes of this tree.
+     */
+    private MerkleHash leafHash(LeafNode leaf) {
+        if (leaf == null) {
             return null;
         }
-        List<MerkleNode> levelNodes = nodes.get(level);
-        if (index >= levelNodes.size()) {
+        MerkleHash hash = leaf.getHash();
+        assert hash.sizeInBytes() == hashBytes() : "The leaf wasn't hashed with the hasher of the tree";
+        return hash;
+    }
+
+    /**
+     * Empties a position of the bottom layer without updating its ancestors.
+     */
+    void clearLeaf(int index) {
+        assert index < levelSize(0) : "Trying to remove a leaf in an invalid position";
+
+        forgetLeafAt(index);
+        nodes.set(0, index, null);
+        emptyLeafIndexes.add(index);
+    }
+
+    /**
+     * Removes the leaf currently at `index` from the index of positions. If
+     * the same hash was later added somewhere else, that position is kept.
+     */
+    private void forgetLeafAt(int index) {
+        byte[] scratch = pathScratch();
+        if (nodes.read(0, index, scratch, 0)) {
+            leafPosition.remove(scratch, 0, index);
+        }
+    }
+
+    /**
+     * Drops the empty spots at the end of the bottom layer, and the internal
+     * nodes above them, down to the levels the remaining leaves need.
+     *
+     * The remaining internal nodes keep their hashes: missing children are
+     * hashed just like empty ones, and the nodes whose children were all
+     * dropped had no hash to begin with. Only the root moves down.
+     */
+    private void truncateEmptyLeaves() {
+        int leafCount = levelSize(0);
+        while (leafCount > 0 && !nodes.has(0, leafCount - 1)) {
+            leafCount--;
+        }
+        if (leafCount == levelSize(0)) {
+            return;
+        }
+        // Pending ancestors of the dropped leaves may be kept, so they are rehashed while the leaves are known.
+        rehashPending();
+        emptyLeafIndexes.truncate(leafCount);
+
+        // Same shape as building from `leafCount` leaves, where a single leaf still gets a parent.
+        int[] levelSizes = new int[treeHeight()];
+        int height = 1;
+        levelSizes[0] = leafCount;
+        while (levelSizes[height - 1] > 1 || (height == 1 && leafCount == 1)) {
+            levelSizes[height] = getParentIndex(levelSizes[height - 1] + 1);
+            height++;
+        }
+
+        for (int level = treeHeight() - 1; level >= height; level--) {
+            nodes.truncate(level, 0);
+        }
+        for (int level = 0; level < height; level++) {
+            nodes.truncate(level, levelSizes[level]);
+        }
+    }
+
+    /**
+     * Returns the position of the leaf with the given hash.
+     *
+     * @throws AssertionError if there's no leaf with the provided hash.
+     */
+    int findLeafIndex(MerkleHash hash) {
+        int index = leafPosition.get(hash);
+        assert index > -1 : "Looking for a non-existing leaf node";
+        return index;
+    }
+
+    private ProofCache proofCache() {
+        if (proofCache == null) {
+            proofCache = new ProofCache(proofCacheCapacity, hasher, this::getHash);
+        }
+        return proofCache;
+    }
+
+    /**
+     * Marks the cached proofs that have a sibling on the path of the leaf at
+     * `index`, which just changed.
+     */
+    void invalidateProofs(int index) {
+        if (proofCache != null) {
+            proofCache.invalidatePath(index);
+        }
+    }
+
+    /**
+     * Updates the ancestors of a leaf that changed in place, or leaves them to
+     * be rehashed later when hashing lazily.
+     */
+    private void propagateChange(int index) {
+        if (lazyHashing) {
+            pendingLeaves.set(index);
+        } else {
+            updateInternalNode(1, getParentIndex(index));
+        }
+    }
+
+    /**
+     * Rehashes the ancestors of all leaves changed since the last time, when
+     * hashing lazily. Each ancestor is rehashed once, no matter how many
+     * changes were made below it.
+     */
+    void rehashPending() {
+        if (pendingLeaves.isEmpty()) {
+            return;
+        }
+        int[] dirtyIndexes = pendingLeaves.stream().toArray();
+        pendingLeaves.clear();
+        rehashAncestors(dirtyIndexes, dirtyIndexes.length);
+    }
+
+    /**
+     * Recomputes the ancestors of the given leaf positions, level by level,
+     * creating the ones that don't exist yet. Each ancestor is rehashed once,
+     * no matter how many of the positions are below it. The dirty nodes of
+     * each level are hashed together with `Hasher.hashBatch`, and levels with
+     * more of them than the parallel threshold are split across the pool, as
+     * in `buildInternalLevels`.
+     *
+     * `dirtyIndexes` is used as scratch space, so its content is lost.
+     */
+    private void rehashAncestors(int[] dirtyIndexes, int dirtyCount) {
+        if (dirtyCount == 0) {
+            return;
+        }
+        Arrays.sort(dirtyIndexes, 0, dirtyCount);
+        if (parentHasher == null) {
+            parentHasher = new ParentHasher(nodes, hasher);
+        }
+        MerkleHash[] hashes = new MerkleHash[dirtyCount];
+
+        int level = 0;
+        while (levelSize(level) > 1 || (level == 0 && levelSize(level) == 1)) {
+            int parentLevel = level + 1;
+
+            // Parents of sorted positions are sorted too, so duplicates are adjacent and can be dropped in place.
+            int parentCount = 0;
+            for (int i = 0; i < dirtyCount; i++) {
+                int parentIndex = getParentIndex(dirtyIndexes[i]);
+                if (parentCount == 0 || dirtyIndexes[parentCount - 1] != parentIndex) {
+                    dirtyIndexes[parentCount++] = parentIndex;
+                }
+            }
+            dirtyCount = parentCount;
+
+            if (pool == null || dirtyCount <= parallelThreshold) {
+                parentHasher.hashIndexes(level, dirtyIndexes, 0, dirtyCount, hashes);
+            } else {
+                pool.invoke(new LevelHashTask(nodes, hasher, level, dirtyIndexes, hashes, 0, dirtyCount,
+                        parallelThreshold));
+            }
+            for (int i = 0; i < dirtyCount; i++) {
+                int parentIndex = dirtyIndexes[i];
+                if (parentIndex < levelSize(parentLevel)) {
+                    nodes.set(parentLevel, parentIndex, hashes[i]);
+                } else {
+                    assert parentIndex == levelSize(parentLevel) : "New internal nodes must be created in order";
+                    nodes.append(parentLevel, hashes[i]);
+                }
+            }
+            level = parentLevel;
+        }
+    }
+
+    /**
+     * Computes all internal levels from the bottom layer, one level at a time.
+     * Assumes only the bottom layer exists.
+     */
+    private void buildInternalLevels() {
+        assert treeHeight() == 1 : "Building internal levels of a tree that already has them";
+
+        int level = 0;
+        // A single leaf still gets a parent, which becomes the root.
+        while (levelSize(level) > 1 || (level == 0 && levelSize(level) == 1)) {
+            int parentLevel = level + 1;
+            int parentCount = getParentIndex(levelSize(level) + 1);
+            MerkleHash[] parents = new MerkleHash[parentCount];
+            LevelHashTask task = new LevelHashTask(nodes, hasher, level, parents, 0, parentCount, parallelThreshold);
+
+            if (pool == null || parentCount <= parallelThreshold) {
+                task.hashSequentially();
+            } else {
+                pool.invoke(task);
+            }
+
+            for (MerkleHash parent : parents) {
+                nodes.append(parentLevel, parent);
+            }
+            level = parentLevel;
+        }
+    }
+
+    /**
+     * Propagate changes to ancestors of a new node. Creates new ancestors
+     * when necessary, going up until reaching an existing one, which is
+     * updated along with its own ancestors.
+     */
+    private void processCreationAt(int level, int index) {
+        for (;; level++, index = getParentIndex(index)) {
+            int parentLevel = level + 1;
+            int parentIndex = getParentIndex(index);
+            if (parentIndex < levelSize(parentLevel)) {
+                updateInternalNode(parentLevel, parentIndex);
+                return;
+            }
+
+            // If the parent level still doesn't exist, we are increasing the tree height and adding a new root to it.
+            boolean newRoot = parentLevel == treeHeight();
+            nodes.append(parentLevel, null);
+            rehashNode(parentLevel, parentIndex);
+            if (newRoot) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the hash of a node, or null if the node doesn't exist or has no
+     * hash.
+     */
+    MerkleHash getHash(int level, int index) {
+        if (index >= levelSize(level)) {
             return null;
         }
-        return levelNodes.get(index);
+        return nodes.get(level, index);
     }
 
     /**
      * Updates the hash of the current node based on the current state of its
-     * children. If not the root, recursively call it for its parent.
+     * children, and then the hashes of all its ancestors up to the root.
      */
-    private InternalNode updateInternalNode(int level, int index) {
+    private void updateInternalNode(int level, int index) {
         assert level > 0 : "Calling updateInternalNode on a leaf node";
 
-        InternalNode node = (InternalNode) getNode(level, index);
-        assert node != null;
-        MerkleNode[] children = getChildren(level, index);
+        for (; level < treeHeight(); level++, index = getParentIndex(index)) {
+            assert index < levelSize(level);
+            rehashNode(level, index);
+        }
+    }
 
-        node.update(children[0], children[1]);
+    /**
+     * Recomputes the hash of an existing internal node from the current
+     * hashes of its children. The children are copied next to each other
+     * into a scratch buffer and hashed in place, so that nothing is allocated
+     * besides what the storage needs to keep the new hash.
+     */
+    private void rehashNode(int level, int index) {
+        int childLevel = level - 1;
+        int hashBytes = hashBytes();
+        pathScratch();
 
-        // If not root, update ancestors too.
-        if (level < treeHeight() - 1) {
-            updateInternalNode(level + 1, getParentIndex(index));
+        // A single child is hashed alone, no matter its side, and no children means no hash.
+        int length = 0;
+        if (readChild(childLevel, 2 * index, length)) {
+            length += hashBytes;
+        }
+        if (readChild(childLevel, 2 * index + 1, length)) {
+            length += hashBytes;
+        }
+        if (length == 0) {
+            nodes.set(level, index, null);
+            return;
         }
-        return node;
+        hasher.hashInto(pathScratch, 0, length, pathScratch, 0);
+        nodes.write(level, index, pathScratch, 0);
     }
 
-    private MerkleNode getChild(int parentLevel, int parentIndex, int childRelativeIndex) {
-        assert childRelativeIndex < 2 : "Trying to get child node beyond the second one";
-        assert parentLevel > 0 : "Trying to get child of leaf node";
-        int childLevel = parentLevel - 1;
-        int childIndex = parentIndex * 2 + childRelativeIndex;
-
-        if (childIndex >= levelSize(childLevel)) {
-            return null;
+    /**
+     * Returns the scratch buffer, with room for two hashes, allocating it the
+     * first time.
+     */
+    private byte[] pathScratch() {
+        if (pathScratch == null) {
+            pathScratch = new byte[2 * hashBytes()];
         }
+        return pathScratch;
+    }
+
+    /**
+     * Copies the hash of a node into the scratch buffer, at `offset`. Returns
+     * false if the node doesn't exist or has no hash.
+     */
+    private boolean readChild(int level, int index, int offset) {
+        return index < levelSize(level) && nodes.read(level, index, pathScratch, offset);
+    }
+
+    /**
+     * Computes the hash of an internal node from the current hashes of its
+     * children.
+     */
+    MerkleHash hashChildren(int parentLevel, int parentIndex) {
+        assert parentLevel > 0 : "Trying to get children of leaf node";
+        int childLevel = parentLevel - 1;
+        return InternalNode.hashOf(getHash(childLevel, 2 * parentIndex), getHash(childLevel, 2 * parentIndex + 1),
+                hasher);
+    }
 
-        return getNode(childLevel, childIndex);
+    /**
+     * Returns the storage of the nodes, for the snapshot format.
+     */
+    NodeStorage storage() {
+        return nodes;
     }
 
-    private MerkleNode[] getChildren(int parentLevel, int parentIndex) {
-        return new MerkleNode[]{
-            getChild(parentLevel, parentIndex, 0),
-            getChild(parentLevel, parentIndex, 1),};
+    /**
+     * Returns the number of bytes of each hash in the tree.
+     */
+    int hashBytes() {
+        return nodes.hashBytes();
     }
 
-    private int treeHeight() {
-        return nodes.size();
+    /**
+     * Returns the empty leaf positions, in the order they'll be reused.
+     */
+    int[] emptyLeafIndexes() {
+        return emptyLeafIndexes.toArray();
     }
 
-    private int levelSize(int level) {
-        if (level >= treeHeight()) {
-            return 0;
+    /**
+     * Indexes the leaves of a bottom layer that was filled directly in the
+     * storage, and sets the positions that are considered empty.
+     */
+    void restoreLeaves(int[] emptyIndexes) {
+        assert leafPosition.size() == 0 && emptyLeafIndexes.isEmpty() : "Restoring the leaves of a tree in use";
+        for (int index = 0; index < levelSize(0); index++) {
+            MerkleHash hash = nodes.get(0, index);
+            if (hash != null) {
+                leafPosition.put(hash, index);
+            }
+        }
+        for (int index : emptyIndexes) {
+            emptyLeafIndexes.add(index);
         }
-        return nodes.get(level).size();
     }
 
-    private List<MerkleNode> getLeaves() {
-        return nodes.get(0);
+    int treeHeight() {
+        return nodes.height();
+    }
+
+    int levelSize(int level) {
+        return nodes.levelSize(level);
     }
 
     private int getParentIndex(int childIndex) {
         return childIndex / 2;
     }
+
+    /**
+     * A set of leaf changes whose effect on the internal nodes is computed all
+     * at once. Batches are obtained through `MerkleTree.batch` and must not be
+     * used after it returns.
+     */
+    public final class Batch {
+        // Positions of the bottom layer changed by this batch, possibly repeated.
+        private int[] dirtyIndexes = new int[16];
+        private int dirtyCount = 0;
+        private boolean committed = false;
+
+        private Batch() {
+        }
+
+        /**
+         * Adds a new leaf node, with the same placement rules as
+         * `MerkleTree.addLeaf`.
+         *
+         * Returns the position in the bottom layer where the node was added.
+         */
+        public int addLeaf(LeafNode leaf) {
+            checkOpen();
+            return markDirty(placeLeaf(leaf));
+        }
+
+        /**
+         * Updates the data of a leaf, given its current hash in the tree.
+         *
+         * @throws AssertionError if there's no leaf with the provided hash.
+         */
+        public LeafNode updateLeaf(MerkleHash hash, LeafNode newLeaf) {
+            return updateLeafAt(findLeafIndex(hash), newLeaf);
+        }
+
+        /**
+         * Updates the data of a leaf, given its position in the leaves layer.
+         *
+         * @throws AssertionError if an invalid index is provided.
+         */
+        public LeafNode updateLeafAt(int index, LeafNode newLeaf) {
+            checkOpen();
+            setLeaf(index, newLeaf);
+            markDirty(index);
+            return newLeaf;
+        }
+
+        /**
+         * Removes a leaf given its current hash in the tree.
+         *
+         * @throws AssertionError if there's no leaf with the provided hash.
+         */
+        public void removeLeaf(MerkleHash hash) {
+            removeLeafAt(findLeafIndex(hash));
+        }
+
+        /**
+         * Removes a leaf given its position in the leaves layer.
+         *
+         * @throws AssertionError if an invalid index is provided.
+         */
+        public void removeLeafAt(int index) {
+            checkOpen();
+            clearLeaf(index);
+            markDirty(index);
+        }
+
+        private int markDirty(int index) {
+            if (dirtyCount == dirtyIndexes.length) {
+                dirtyIndexes = Arrays.copyOf(dirtyIndexes, 2 * dirtyCount);
+            }
+            dirtyIndexes[dirtyCount++] = index;
+            return index;
+        }
+
+        private void checkOpen() {
+            assert !committed : "Using a batch that was already committed";
+        }
+
+        private void commit() {
+            committed = true;
+            if (proofCache != null) {
+                proofCache.invalidatePaths(dirtyIndexes, dirtyCount);
+            }
+            if (lazyHashing) {
+                for (int i = 0; i < dirtyCount; i++) {
+                    pendingLeaves.set(dirtyIndexes[i]);
+                }
+                return;
+            }
+            rehashAncestors(dirtyIndexes, dirtyCount);
+        }
+    }
+
+    /**
+     * Receives the leaves moved by a compaction.
+     */
+    @FunctionalInterface
+    public interface LeafMoveListener {
+        /**
+         * Called when the leaf at `oldIndex` of the bottom layer is moved to
+         * `newIndex`.
+         */
+        void leafMoved(int oldIndex, int newIndex);
+    }
+
+    /**
+     * A compaction of the tree, made a few leaves at a time. Compactions are
+     * obtained through `MerkleTree.compaction`.
+     *
+     * Each step moves the last leaves into the lowest empty spots and rehashes
+     * their ancestors once, like a batch. Leaves may be added, changed and
+     * removed between steps; empty spots opened below the ones already
+     * filled are found again once the others run out.
+     */
+    public final class Compaction {
+        private final LeafMoveListener listener;
+
+        // Lowest position that may still be empty, where the search for empty spots starts.
+        private int nextHole = 0;
+
+        private Compaction(LeafMoveListener listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * Moves up to `maxMoves` leaves and drops the empty spots left at the
+         * end of the bottom layer. Returns whether there are still empty spots
+         * to fill.
+         *
+         * @throws AssertionError if `maxMoves` isn't positive.
+         */
+        public boolean step(int maxMoves) {
+            assert maxMoves > 0 : "Compaction steps must move some leaves";
+            Batch moves = new Batch();
+            int end = levelSize(0);
+            for (int count = 0; count < maxMoves; count++) {
+                while (end > 0 && !nodes.has(0, end - 1)) {
+                    end--;
+                }
+                int hole = emptyLeafIndexes.next(nextHole);
+                if (hole == -1 && nextHole > 0) {
+                    hole = emptyLeafIndexes.next(0);
+                }
+                if (hole == -1 || hole >= end) {
+                    break;
+                }
+
+                int from = end - 1;
+                MerkleHash hash = nodes.get(0, from);
+                clearLeaf(from);
+                setLeafHash(hole, hash);
+                moves.markDirty(from);
+                moves.markDirty(hole);
+                listener.leafMoved(from, hole);
+                nextHole = hole + 1;
+                end = from;
+            }
+            moves.commit();
+            truncateEmptyLeaves();
+            return !isDone();
+        }
+
+        /**
+         * Returns whether all leaves are packed at the start of the bottom
+         * layer.
+         */
+        public boolean isDone() {
+            return emptyLeafIndexes.isEmpty();
+        }
+    }
+
+    /**
+     * Configures and creates trees. By default trees use the hasher set in
+     * HasherProvider when the builder was created, and are hashed
+     * sequentially; providing a ForkJoinPool makes bulk builds split each
+     * large level across the pool's threads.
+     */
+    public static final class Builder {
+        // Default minimum number of parent nodes in a level for it to be hashed in parallel.
+        public static final int DEFAULT_PARALLEL_THRESHOLD = 4096;
+
+        private Hasher hasher = HasherProvider.getHasher();
+        private ForkJoinPool pool = null;
+        private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+        private boolean offHeapIndex = false;
+        private NodeStorage.Factory storageFactory = ListNodeStorage::new;
+        private MappedNodeStorage mappedStorage = null;
+        private int proofCacheCapacity = 0;
+        private boolean lazyHashing = false;
+        private boolean reuseLowestEmptyLeaf = false;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the hasher used by the tree.
+         */
+        public Builder hasher(Hasher hasher) {
+            this.hasher = hasher;
+            return this;
+        }
+
+        /**
+         * Hashes large levels in parallel using the given pool. Passing null
+         * disables parallel hashing.
+         */
+        public Builder parallelism(ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        /**
+         * Sets the number of parent nodes below which a level is hashed
+         * sequentially. It's also the size of the chunks in which larger
+         * levels are split.
+         *
+         * @throws AssertionError if the threshold isn't positive.
+         */
+        public Builder parallelThreshold(int parallelThreshold) {
+            assert parallelThreshold > 0 : "The parallel threshold must be positive";
+            this.parallelThreshold = parallelThreshold;
+            return this;
+        }
+
+        /**
+         * Keeps the index of leaf positions outside of the Java heap.
+         */
+        public Builder offHeapIndex(boolean offHeapIndex) {
+            this.offHeapIndex = offHeapIndex;
+            return this;
+        }
+
+        /**
+         * Sets how the hashes of the nodes are stored. By default each level
+         * is a list of MerkleHash objects (ListNodeStorage); a more compact
+         * option is `FlatNodeStorage::new`.
+         */
+        public Builder storage(NodeStorage.Factory storageFactory) {
+            this.storageFactory = storageFactory;
+            return this;
+        }
+
+        /**
+         * Keeps the nodes and the leaf index in a memory-mapped file. If the
+         * file already contains a tree, the built tree is that one, so
+         * `buildFrom` can only be used with new files. Calling `flush` on the
+         * tree forces its changes to disk; the storage must be closed by the
+         * caller once the tree is no longer used. The storage must have been
+         * opened with the hasher of the tree, or building the tree throws
+         * IllegalArgumentException.
+         */
+        public Builder mappedStorage(MappedNodeStorage mappedStorage) {
+            this.mappedStorage = mappedStorage;
+            return this;
+        }
+
+        /**
+         * Caches the existence proofs of up to `capacity` recently requested
+         * leaves, evicting the least recently used ones. Leaf changes don't
+         * drop cached proofs: only the siblings they changed are read again
+         * when the proof is next requested. Zero, the default, disables the
+         * cache.
+         *
+         * @throws AssertionError if the capacity is negative.
+         */
+        public Builder proofCache(int capacity) {
+            assert capacity >= 0 : "The capacity of the proof cache can't be negative";
+            this.proofCacheCapacity = capacity;
+            return this;
+        }
+
+        /**
+         * Makes new leaves take the lowest empty position of the bottom
+         * layer, which keeps the leaves packed at its start, instead of the
+         * position that became empty first. Empty positions are then tracked
+         * with a single bit each.
+         */
+        public Builder reuseLowestEmptyLeaf(boolean reuseLowestEmptyLeaf) {
+            this.reuseLowestEmptyLeaf = reuseLowestEmptyLeaf;
+            return this;
+        }
+
+        /**
+         * Makes leaf changes only record which leaves changed. Their
+         * ancestors are rehashed all at once, each of them a single time, the
+         * next time the internal nodes are needed: when the root, a proof or
+         * a snapshot is requested, or when the tree is flushed. Useful when
+         * many changes are made between reads.
+         */
+        public Builder lazyHashing(boolean lazyHashing) {
+            this.lazyHashing = lazyHashing;
+            return this;
+        }
+
+        /**
+         * Creates an empty tree, or opens the tree in the mapped storage.
+         */
+        public MerkleTree build() {
+            return new MerkleTree(this);
+        }
+
+        /**
+         * Creates a tree containing the given leaves in a single bottom-up
+         * pass. See `MerkleTree.buildFrom`.
+         */
+        public MerkleTree buildFrom(List<LeafNode> leaves) {
+            MerkleTree tree = build();
+            assert tree.levelSize(0) == 0 : "Building a tree on top of a non-empty storage";
+
+            for (int index = 0; index < leaves.size(); index++) {
+                LeafNode leaf = leaves.get(index);
+                MerkleHash hash = tree.leafHash(leaf);
+                if (hash != null) {
+                    tree.leafPosition.put(hash, index);
+                } else {
+                    tree.emptyLeafIndexes.add(index);
+                }
+                tree.nodes.append(0, hash);
+            }
+
+            tree.buildInternalLevels();
+            return tree;
+        }
+
+        /**
+         * Creates a tree from a snapshot written by `MerkleTree.writeSnapshot`.
+         *
+         * @throws IOException upon issues reading from the channel, if the
+         * data isn't a valid snapshot or if it was written with a different
+         * hasher.
+         */
+        public MerkleTree readSnapshot(ReadableByteChannel channel) throws IOException {
+            MerkleTree tree = build();
+            assert tree.levelSize(0) == 0 : "Reading a snapshot on top of a non-empty storage";
+
+            SnapshotFormat.Reader reader = new SnapshotFormat.Reader(channel);
+            SnapshotFormat.Header header = SnapshotFormat.readHeader(reader, hasher);
+            for (int level = 0; level < header.levelSizes.length; level++) {
+                SnapshotFormat.readLevel(reader, header, level, tree.nodes);
+            }
+            tree.restoreLeaves(header.emptyLeafIndexes);
+            return tree;
+        }
+
+        /**
+         * Same as `readSnapshot`, but only the leaves and the top `topLevels`
+         * levels are read. The tree can be used right away: the other
+         * internal nodes are computed from their children when first needed,
+         * and all of them are computed in the background, using the pool set
+         * with `parallelism` or the common pool. Missing levels are skipped
+         * without reading them if the channel is seekable.
+         *
+         * The nodes are kept in a LazyNodeStorage wrapping the configured
+         * storage, which can't be a mapped one.
+         *
+         * @throws IOException upon issues reading from the channel, if the
+         * data isn't a valid snapshot or if it was written with a different
+         * hasher.
+         */
+        public MerkleTree readSnapshotLazily(ReadableByteChannel channel, int topLevels) throws IOException {
+            assert mappedStorage == null : "Mapped trees can't be loaded lazily";
+            LazyNodeStorage lazyNodes = new LazyNodeStorage(storageFactory.create(hashBytes()), hasher);
+            MerkleTree tree = new MerkleTree(this, lazyNodes);
+
+            SnapshotFormat.Reader reader = new SnapshotFormat.Reader(channel);
+            SnapshotFormat.Header header = SnapshotFormat.readHeader(reader, hasher);
+            int height = header.levelSizes.length;
+            for (int level = 0; level < height; level++) {
+                if (level == 0 || level >= height - topLevels) {
+                    SnapshotFormat.readLevel(reader, header, level, lazyNodes);
+                } else {
+                    reader.skip(header.levelBytes(level));
+                    lazyNodes.appendUnknown(level, header.levelSizes[level]);
+                }
+            }
+            tree.restoreLeaves(header.emptyLeafIndexes);
+
+            tree.materialization = lazyNodes.materializeAsync(pool != null ? pool : ForkJoinPool.commonPool());
+            return tree;
+        }
+
+        private int hashBytes() {
+            return hasher.outputBitsCount() / 8;
+        }
+    }
 }
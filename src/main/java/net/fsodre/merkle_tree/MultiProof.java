@@ -0,0 +1,164 @@
+package net.fsodre.merkle_tree;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+import net.fsodre.merkle_tree.nodes.InternalNode;
+
+/**
+ * Proves that several leaves are in a tree at once. Instead of one path per
+ * leaf, it contains only the siblings that can't be computed from the leaves
+ * themselves: the paths of nearby leaves merge as they go up, so the siblings
+ * they share are included once, and siblings that are ancestors of other
+ * target leaves aren't included at all.
+ *
+ * The proof holds the position of each target leaf and the needed siblings,
+ * level by level from the bottom and left to right within each level.
+ */
+public final class MultiProof implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Hasher of the tree the proof refers to.
+    private final Hasher hasher;
+
+    // Number of bytes of each hash.
+    private final int hashBytes;
+
+    // Number of levels below the root.
+    private final int depth;
+
+    // Positions of the target leaves, in the order they were given.
+    private final int[] positions;
+
+    // Hashes of the needed siblings, one after the other. Missing siblings take no space.
+    private final byte[] siblings;
+
+    // Number of needed siblings, including missing ones.
+    private final int siblingCount;
+
+    // Bit `i` is set if the `i`-th needed sibling doesn't exist or has no hash.
+    private final BitSet missingSiblings;
+
+    MultiProof(Hasher hasher, int hashBytes, int depth, int[] positions, byte[] siblings, int siblingCount,
+            BitSet missingSiblings) {
+        this.hasher = hasher;
+        this.hashBytes = hashBytes;
+        this.depth = depth;
+        this.positions = positions;
+        this.siblings = siblings;
+        this.siblingCount = siblingCount;
+        this.missingSiblings = missingSiblings;
+    }
+
+    /**
+     * Returns the positions of the target leaves, in the order they were
+     * given when building the proof.
+     */
+    public int[] positions() {
+        return positions.clone();
+    }
+
+    /**
+     * Returns the number of sibling hashes included in the proof.
+     */
+    public int siblingCount() {
+        return siblingCount - missingSiblings.cardinality();
+    }
+
+    /**
+     * Verifies that the leaves with hashes `leafHashes` are in the tree whose
+     * root has hash `root`. The hashes must be given in the same order as the
+     * leaves given when building the proof. Each internal node above the
+     * leaves is hashed once.
+     *
+     * Returns false, rather than throwing, for null or wrongly sized hashes
+     * and for proofs whose siblings don't add up.
+     */
+    public boolean verify(List<MerkleHash> leafHashes, MerkleHash root) {
+        if (leafHashes.size() != positions.length || positions.length == 0) {
+            return false;
+        }
+
+        // Known nodes of the current level, sorted by position.
+        Integer[] order = new Integer[positions.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(positions[a], positions[b]));
+        int[] indexes = new int[positions.length];
+        MerkleHash[] hashes = new MerkleHash[positions.length];
+        int count = 0;
+        for (int i : order) {
+            MerkleHash hash = leafHashes.get(i);
+            if (hash == null || hash.sizeInBytes() != hashBytes) {
+                return false;
+            }
+            if (count > 0 && indexes[count - 1] == positions[i]) {
+                // The same leaf was given twice.
+                if (!hashes[count - 1].equals(hash)) {
+                    return false;
+                }
+                continue;
+            }
+            indexes[count] = positions[i];
+            hashes[count++] = hash;
+        }
+
+        int sibling = 0;
+        int siblingOffset = 0;
+        for (int level = 0; level < depth; level++) {
+            int parentCount = 0;
+            for (int i = 0; i < count; i++) {
+                int index = indexes[i];
+                MerkleHash left;
+                MerkleHash right;
+                if ((index & 1) == 0 && i + 1 < count && indexes[i + 1] == index + 1) {
+                    left = hashes[i];
+                    right = hashes[++i];
+                } else {
+                    if (sibling == siblingCount) {
+                        return false;
+                    }
+                    MerkleHash siblingHash = null;
+                    if (!missingSiblings.get(sibling)) {
+                        if (siblingOffset + hashBytes > siblings.length) {
+                            return false;
+                        }
+                        siblingHash = MerkleHash.fromHashCode(siblings, siblingOffset, hashBytes);
+                        siblingOffset += hashBytes;
+                    }
+                    sibling++;
+                    left = (index & 1) == 0 ? hashes[i] : siblingHash;
+                    right = (index & 1) == 0 ? siblingHash : hashes[i];
+                }
+                indexes[parentCount] = index / 2;
+                hashes[parentCount++] = InternalNode.hashOf(left, right, hasher);
+            }
+            count = parentCount;
+        }
+
+        return sibling == siblingCount && count == 1 && indexes[0] == 0 && hashes[0].equals(root);
+    }
+
+    /**
+     * Rejects proofs whose arrays don't match their counts, so that a
+     * deserialized proof is as consistent as a built one.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (hasher == null || hashBytes <= 0 || depth < 0 || depth > Integer.SIZE || positions == null
+                || siblings == null || missingSiblings == null || siblingCount < 0
+                || missingSiblings.length() > siblingCount
+                || siblings.length != (long) (siblingCount - missingSiblings.cardinality()) * hashBytes
+                || Arrays.stream(positions).anyMatch(position -> position < 0)) {
+            throw new InvalidObjectException("Corrupted multi-proof");
+        }
+    }
+}
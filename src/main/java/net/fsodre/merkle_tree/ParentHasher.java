@@ -0,0 +1,114 @@
+package net.fsodre.merkle_tree;
+
+import java.nio.ByteBuffer;
+
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+import net.fsodre.merkle_tree.nodes.InternalNode;
+import net.fsodre.merkle_tree.storage.NodeStorage;
+
+/**
+ * Computes the hashes of many internal nodes of a level at once. The children
+ * of nodes that have two of them are copied side by side into a buffer and
+ * hashed with a single `Hasher.hashBatch` call per chunk; the few nodes with
+ * fewer children are hashed one by one.
+ *
+ * Instances keep scratch buffers, so they must not be shared between threads.
+ */
+final class ParentHasher {
+    // Maximum number of nodes hashed by each `hashBatch` call.
+    private static final int CHUNK = 256;
+
+    private final NodeStorage nodes;
+    private final Hasher hasher;
+    private final int hashBytes;
+
+    // Concatenated children of the pending nodes.
+    private final byte[] inputs;
+    private final ByteBuffer inputBuffer;
+
+    // Hashes of the pending nodes, once computed.
+    private final byte[] outputs;
+    private final ByteBuffer outputBuffer;
+
+    // Array receiving the hashes, and the position in it of each pending node.
+    private MerkleHash[] hashes;
+    private final int[] pendingSlots = new int[CHUNK];
+    private int pendingCount = 0;
+
+    ParentHasher(NodeStorage nodes, Hasher hasher) {
+        this.nodes = nodes;
+        this.hasher = hasher;
+        this.hashBytes = nodes.hashBytes();
+        this.inputs = new byte[CHUNK * 2 * hashBytes];
+        this.inputBuffer = ByteBuffer.wrap(inputs);
+        this.outputs = new byte[CHUNK * hashBytes];
+        this.outputBuffer = ByteBuffer.wrap(outputs);
+    }
+
+    /**
+     * Computes the parents `[from, to)` of the nodes of `childLevel`, putting
+     * the hash of parent `i` in `hashes[i]`.
+     */
+    void hashRange(int childLevel, int from, int to, MerkleHash[] hashes) {
+        this.hashes = hashes;
+        for (int index = from; index < to; index++) {
+            add(childLevel, index, index);
+        }
+        flush();
+    }
+
+    /**
+     * Computes the parents of the nodes of `childLevel` whose positions are
+     * `parentIndexes[from, to)`, putting the hash of `parentIndexes[i]` in
+     * `hashes[i]`.
+     */
+    void hashIndexes(int childLevel, int[] parentIndexes, int from, int to, MerkleHash[] hashes) {
+        this.hashes = hashes;
+        for (int i = from; i < to; i++) {
+            add(childLevel, parentIndexes[i], i);
+        }
+        flush();
+    }
+
+    /**
+     * Hashes a node right away if it has fewer than two children. Otherwise,
+     * its children are copied to the inputs and it's left pending.
+     */
+    private void add(int childLevel, int parentIndex, int slot) {
+        int left = 2 * parentIndex;
+        int right = left + 1;
+        int offset = pendingCount * 2 * hashBytes;
+        boolean bothChildren = right < nodes.levelSize(childLevel)
+                && nodes.read(childLevel, left, inputs, offset)
+                && nodes.read(childLevel, right, inputs, offset + hashBytes);
+        if (!bothChildren) {
+            hashes[slot] = InternalNode.hashOf(getChild(childLevel, left), getChild(childLevel, right), hasher);
+            return;
+        }
+        pendingSlots[pendingCount++] = slot;
+        if (pendingCount == CHUNK) {
+            flush();
+        }
+    }
+
+    /**
+     * Hashes the pending nodes.
+     */
+    private void flush() {
+        if (pendingCount == 0) {
+            return;
+        }
+        inputBuffer.clear();
+        outputBuffer.clear();
+        hasher.hashBatch(inputBuffer, 2 * hashBytes, pendingCount, outputBuffer);
+        for (int i = 0; i < pendingCount; i++) {
+            hashes[pendingSlots[i]] = MerkleHash.fromHashCode(outputs, i * hashBytes, hashBytes);
+        }
+        pendingCount = 0;
+    }
+
+    private MerkleHash getChild(int level, int index) {
+        return index < nodes.levelSize(level) ? nodes.get(level, index) : null;
+    }
+}
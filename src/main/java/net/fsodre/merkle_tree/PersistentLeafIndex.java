@@ -0,0 +1,232 @@
+package net.fsodre.merkle_tree;
+
+import java.util.Arrays;
+
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+
+/**
+ * Immutable map from leaf hashes to their position in the bottom layer, used
+ * by PersistentMerkleTree. Changes return a new map that shares everything but
+ * the changed path with the old one.
+ *
+ * It's a hash array mapped trie: each branch consumes 5 bits of the key's
+ * hash code and keeps only its present children, packed in an array indexed
+ * through a 32-bit bitmap. Keys whose hash codes are equal end up together in
+ * a collision node.
+ */
+final class PersistentLeafIndex {
+    private static final int BITS_PER_LEVEL = 5;
+
+    static final PersistentLeafIndex EMPTY = new PersistentLeafIndex(null);
+
+    // A Branch, an Entry, a Collision, or null for the empty map.
+    private final Object root;
+
+    /**
+     * A position of a leaf hash.
+     */
+    private static final class Entry {
+        private final MerkleHash hash;
+        private final int code;
+        private final int position;
+
+        Entry(MerkleHash hash, int code, int position) {
+            this.hash = hash;
+            this.code = code;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Entries whose keys have the same hash code.
+     */
+    private static final class Collision {
+        private final Entry[] entries;
+
+        Collision(Entry[] entries) {
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * Children of a node, indexed by the next bits of the hash codes.
+     */
+    private static final class Branch {
+        private final int bitmap;
+        private final Object[] children;
+
+        Branch(int bitmap, Object[] children) {
+            this.bitmap = bitmap;
+            this.children = children;
+        }
+    }
+
+    private PersistentLeafIndex(Object root) {
+        this.root = root;
+    }
+
+    /**
+     * Returns the position of the leaf with the given hash, or -1 if there's
+     * none.
+     */
+    int get(MerkleHash hash) {
+        int code = code(hash);
+        Object node = root;
+        for (int shift = 0; node instanceof Branch; shift += BITS_PER_LEVEL) {
+            Branch branch = (Branch) node;
+            int bit = bit(code, shift);
+            if ((branch.bitmap & bit) == 0) {
+                return -1;
+            }
+            node = branch.children[slot(branch.bitmap, bit)];
+        }
+        if (node instanceof Entry) {
+            Entry entry = (Entry) node;
+            return entry.hash.equals(hash) ? entry.position : -1;
+        }
+        if (node instanceof Collision) {
+            for (Entry entry : ((Collision) node).entries) {
+                if (entry.hash.equals(hash)) {
+                    return entry.position;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a map where `hash` is at `position`, replacing its previous
+     * position if any.
+     */
+    PersistentLeafIndex put(MerkleHash hash, int position) {
+        return new PersistentLeafIndex(put(root, 0, new Entry(hash, code(hash), position)));
+    }
+
+    /**
+     * Returns a map without `hash`, if it's at `position`. Otherwise the same
+     * hash was put somewhere else later, and this map is returned.
+     */
+    PersistentLeafIndex remove(MerkleHash hash, int position) {
+        Object newRoot = remove(root, 0, code(hash), hash, position);
+        return newRoot == root ? this : new PersistentLeafIndex(newRoot);
+    }
+
+    private static Object put(Object node, int shift, Entry entry) {
+        if (node == null) {
+            return entry;
+        }
+        if (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            int bit = bit(entry.code, shift);
+            int slot = slot(branch.bitmap, bit);
+            if ((branch.bitmap & bit) == 0) {
+                Object[] children = new Object[branch.children.length + 1];
+                System.arraycopy(branch.children, 0, children, 0, slot);
+                children[slot] = entry;
+                System.arraycopy(branch.children, slot, children, slot + 1, branch.children.length - slot);
+                return new Branch(branch.bitmap | bit, children);
+            }
+            Object[] children = branch.children.clone();
+            children[slot] = put(children[slot], shift + BITS_PER_LEVEL, entry);
+            return new Branch(branch.bitmap, children);
+        }
+        if (node instanceof Entry) {
+            Entry existing = (Entry) node;
+            if (existing.hash.equals(entry.hash)) {
+                return entry;
+            }
+            if (existing.code == entry.code) {
+                return new Collision(new Entry[]{existing, entry});
+            }
+            // Different hash codes differ at some level, so pushing the existing entry down ends up separating them.
+            Branch branch = new Branch(bit(existing.code, shift), new Object[]{existing});
+            return put(branch, shift, entry);
+        }
+
+        Collision collision = (Collision) node;
+        if (collision.entries[0].code != entry.code) {
+            Branch branch = new Branch(bit(collision.entries[0].code, shift), new Object[]{collision});
+            return put(branch, shift, entry);
+        }
+        for (int i = 0; i < collision.entries.length; i++) {
+            if (collision.entries[i].hash.equals(entry.hash)) {
+                Entry[] entries = collision.entries.clone();
+                entries[i] = entry;
+                return new Collision(entries);
+            }
+        }
+        Entry[] entries = Arrays.copyOf(collision.entries, collision.entries.length + 1);
+        entries[entries.length - 1] = entry;
+        return new Collision(entries);
+    }
+
+    private static Object remove(Object node, int shift, int code, MerkleHash hash, int position) {
+        if (node instanceof Entry) {
+            Entry entry = (Entry) node;
+            return entry.hash.equals(hash) && entry.position == position ? null : node;
+        }
+        if (node instanceof Collision) {
+            Entry[] entries = ((Collision) node).entries;
+            for (int i = 0; i < entries.length; i++) {
+                if (entries[i].hash.equals(hash) && entries[i].position == position) {
+                    if (entries.length == 2) {
+                        return entries[1 - i];
+                    }
+                    Entry[] remaining = new Entry[entries.length - 1];
+                    System.arraycopy(entries, 0, remaining, 0, i);
+                    System.arraycopy(entries, i + 1, remaining, i, remaining.length - i);
+                    return new Collision(remaining);
+                }
+            }
+            return node;
+        }
+        if (node == null) {
+            return null;
+        }
+
+        Branch branch = (Branch) node;
+        int bit = bit(code, shift);
+        if ((branch.bitmap & bit) == 0) {
+            return node;
+        }
+        int slot = slot(branch.bitmap, bit);
+        Object child = branch.children[slot];
+        Object newChild = remove(child, shift + BITS_PER_LEVEL, code, hash, position);
+        if (newChild == child) {
+            return node;
+        }
+        if (newChild != null) {
+            Object[] children = branch.children.clone();
+            children[slot] = newChild;
+            return new Branch(branch.bitmap, children);
+        }
+        if (branch.children.length == 1) {
+            return null;
+        }
+        Object[] children = new Object[branch.children.length - 1];
+        System.arraycopy(branch.children, 0, children, 0, slot);
+        System.arraycopy(branch.children, slot + 1, children, slot, children.length - slot);
+        // A single entry left can take the place of its branch, as lookups stop at the first entry found.
+        if (children.length == 1 && !(children[0] instanceof Branch)) {
+            return children[0];
+        }
+        return new Branch(branch.bitmap & ~bit, children);
+    }
+
+    /**
+     * Returns the hash code of a key, with its high bits spread to the low
+     * ones, which are consumed first.
+     */
+    private static int code(MerkleHash hash) {
+        int code = hash.hashCode();
+        return code ^ (code >>> 16);
+    }
+
+    private static int bit(int code, int shift) {
+        return 1 << ((code >>> shift) & 31);
+    }
+
+    private static int slot(int bitmap, int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+}
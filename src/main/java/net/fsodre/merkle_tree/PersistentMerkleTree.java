@@ -0,0 +1,222 @@
+package net.fsodre.merkle_tree;
+
+import net.fsodre.merkle_tree.TreeSnapshot.Node;
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.hashers.HasherProvider;
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+import net.fsodre.merkle_tree.nodes.InternalNode;
+import net.fsodre.merkle_tree.nodes.LeafNode;
+import net.fsodre.merkle_tree.nodes.MerkleNode;
+
+/**
+ * A Merkle tree whose versions are immutable, so it can be read concurrently
+ * with updates. It has the same shape, hashes and leaf placement rules as
+ * MerkleTree, so the same changes lead to the same roots.
+ *
+ * Each change copies the path from the changed leaf to the root and shares
+ * every other node with the previous version, publishing the result as a new
+ * TreeSnapshot. Readers take the current snapshot with `snapshot` and use it
+ * without any lock: it keeps its root and proofs no matter how many changes
+ * are made afterwards. Changes are serialized among themselves, but never
+ * wait for readers.
+ */
+public final class PersistentMerkleTree {
+    private final Hasher hasher;
+
+    // Number of bytes of each hash.
+    private final int hashBytes;
+
+    // Latest version of the tree.
+    private volatile TreeSnapshot current;
+
+    // Positions of currently empty leafs, in the order they'll be reused. Only used by writers.
+    private final FreeLeafSlots emptyLeafIndexes = new FreeLeafSlots(false);
+
+    /**
+     * Initializes an empty tree that uses the default hasher.
+     */
+    public PersistentMerkleTree() {
+        this(HasherProvider.getHasher());
+    }
+
+    /**
+     * Initializes an empty tree that uses the given hasher.
+     */
+    public PersistentMerkleTree(Hasher hasher) {
+        this.hasher = hasher;
+        this.hashBytes = hasher.outputBitsCount() / 8;
+        this.current = new TreeSnapshot(hasher, null, 0, 0, PersistentLeafIndex.EMPTY);
+    }
+
+    /**
+     * Returns the hasher used by this tree.
+     */
+    public Hasher getHasher() {
+        return hasher;
+    }
+
+    /**
+     * Returns the current version of the tree.
+     */
+    public TreeSnapshot snapshot() {
+        return current;
+    }
+
+    /**
+     * Returns the root of the current version of the tree.
+     */
+    public MerkleNode getRoot() {
+        return current.getRoot();
+    }
+
+    /**
+     * Builds and returns a proof that a leaf with hash `leafHash` is in the
+     * current version of the tree. Returns null if the leaf isn't in it.
+     */
+    public ExistenceProof buildExistenceProof(MerkleHash leafHash) {
+        return current.buildExistenceProof(leafHash);
+    }
+
+    /**
+     * Adds a new leaf node to the tree, taking the first empty spot if there's
+     * any, like `MerkleTree.addLeaf`.
+     *
+     * Returns the position in the bottom layer where the node was added.
+     */
+    public synchronized int addLeaf(LeafNode leaf) {
+        TreeSnapshot snapshot = current;
+        MerkleHash hash = leafHash(leaf);
+        int leafCount = snapshot.getLeafCount();
+        int index = emptyLeafIndexes.isEmpty() ? leafCount++ : emptyLeafIndexes.poll();
+
+        PersistentLeafIndex leafPosition = snapshot.leafPosition();
+        if (hash != null) {
+            leafPosition = leafPosition.put(hash, index);
+        } else {
+            emptyLeafIndexes.add(index);
+        }
+
+        // The tree grows by one level each time the bottom layer doesn't fit below the root anymore.
+        Node root = snapshot.root();
+        int depth = Math.max(snapshot.depth(), 1);
+        for (; index >= 1 << depth; depth++) {
+            root = root != null ? new Node(null, root, null) : null;
+        }
+        publish(setLeaf(root, depth, index, hash), depth, leafCount, leafPosition);
+        return index;
+    }
+
+    /**
+     * Updates the data of a leaf, given its current hash in the tree.
+     *
+     * @throws AssertionError if there's no leaf with the provided hash.
+     */
+    public synchronized LeafNode updateLeaf(MerkleHash hash, LeafNode newLeaf) {
+        return updateLeafAt(findLeafIndex(hash), newLeaf);
+    }
+
+    /**
+     * Updates the data of a leaf, given its position in the leaves layer.
+     *
+     * @throws AssertionError if an invalid index is provided.
+     */
+    public synchronized LeafNode updateLeafAt(int index, LeafNode newLeaf) {
+        TreeSnapshot snapshot = current;
+        assert index >= 0 && index < snapshot.getLeafCount() : "Trying to update a leaf in an invalid position";
+        MerkleHash hash = leafHash(newLeaf);
+        PersistentLeafIndex leafPosition = forgetLeafAt(snapshot, index);
+        if (hash != null) {
+            leafPosition = leafPosition.put(hash, index);
+            emptyLeafIndexes.remove(index);
+        } else {
+            emptyLeafIndexes.add(index);
+        }
+        publish(setLeaf(snapshot.root(), snapshot.depth(), index, hash), snapshot.depth(), snapshot.getLeafCount(),
+                leafPosition);
+        return newLeaf;
+    }
+
+    /**
+     * Removes a leaf given its current hash in the tree.
+     *
+     * @throws AssertionError if there's no leaf with the provided hash.
+     */
+    public synchronized void removeLeaf(MerkleHash hash) {
+        removeLeafAt(findLeafIndex(hash));
+    }
+
+    /**
+     * Removes a leaf given its position in the leaves layer, leaving an empty
+     * spot.
+     *
+     * @throws AssertionError if an invalid index is provided.
+     */
+    public synchronized void removeLeafAt(int index) {
+        TreeSnapshot snapshot = current;
+        assert index >= 0 && index < snapshot.getLeafCount() : "Trying to remove a leaf in an invalid position";
+        PersistentLeafIndex leafPosition = forgetLeafAt(snapshot, index);
+        emptyLeafIndexes.add(index);
+        publish(setLeaf(snapshot.root(), snapshot.depth(), index, null), snapshot.depth(), snapshot.getLeafCount(),
+                leafPosition);
+    }
+
+    private void publish(Node root, int depth, int leafCount, PersistentLeafIndex leafPosition) {
+        current = new TreeSnapshot(hasher, root, depth, leafCount, leafPosition);
+    }
+
+    /**
+     * Returns a copy of the subtree rooted at `node`, at `level`, where the
+     * leaf at `index` has hash `leafHash`. Only the nodes on the path to the
+     * leaf are copied.
+     */
+    private Node setLeaf(Node node, int level, int index, MerkleHash leafHash) {
+        if (level == 0) {
+            return leafHash != null ? new Node(leafHash, null, null) : null;
+        }
+        Node left = node != null ? node.left : null;
+        Node right = node != null ? node.right : null;
+        if (TreeSnapshot.isRightChild(index, level - 1)) {
+            right = setLeaf(right, level - 1, index, leafHash);
+        } else {
+            left = setLeaf(left, level - 1, index, leafHash);
+        }
+
+        MerkleHash hash = InternalNode.hashOf(left != null ? left.hash : null, right != null ? right.hash : null, hasher);
+        return hash != null ? new Node(hash, left, right) : null;
+    }
+
+    /**
+     * Returns the leaf positions of `snapshot` without the leaf at `index`. If
+     * the same hash was later added somewhere else, that position is kept.
+     */
+    private PersistentLeafIndex forgetLeafAt(TreeSnapshot snapshot, int index) {
+        MerkleHash hash = snapshot.getLeafHash(index);
+        return hash != null ? snapshot.leafPosition().remove(hash, index) : snapshot.leafPosition();
+    }
+
+    /**
+     * Returns the position of the leaf with the given hash.
+     *
+     * @throws AssertionError if there's no leaf with the provided hash.
+     */
+    private int findLeafIndex(MerkleHash hash) {
+        int index = current.leafPosition().get(hash);
+        assert index > -1 : "Looking for a non-existing leaf node";
+        return index;
+    }
+
+    /**
+     * Returns the hash of a leaf, or null for empty leaves.
+     *
+     * @throws AssertionError if the leaf hash doesn't have the size of the
+     * hashes of this tree.
+     */
+    private MerkleHash leafHash(LeafNode leaf) {
+        if (leaf == null) {
+            return null;
+        }
+        MerkleHash hash = leaf.getHash();
+        assert hash.sizeInBytes() == hashBytes : "The leaf wasn't hashed with the hasher of the tree";
+        return hash;
+    }
+}
@@ -0,0 +1,204 @@
+package net.fsodre.merkle_tree;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+
+/**
+ * Bounded cache of the existence proofs of recently requested leaves, keyed by
+ * leaf position. When full, the least recently used proof is evicted.
+ *
+ * Changing a leaf only changes the nodes on its path to the root, and every
+ * other path has exactly one of them as a sibling: the node right below the
+ * point where both paths meet. So changes don't drop cached proofs. Instead,
+ * each change stamps the nodes on its path with a new version, one per level,
+ * and a cached proof is refreshed by reading again the siblings stamped after
+ * it was built. Changes cost O(log N) whatever the number of cached proofs.
+ * The proof of the changed position itself stays valid, since none of its
+ * siblings changed.
+ *
+ * Stamps are kept in a table per level, indexed by node position modulo its
+ * size, so nodes of large levels may share a stamp. A sibling may then be
+ * read again without having changed, but a changed one is never missed.
+ *
+ * Cached proofs are shared between callers, so they can't be modified, and
+ * refreshing creates a new proof instead of modifying the old one, which
+ * remains valid for the old root.
+ */
+final class ProofCache {
+    /**
+     * Reads the hash of a node of the tree, or null if it doesn't exist.
+     */
+    interface NodeReader {
+        MerkleHash get(int level, int index);
+    }
+
+    /**
+     * A cached proof and the version of the tree it was built at.
+     */
+    private static final class CachedProof {
+        private ExistenceProof proof;
+        private long version;
+    }
+
+    // Maximum number of stamps of each level.
+    private static final int MAX_STAMP_SLOTS = 1 << 20;
+
+    private final Hasher hasher;
+    private final NodeReader nodes;
+
+    // Cached proofs by leaf position, in access order.
+    private final LinkedHashMap<Integer, CachedProof> entries;
+
+    // Version of the last change, and versions of the last change to the nodes of each level. Created when needed.
+    private long version = 0;
+    private final long[][] stamps = new long[Integer.SIZE][];
+
+    // Number of stamps each level grows to, enough to tell apart the nodes of many more paths than are cached.
+    private final int stampSlots;
+
+    // Highest leaf position cached or changed, which bounds the levels where paths may meet.
+    private int maxIndex = 0;
+
+    // Number of requests answered from the cache, including refreshed ones, and of proofs built from scratch.
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Creates a cache holding up to `capacity` proofs, built with `hasher`
+     * from the nodes read by `nodes`.
+     *
+     * @throws AssertionError if the capacity isn't positive.
+     */
+    ProofCache(int capacity, Hasher hasher, NodeReader nodes) {
+        assert capacity > 0 : "The capacity of the proof cache must be positive";
+        this.hasher = hasher;
+        this.nodes = nodes;
+        this.stampSlots = (int) Math.min(MAX_STAMP_SLOTS, Long.highestOneBit(Math.max(16, 8L * capacity - 1)));
+        this.entries = new LinkedHashMap<Integer, CachedProof>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, CachedProof> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the proof of the leaf at `index` in a tree with `depth` levels
+     * below the root, building it or refreshing its stale siblings if needed.
+     */
+    synchronized ExistenceProof get(int index, int depth) {
+        CachedProof entry = entries.get(index);
+        if (entry == null) {
+            misses++;
+            entry = new CachedProof();
+            entries.put(index, entry);
+            maxIndex = Math.max(maxIndex, index);
+        } else {
+            hits++;
+            if (entry.proof.size() == depth && !isStale(index, entry.version, depth)) {
+                return entry.proof;
+            }
+        }
+
+        // Siblings that didn't change are reused, unless the tree got shorter.
+        ExistenceProof old = entry.proof != null && entry.proof.size() <= depth ? entry.proof : null;
+        ExistenceProof proof = new ExistenceProof(hasher);
+        for (int level = 0, current = index; level < depth; level++, current /= 2) {
+            boolean reusable = old != null && level < old.size() && !changedSince(level, current ^ 1, entry.version);
+            MerkleHash sibling = reusable ? old.siblingHash(level) : nodes.get(level, current ^ 1);
+            if (current % 2 == 0) {
+                proof.addRightSibling(sibling);
+            } else {
+                proof.addLeftSibling(sibling);
+            }
+        }
+        entry.proof = proof.freeze();
+        entry.version = version;
+        return proof;
+    }
+
+    /**
+     * Stamps the path of the leaf at `changedIndex`, whose nodes all changed,
+     * so that the proofs that have one of them as a sibling get refreshed.
+     */
+    synchronized void invalidatePath(int changedIndex) {
+        version++;
+        stampPath(changedIndex);
+    }
+
+    /**
+     * Same as `invalidatePath`, for the first `count` positions of
+     * `changedIndexes`.
+     */
+    synchronized void invalidatePaths(int[] changedIndexes, int count) {
+        version++;
+        for (int i = 0; i < count; i++) {
+            stampPath(changedIndexes[i]);
+        }
+    }
+
+    private void stampPath(int changedIndex) {
+        maxIndex = Math.max(maxIndex, changedIndex);
+        // Paths only meet below the level where all positions seen so far share a single node.
+        int levels = Integer.SIZE - Integer.numberOfLeadingZeros(maxIndex);
+        for (int level = 0; level < levels; level++) {
+            int node = changedIndex >>> level;
+            long[] levelStamps = stamps[level];
+            if (levelStamps == null || (node >= levelStamps.length && levelStamps.length < stampSlots)) {
+                // Growing keeps the slot of every stamped node, as they're all below the old size.
+                int slots = (int) Math.min(stampSlots, Long.highestOneBit(2L * node + 1));
+                levelStamps = levelStamps == null ? new long[slots] : Arrays.copyOf(levelStamps, slots);
+                stamps[level] = levelStamps;
+            }
+            levelStamps[node & (levelStamps.length - 1)] = version;
+        }
+    }
+
+    /**
+     * Returns whether the node at `index` of `level` may have changed after
+     * `since`.
+     */
+    private boolean changedSince(int level, int index, long since) {
+        long[] levelStamps = stamps[level];
+        return levelStamps != null && levelStamps[index & (levelStamps.length - 1)] > since;
+    }
+
+    private boolean isStale(int index, long since, int depth) {
+        if (since == version) {
+            return false;
+        }
+        for (int level = 0, current = index; level < depth; level++, current /= 2) {
+            if (changedSince(level, current ^ 1, since)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of requests answered from the cache.
+     */
+    synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of proofs built from scratch.
+     */
+    synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of cached proofs.
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+}
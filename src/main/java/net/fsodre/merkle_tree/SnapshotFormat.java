@@ -0,0 +1,362 @@
+package net.fsodre.merkle_tree;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.storage.NodeStorage;
+
+/**
+ * Binary snapshot format of a MerkleTree. A snapshot is made of:
+ *
+ * - A header with a magic number, the format version, the hasher id (its class
+ * name), the hash size, the number of levels, the size of each level and the
+ * list of empty leaf positions, in the order they'll be reused.
+ * - Each level, from the leaves up: a bitmap of the nodes that have a hash,
+ * followed by the hash bytes of every node (zeros for nodes without hash).
+ *
+ * Since every level has a fixed-width layout, the offset of any level can be
+ * computed from the header alone. All ints and longs are big-endian.
+ */
+final class SnapshotFormat {
+    static final int MAGIC = 0x4d4b5453; // "MKTS"
+    static final int VERSION = 1;
+
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    // Bounds of the header fields read before allocating room for them.
+    private static final int MAX_HASHER_ID_BYTES = 1024;
+    static final int MAX_LEVELS = 64;
+
+    private SnapshotFormat() {
+    }
+
+    /**
+     * Header of a snapshot.
+     */
+    static final class Header {
+        final String hasherId;
+        final int hashBytes;
+        final int[] levelSizes;
+        final int[] emptyLeafIndexes;
+
+        Header(String hasherId, int hashBytes, int[] levelSizes, int[] emptyLeafIndexes) {
+            this.hasherId = hasherId;
+            this.hashBytes = hashBytes;
+            this.levelSizes = levelSizes;
+            this.emptyLeafIndexes = emptyLeafIndexes;
+        }
+
+        /**
+         * Number of bytes of a level in the snapshot.
+         */
+        long levelBytes(int level) {
+            return bitmapWords(levelSizes[level]) * (long) Long.BYTES + (long) levelSizes[level] * hashBytes;
+        }
+    }
+
+    /**
+     * Writes the whole tree to `channel`.
+     */
+    static void write(MerkleTree tree, WritableByteChannel channel) throws IOException {
+        NodeStorage nodes = tree.storage();
+        int[] levelSizes = new int[nodes.height()];
+        for (int level = 0; level < levelSizes.length; level++) {
+            levelSizes[level] = nodes.levelSize(level);
+        }
+        Header header = new Header(hasherId(tree.getHasher()), tree.hashBytes(), levelSizes, tree.emptyLeafIndexes());
+
+        Writer writer = new Writer(channel);
+        writeHeader(header, writer);
+        for (int level = 0; level < levelSizes.length; level++) {
+            writeLevel(nodes, level, header.hashBytes, writer);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Reads the header of a snapshot, leaving the channel at the start of the
+     * bottom level.
+     *
+     * Counts are checked before allocating anything for them: the level
+     * sizes must have the shape of a tree and the empty leaf positions must
+     * be within the bottom level.
+     *
+     * @throws IOException if the data isn't a supported snapshot, if it
+     * wasn't written with `expectedHasher` or if the header is corrupted.
+     */
+    static Header readHeader(Reader reader, Hasher expectedHasher) throws IOException {
+        if (reader.readInt() != MAGIC) {
+            throw new IOException("Not a tree snapshot");
+        }
+        int version = reader.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        byte[] hasherIdBytes = new byte[readCount(reader, MAX_HASHER_ID_BYTES)];
+        reader.readFully(hasherIdBytes, 0, hasherIdBytes.length);
+        String hasherId = new String(hasherIdBytes, StandardCharsets.UTF_8);
+        int hashBytes = reader.readInt();
+        if (!hasherId.equals(hasherId(expectedHasher)) || hashBytes != expectedHasher.outputBitsCount() / 8) {
+            throw new IOException("The snapshot was written with hasher " + hasherId);
+        }
+
+        int[] levelSizes = reader.readInts(readCount(reader, MAX_LEVELS));
+        if (!isTreeShape(levelSizes)) {
+            throw new IOException("Corrupted snapshot header: invalid level sizes");
+        }
+        int[] emptyLeafIndexes = reader.readInts(readCount(reader, levelSizes[0]));
+        for (int index : emptyLeafIndexes) {
+            if (index < 0 || index >= levelSizes[0]) {
+                throw new IOException("Corrupted snapshot header: empty leaf outside of the tree");
+            }
+        }
+        return new Header(hasherId, hashBytes, levelSizes, emptyLeafIndexes);
+    }
+
+    private static int readCount(Reader reader, int max) throws IOException {
+        int count = reader.readCount();
+        if (count > max) {
+            throw new IOException("Corrupted snapshot header: count out of range");
+        }
+        return count;
+    }
+
+    /**
+     * Returns whether the level sizes are the ones of a tree: each level has
+     * half the nodes of the one below, rounded up, up to a single root. A
+     * single leaf still gets a parent, and an empty tree only has an empty
+     * bottom level.
+     */
+    static boolean isTreeShape(int[] levelSizes) {
+        if (levelSizes.length == 0 || levelSizes[0] < 0) {
+            return false;
+        }
+        int top = levelSizes.length - 1;
+        if (top == 0) {
+            return levelSizes[0] == 0;
+        }
+        for (int level = 1; level <= top; level++) {
+            // Only the top level has a single node.
+            if (levelSizes[level] != (int) ((levelSizes[level - 1] + 1L) / 2) || (level < top && levelSizes[level] < 2)) {
+                return false;
+            }
+        }
+        return levelSizes[0] > 0 && levelSizes[top] == 1;
+    }
+
+    /**
+     * Reads the next level of the snapshot and appends its nodes to `nodes`.
+     *
+     * @throws IOException if it's the bottom level and an empty leaf position
+     * of the header holds a hash or is listed twice, so that it can't be
+     * handed out to a new leaf while still in use.
+     */
+    static void readLevel(Reader reader, Header header, int level, NodeStorage nodes) throws IOException {
+        int size = header.levelSizes[level];
+        long[] bitmap = new long[bitmapWords(size)];
+        for (int word = 0; word < bitmap.length; word++) {
+            bitmap[word] = reader.readLong();
+        }
+
+        byte[] hash = new byte[header.hashBytes];
+        for (int index = 0; index < size; index++) {
+            reader.readFully(hash, 0, hash.length);
+            nodes.append(level, null);
+            if ((bitmap[index >>> 6] & (1L << index)) != 0) {
+                nodes.write(level, index, hash, 0);
+            }
+        }
+
+        if (level == 0) {
+            BitSet seen = new BitSet(size);
+            for (int index : header.emptyLeafIndexes) {
+                if (nodes.has(0, index) || seen.get(index)) {
+                    throw new IOException("Corrupted snapshot header: empty leaf in use");
+                }
+                seen.set(index);
+            }
+        }
+    }
+
+    private static void writeHeader(Header header, Writer writer) throws IOException {
+        byte[] hasherId = header.hasherId.getBytes(StandardCharsets.UTF_8);
+        writer.writeInt(MAGIC);
+        writer.writeInt(VERSION);
+        writer.writeInt(hasherId.length);
+        writer.write(hasherId, 0, hasherId.length);
+        writer.writeInt(header.hashBytes);
+        writer.writeInt(header.levelSizes.length);
+        for (int size : header.levelSizes) {
+            writer.writeInt(size);
+        }
+        writer.writeInt(header.emptyLeafIndexes.length);
+        for (int index : header.emptyLeafIndexes) {
+            writer.writeInt(index);
+        }
+    }
+
+    private static void writeLevel(NodeStorage nodes, int level, int hashBytes, Writer writer) throws IOException {
+        int size = nodes.levelSize(level);
+        for (int word = 0; word < bitmapWords(size); word++) {
+            long bits = 0;
+            for (int index = word << 6; index < Math.min(size, (word + 1) << 6); index++) {
+                if (nodes.has(level, index)) {
+                    bits |= 1L << index;
+                }
+            }
+            writer.writeLong(bits);
+        }
+
+        byte[] hash = new byte[hashBytes];
+        byte[] zeros = new byte[hashBytes];
+        for (int index = 0; index < size; index++) {
+            boolean present = nodes.read(level, index, hash, 0);
+            writer.write(present ? hash : zeros, 0, hashBytes);
+        }
+    }
+
+    private static int bitmapWords(int size) {
+        return (size + 63) >>> 6;
+    }
+
+    private static String hasherId(Hasher hasher) {
+        return hasher.getClass().getName();
+    }
+
+    /**
+     * Buffers writes to a channel.
+     */
+    static final class Writer {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+
+        Writer(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        void writeInt(int value) throws IOException {
+            ensureRoom(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        void writeLong(long value) throws IOException {
+            ensureRoom(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                ensureRoom(1);
+                int chunk = Math.min(length, buffer.remaining());
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void ensureRoom(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Buffers reads from a channel.
+     */
+    static final class Reader {
+        private final ReadableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+
+        Reader(ReadableByteChannel channel) {
+            this.channel = channel;
+            buffer.flip();
+        }
+
+        int readInt() throws IOException {
+            ensureAvailable(Integer.BYTES);
+            return buffer.getInt();
+        }
+
+        long readLong() throws IOException {
+            ensureAvailable(Long.BYTES);
+            return buffer.getLong();
+        }
+
+        int readCount() throws IOException {
+            int count = readInt();
+            if (count < 0) {
+                throw new IOException("Corrupted data");
+            }
+            return count;
+        }
+
+        int[] readInts(int count) throws IOException {
+            int[] values = new int[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = readInt();
+            }
+            return values;
+        }
+
+        void readFully(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                ensureAvailable(1);
+                int chunk = Math.min(length, buffer.remaining());
+                buffer.get(bytes, offset, chunk);
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+
+        /**
+         * Skips the next `bytes` bytes, without reading them if the channel
+         * is seekable.
+         */
+        void skip(long bytes) throws IOException {
+            int buffered = (int) Math.min(bytes, buffer.remaining());
+            buffer.position(buffer.position() + buffered);
+            bytes -= buffered;
+
+            if (channel instanceof SeekableByteChannel) {
+                SeekableByteChannel seekableChannel = (SeekableByteChannel) channel;
+                seekableChannel.position(seekableChannel.position() + bytes);
+                return;
+            }
+            while (bytes > 0) {
+                ensureAvailable(1);
+                int chunk = (int) Math.min(bytes, buffer.remaining());
+                buffer.position(buffer.position() + chunk);
+                bytes -= chunk;
+            }
+        }
+
+        private void ensureAvailable(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Truncated data");
+                }
+            }
+            buffer.flip();
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package net.fsodre.merkle_tree;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.hashers.HasherProvider;
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+import net.fsodre.merkle_tree.nodes.InternalNode;
+import net.fsodre.merkle_tree.nodes.LeafNode;
+import net.fsodre.merkle_tree.nodes.MerkleNode;
+
+/**
+ * A Merkle tree addressed by key. Keys have the size of the hashes of the
+ * tree, and the tree has one leaf position for each possible key, so it has
+ * as many levels below the root as keys have bits. The bits of a key, from
+ * the most significant one, tell which child to take on the way from the
+ * root to its leaf: 0 for the left one and 1 for the right one.
+ *
+ * Nearly all leaves are empty, so every subtree without leaves has a default
+ * hash that only depends on its height: empty leaves hash to zeros, and each
+ * level above hashes two copies of the default below it. Defaults are
+ * computed once, and only nodes whose hash isn't the default are stored.
+ *
+ * A subtree with a single key is a shortcut leaf, stored at its highest
+ * level, whose hash is the one of the leaf hash, the key and a 0x01 byte.
+ * Only subtrees with several keys are internal nodes, hashing both children
+ * with the default standing for empty ones. So memory and the hashes
+ * computed by each change grow with the logarithm of the number of keys
+ * instead of the number of bits of a key, and the tree doesn't depend on
+ * the order in which keys are added.
+ */
+public final class SparseMerkleTree implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Byte hashed after the leaf hash and the key of a shortcut leaf, so it never hashes like an internal node.
+    static final byte SHORTCUT = 1;
+
+    private final Hasher hasher;
+
+    // Number of bytes of each hash and key.
+    private final int hashBytes;
+
+    // Number of levels below the root, which is the number of bits of a key.
+    private final int depth;
+
+    // Default hash of an empty subtree of each height, from empty leaves (0) to an empty tree (depth).
+    private final MerkleHash[] defaultHashes;
+
+    // Hash of the leaf of each key in the tree.
+    private final HashMap<MerkleHash, MerkleHash> leaves;
+
+    // Non-empty nodes below the root, by level and by the key bits that lead to them (with the bits below cleared).
+    private final ArrayList<HashMap<PathKey, Node>> levels;
+
+    // Root, which has no key bits to be stored by. Null while the tree is empty.
+    private Node root;
+
+    /**
+     * The root of a non-empty subtree: a shortcut leaf if it has a single
+     * key, or an internal node otherwise.
+     */
+    private static final class Node implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        // Key of a shortcut leaf, or null for internal nodes.
+        private final MerkleHash key;
+
+        private MerkleHash hash;
+
+        Node(MerkleHash key, MerkleHash hash) {
+            this.key = key;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Key bits leading to a node, with the bits below its level cleared. Each
+     * change walks its path with a single key whose bits are set and cleared
+     * in place, so lookups don't allocate; stored keys are copies, which are
+     * never changed.
+     */
+    private static final class PathKey implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] bits;
+
+        PathKey(byte[] bits) {
+            this.bits = bits;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof PathKey && Arrays.equals(bits, ((PathKey) other).bits);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(bits);
+        }
+    }
+
+    /**
+     * Initializes an empty tree that uses the default hasher.
+     */
+    public SparseMerkleTree() {
+        this(HasherProvider.getHasher());
+    }
+
+    /**
+     * Initializes an empty tree that uses the given hasher, both for its nodes
+     * and to size its keys.
+     */
+    public SparseMerkleTree(Hasher hasher) {
+        this.hasher = hasher;
+        this.hashBytes = hasher.outputBitsCount() / 8;
+        this.depth = 8 * hashBytes;
+        this.defaultHashes = defaultHashes(hasher, depth);
+        this.leaves = new HashMap<>();
+        this.levels = new ArrayList<>(depth);
+        for (int level = 0; level < depth; level++) {
+            levels.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * Returns the hasher used by this tree.
+     */
+    public Hasher getHasher() {
+        return hasher;
+    }
+
+    /**
+     * Returns the number of levels below the root, which is the number of bits
+     * of the keys.
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * Returns the number of keys with a leaf.
+     */
+    public int size() {
+        return leaves.size();
+    }
+
+    /**
+     * Returns the root of the tree. An empty tree has the default root.
+     */
+    public MerkleNode getRoot() {
+        return InternalNode.withHash(root != null ? root.hash : defaultHashes[depth], hasher);
+    }
+
+    /**
+     * Returns the hash of the leaf of `key`, or null if it has none.
+     *
+     * @throws AssertionError if the key doesn't have the size of the hashes
+     * of the tree.
+     */
+    public MerkleHash get(MerkleHash key) {
+        checkKey(key);
+        return leaves.get(key);
+    }
+
+    /**
+     * Puts `leaf` at the position of `key`, replacing the leaf that was there,
+     * and updates the hashes of its ancestors. A null leaf empties the
+     * position.
+     *
+     * When the key lands on the shortcut leaf of another key, both go down
+     * to the level where their paths part, below internal nodes with both of
+     * them.
+     *
+     * @throws AssertionError if the key doesn't have the size of the hashes
+     * of the tree, or if the leaf wasn't hashed with the hasher of the tree.
+     */
+    public void put(MerkleHash key, LeafNode leaf) {
+        checkKey(key);
+        if (leaf == null) {
+            remove(key);
+            return;
+        }
+        MerkleHash hash = leaf.getHash();
+        assert hash.sizeInBytes() == hashBytes : "The leaf wasn't hashed with the hasher of the tree";
+
+        byte[] keyBytes = key.toBytes();
+        PathKey path = new PathKey(new byte[hashBytes]);
+        int level = descend(keyBytes, path);
+        Node node = nodeAt(level, path);
+        if (node != null && !node.key.equals(key)) {
+            byte[] otherBytes = node.key.toBytes();
+            boolean right;
+            do {
+                setNode(level, path, new Node(null, null));
+                level--;
+                right = setBit(path, level, keyBytes);
+            } while (right == bit(otherBytes, level));
+            flipBit(path, level);
+            setNode(level, path, node);
+            flipBit(path, level);
+        }
+        Node shortcut = new Node(key, shortcutHash(key, hash));
+        setNode(level, path, shortcut);
+        leaves.put(key, hash);
+        rehash(path, level, shortcut.hash);
+    }
+
+    /**
+     * Empties the position of `key`. Same as `put(key, null)`.
+     *
+     * A parent left with a single key is replaced by the shortcut leaf of
+     * that key, up to the highest subtree where it's alone.
+     */
+    public void remove(MerkleHash key) {
+        checkKey(key);
+        PathKey path = new PathKey(new byte[hashBytes]);
+        int level = descend(key.toBytes(), path);
+        Node node = nodeAt(level, path);
+        if (node == null || !node.key.equals(key)) {
+            return;
+        }
+        leaves.remove(key);
+
+        // Node taking the place of the removed one on the path, as long as its parent has no other key.
+        Node current = null;
+        while (level < depth) {
+            flipBit(path, level);
+            Node sibling = nodeAt(level, path);
+            if (sibling != null && (sibling.key == null || current != null)) {
+                flipBit(path, level);
+                break;
+            }
+            if (sibling != null) {
+                setNode(level, path, null);
+                current = sibling;
+            }
+            flipBit(path, level);
+            setNode(level, path, null);
+            clearBit(path, level);
+            level++;
+        }
+        setNode(level, path, current);
+        rehash(path, level, current != null ? current.hash : defaultHashes[level]);
+    }
+
+    /**
+     * Builds and returns a proof of the leaf of `key`, or null if it has
+     * none. The proof starts at the shortcut leaf of the key, and siblings
+     * with the default hash are left out of it.
+     *
+     * @throws AssertionError if the key doesn't have the size of the hashes
+     * of the tree.
+     */
+    public SparseProof buildProof(MerkleHash key) {
+        checkKey(key);
+        PathKey path = new PathKey(new byte[hashBytes]);
+        int level = descend(key.toBytes(), path);
+        Node node = nodeAt(level, path);
+        if (node == null || !node.key.equals(key)) {
+            return null;
+        }
+        return addSiblings(new SparseProof(hasher, hashBytes, depth, level, false, defaultHashes), path, level);
+    }
+
+    /**
+     * Builds and returns a proof that there's no leaf at the position of
+     * `key`, or null if there is one.
+     *
+     * The proof starts at the highest subtree on the path of the key without
+     * several keys. Either it's empty, and its hash is the default of its
+     * height, or it's the shortcut leaf of another key, whose leaf hash is
+     * then carried by the proof.
+     *
+     * @throws AssertionError if the key doesn't have the size of the hashes
+     * of the tree.
+     */
+    public SparseProof buildExclusionProof(MerkleHash key) {
+        checkKey(key);
+        PathKey path = new PathKey(new byte[hashBytes]);
+        int level = descend(key.toBytes(), path);
+        Node node = nodeAt(level, path);
+        if (node != null && node.key.equals(key)) {
+            return null;
+        }
+        SparseProof proof = new SparseProof(hasher, hashBytes, depth, level, true, defaultHashes);
+        if (node != null) {
+            proof.setNeighbour(node.key, leaves.get(node.key));
+        }
+        return addSiblings(proof, path, level);
+    }
+
+    /**
+     * Follows the path of a key from the root while nodes have several keys,
+     * setting its bits in `path` on the way down. Returns the level of the
+     * first node that's empty or a shortcut leaf.
+     */
+    private int descend(byte[] keyBytes, PathKey path) {
+        int level = depth;
+        Node node = root;
+        while (node != null && node.key == null) {
+            level--;
+            setBit(path, level, keyBytes);
+            node = nodeAt(level, path);
+        }
+        return level;
+    }
+
+    /**
+     * Adds to `proof` the siblings of the path from `level` up, clearing the
+     * bits of `path` on the way.
+     */
+    private SparseProof addSiblings(SparseProof proof, PathKey path, int level) {
+        for (; level < depth; level++) {
+            flipBit(path, level);
+            Node sibling = nodeAt(level, path);
+            if (sibling != null) {
+                proof.addSibling(level, sibling.hash);
+            }
+            clearBit(path, level);
+        }
+        return proof;
+    }
+
+    /**
+     * Updates the internal nodes above `level` on `path`, given the new hash
+     * of the node at that level, clearing the bits of `path` on the way.
+     */
+    private void rehash(PathKey path, int level, MerkleHash hash) {
+        for (; level < depth; level++) {
+            boolean right = bit(path.bits, level);
+            flipBit(path, level);
+            Node sibling = nodeAt(level, path);
+            MerkleHash siblingHash = sibling != null ? sibling.hash : defaultHashes[level];
+            clearBit(path, level);
+            hash = right ? hasher.hashPair(siblingHash, hash) : hasher.hashPair(hash, siblingHash);
+            nodeAt(level + 1, path).hash = hash;
+        }
+    }
+
+    /**
+     * Returns the node at `level` whose key bits are in `path`, or null if
+     * it's empty.
+     */
+    private Node nodeAt(int level, PathKey path) {
+        if (level == depth) {
+            return root;
+        }
+        HashMap<PathKey, Node> nodes = levels.get(level);
+        return nodes.isEmpty() ? null : nodes.get(path);
+    }
+
+    /**
+     * Stores a node, or forgets it if it's null. The key bits are only copied
+     * when the node takes a position that was empty.
+     */
+    private void setNode(int level, PathKey path, Node node) {
+        if (level == depth) {
+            root = node;
+        } else if (node == null) {
+            levels.get(level).remove(path);
+        } else if (levels.get(level).replace(path, node) == null) {
+            levels.get(level).put(new PathKey(path.bits.clone()), node);
+        }
+    }
+
+    private MerkleHash shortcutHash(MerkleHash key, MerkleHash leafHash) {
+        byte[] input = new byte[2 * hashBytes + 1];
+        leafHash.copyTo(input, 0);
+        key.copyTo(input, hashBytes);
+        input[2 * hashBytes] = SHORTCUT;
+        return hasher.hash(input);
+    }
+
+    /**
+     * Returns whether the node at `level` on the path of `keyBytes` is a
+     * right child.
+     */
+    private boolean bit(byte[] keyBytes, int level) {
+        return (keyBytes[hashBytes - 1 - (level >>> 3)] & (1 << (level & 7))) != 0;
+    }
+
+    /**
+     * Copies the bit of `keyBytes` at `level` into `path`, and returns it.
+     */
+    private boolean setBit(PathKey path, int level, byte[] keyBytes) {
+        boolean set = bit(keyBytes, level);
+        if (set) {
+            path.bits[hashBytes - 1 - (level >>> 3)] |= 1 << (level & 7);
+        }
+        return set;
+    }
+
+    private void clearBit(PathKey path, int level) {
+        path.bits[hashBytes - 1 - (level >>> 3)] &= ~(1 << (level & 7));
+    }
+
+    private void flipBit(PathKey path, int level) {
+        path.bits[hashBytes - 1 - (level >>> 3)] ^= 1 << (level & 7);
+    }
+
+    private void checkKey(MerkleHash key) {
+        assert key.sizeInBytes() == hashBytes : "The key doesn't have the size of the hashes of the tree";
+    }
+
+    /**
+     * Computes the default hash of empty subtrees of each height up to
+     * `depth`: zeros for an empty leaf, and the hash of two copies of the
+     * default below for the levels above.
+     */
+    static MerkleHash[] defaultHashes(Hasher hasher, int depth) {
+        MerkleHash[] defaults = new MerkleHash[depth + 1];
+        defaults[0] = MerkleHash.fromHashCode(new byte[hasher.outputBitsCount() / 8], hasher.outputBitsCount() / 8);
+        for (int level = 0; level < depth; level++) {
+            defaults[level + 1] = hasher.hashPair(defaults[level], defaults[level]);
+        }
+        return defaults;
+    }
+}
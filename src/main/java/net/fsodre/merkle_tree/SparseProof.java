@@ -0,0 +1,237 @@
+package net.fsodre.merkle_tree;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+
+/**
+ * A proof of the leaf at the position of a key in a SparseMerkleTree. It
+ * starts at the shortcut leaf of the key and has a sibling for each level
+ * above it, but only the siblings whose hash isn't the default one of their
+ * level are kept: their hashes one after the other in a single byte array,
+ * and a bitmap of the levels they are at. As most siblings of a sparse tree
+ * are empty subtrees, proofs are much smaller than the depth of the tree.
+ *
+ * The side of each sibling comes from the bits of the key, so it isn't
+ * stored either.
+ *
+ * Exclusion proofs show that a key has no leaf, and are verified with
+ * `verifyAbsence`. They start at the highest subtree on the path of the key
+ * without several keys: an empty subtree, or the shortcut leaf of another key
+ * sharing that path, whose key and leaf hash are then part of the proof.
+ */
+public final class SparseProof implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Hasher of the tree the proof refers to.
+    private final Hasher hasher;
+
+    // Number of bytes of each hash.
+    private final int hashBytes;
+
+    // Number of siblings, one for each level below the root.
+    private final int depth;
+
+    // Level of the node the proof starts at.
+    private final int startLevel;
+
+    // Whether this is an exclusion proof.
+    private final boolean absence;
+
+    // Key and leaf hash of the shortcut leaf an exclusion proof starts at, or null if it starts at an empty subtree.
+    private MerkleHash neighbourKey;
+    private MerkleHash neighbourLeafHash;
+
+    // Bit `l % 64` of word `l / 64` is set if the sibling at level `l` is in the proof.
+    private final long[] presentSiblings;
+
+    // Hashes of the siblings in the proof, `hashBytes` bytes each, from the leaves up.
+    private byte[] siblings;
+    private int siblingCount = 0;
+
+    // Default hashes of empty subtrees. Computed again when first needed after deserialization.
+    private transient MerkleHash[] defaultHashes;
+
+    SparseProof(Hasher hasher, int hashBytes, int depth, int startLevel, boolean absence,
+            MerkleHash[] defaultHashes) {
+        this.hasher = hasher;
+        this.hashBytes = hashBytes;
+        this.depth = depth;
+        this.startLevel = startLevel;
+        this.absence = absence;
+        this.presentSiblings = new long[(depth + 63) >>> 6];
+        this.siblings = new byte[4 * hashBytes];
+        this.defaultHashes = defaultHashes;
+    }
+
+    /**
+     * Returns the number of levels covered by the proof.
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * Returns whether this is an exclusion proof, showing that a key has no
+     * leaf.
+     */
+    public boolean provesAbsence() {
+        return absence;
+    }
+
+    /**
+     * Returns the number of siblings kept in the proof, which excludes the
+     * ones with a default hash.
+     */
+    public int siblingCount() {
+        return siblingCount;
+    }
+
+    /**
+     * Returns the number of bytes needed in the scratch buffer given to
+     * `verify`.
+     */
+    public int scratchBytes() {
+        return 3 * hashBytes + 1;
+    }
+
+    /**
+     * Verifies that the leaf with hash `leafHash` is at the position of `key`
+     * in the tree whose root has hash `root`.
+     */
+    public boolean verify(MerkleHash key, MerkleHash leafHash, MerkleHash root) {
+        return verify(key, leafHash, root, new byte[scratchBytes()]);
+    }
+
+    /**
+     * Same as `verify(key, leafHash, root)`, computing the hashes in
+     * `scratch`, which must have at least `scratchBytes()` bytes. Nothing is
+     * allocated as long as the hasher implements `Hasher.hashInto`.
+     */
+    public boolean verify(MerkleHash key, MerkleHash leafHash, MerkleHash root, byte[] scratch) {
+        assert scratch.length >= scratchBytes() : "The scratch buffer is too small";
+        if (provesAbsence() || key.sizeInBytes() != hashBytes || leafHash.sizeInBytes() != hashBytes
+                || root.sizeInBytes() != hashBytes) {
+            return false;
+        }
+        hashShortcut(scratch, key, leafHash);
+        climb(scratch, startLevel, false);
+        return root.matches(scratch, 0);
+    }
+
+    /**
+     * Verifies that there's no leaf at the position of `key` in the tree whose
+     * root has hash `root`.
+     */
+    public boolean verifyAbsence(MerkleHash key, MerkleHash root) {
+        return verifyAbsence(key, root, new byte[scratchBytes()]);
+    }
+
+    /**
+     * Same as `verifyAbsence(key, root)`, computing the hashes in `scratch`,
+     * which must have at least `scratchBytes()` bytes. Nothing is allocated as
+     * long as the hasher implements `Hasher.hashInto`.
+     */
+    public boolean verifyAbsence(MerkleHash key, MerkleHash root, byte[] scratch) {
+        assert scratch.length >= scratchBytes() : "The scratch buffer is too small";
+        if (!provesAbsence() || key.sizeInBytes() != hashBytes || root.sizeInBytes() != hashBytes) {
+            return false;
+        }
+        if (neighbourKey == null) {
+            key.copyTo(scratch, 2 * hashBytes);
+            climb(scratch, startLevel, true);
+            return root.matches(scratch, 0);
+        }
+        // The other key must share the path of this one from the start of the proof, so climbing with its bits is the same.
+        if (neighbourKey.equals(key)) {
+            return false;
+        }
+        neighbourKey.copyTo(scratch, hashBytes);
+        key.copyTo(scratch, 2 * hashBytes);
+        for (int level = startLevel; level < depth; level++) {
+            int index = hashBytes - 1 - (level >>> 3);
+            if (((scratch[hashBytes + index] ^ scratch[2 * hashBytes + index]) & (1 << (level & 7))) != 0) {
+                return false;
+            }
+        }
+        hashShortcut(scratch, neighbourKey, neighbourLeafHash);
+        climb(scratch, startLevel, false);
+        return root.matches(scratch, 0);
+    }
+
+    /**
+     * Writes the hash of the shortcut leaf of `key` at the start of
+     * `scratch`, leaving the key right after the two hashes `climb` combines.
+     */
+    private void hashShortcut(byte[] scratch, MerkleHash key, MerkleHash leafHash) {
+        leafHash.copyTo(scratch, hashBytes);
+        key.copyTo(scratch, 2 * hashBytes);
+        scratch[3 * hashBytes] = SparseMerkleTree.SHORTCUT;
+        hasher.hashInto(scratch, hashBytes, 2 * hashBytes + 1, scratch, 0);
+    }
+
+    /**
+     * Replaces the hash of the node at level `from` at the start of `scratch`
+     * by the hash of the root it leads to. The key is read from `scratch` too,
+     * right after the two hashes being combined. If `empty`, the node is an
+     * empty subtree, whose default hash isn't in `scratch` yet.
+     */
+    private void climb(byte[] scratch, int from, boolean empty) {
+        MerkleHash[] defaults = defaultHashes();
+        int keyOffset = 2 * hashBytes;
+        int sibling = 0;
+        for (int level = from; level < depth; level++) {
+            boolean present = (presentSiblings[level >>> 6] & (1L << level)) != 0;
+            if (empty) {
+                // Two empty subtrees make an empty parent, so nothing needs hashing until a sibling isn't empty.
+                if (!present) {
+                    continue;
+                }
+                defaults[level].copyTo(scratch, 0);
+                empty = false;
+            }
+            boolean right = (scratch[keyOffset + hashBytes - 1 - (level >>> 3)] & (1 << (level & 7))) != 0;
+            int siblingOffset = right ? 0 : hashBytes;
+            if (right) {
+                System.arraycopy(scratch, 0, scratch, hashBytes, hashBytes);
+            }
+            if (present) {
+                System.arraycopy(siblings, sibling++ * hashBytes, scratch, siblingOffset, hashBytes);
+            } else {
+                defaults[level].copyTo(scratch, siblingOffset);
+            }
+            hasher.hashInto(scratch, 0, 2 * hashBytes, scratch, 0);
+        }
+        if (empty) {
+            defaults[depth].copyTo(scratch, 0);
+        }
+    }
+
+    /**
+     * Sets the shortcut leaf an exclusion proof starts at.
+     */
+    void setNeighbour(MerkleHash key, MerkleHash leafHash) {
+        this.neighbourKey = key;
+        this.neighbourLeafHash = leafHash;
+    }
+
+    /**
+     * Adds the sibling of `level`, above the ones already added.
+     */
+    void addSibling(int level, MerkleHash hash) {
+        presentSiblings[level >>> 6] |= 1L << level;
+        if (siblings.length < (siblingCount + 1) * hashBytes) {
+            siblings = Arrays.copyOf(siblings, 2 * siblings.length);
+        }
+        hash.copyTo(siblings, siblingCount++ * hashBytes);
+    }
+
+    private MerkleHash[] defaultHashes() {
+        if (defaultHashes == null) {
+            defaultHashes = SparseMerkleTree.defaultHashes(hasher, depth);
+        }
+        return defaultHashes;
+    }
+}
@@ -0,0 +1,377 @@
+package net.fsodre.merkle_tree;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+import net.fsodre.merkle_tree.nodes.InternalNode;
+import net.fsodre.merkle_tree.nodes.LeafNode;
+import net.fsodre.merkle_tree.nodes.MerkleNode;
+import net.fsodre.merkle_tree.storage.NodeStorage;
+
+/**
+ * Wraps a MerkleTree so that many threads can update its leaves at once.
+ *
+ * The tree is split into stripes: subtrees whose roots are at `stripeLevel`
+ * (or the root of the tree, while it's shorter than that). Updates and
+ * removals lock only the stripe of their leaf and rehash the path up to the
+ * top of that subtree, so updates in different subtrees run in parallel. The
+ * top of each changed subtree is then marked as dirty, without locking. The
+ * levels above the stripes are recomputed from the dirty subtrees by a single
+ * combiner, either lazily when the root is requested or by a thread calling
+ * `combine` regularly.
+ *
+ * The storage of the tree must support concurrent writes to different nodes
+ * (see `NodeStorage.supportsConcurrentWrites`), like the default one.
+ *
+ * Adding leaves and building proofs change or read the whole tree, so they
+ * wait for the updates in progress and block new ones. Once all writers are
+ * done, `getTree` returns the wrapped tree, up to date. It must not be used
+ * directly while writers may still be running.
+ */
+public final class StripedMerkleTree {
+    // Default level of the roots of the stripes, so that each stripe covers 256 leaves.
+    public static final int DEFAULT_STRIPE_LEVEL = 8;
+
+    // Default number of stripe locks. Subtrees share locks when there are more of them.
+    public static final int DEFAULT_LOCK_COUNT = 64;
+
+    private final MerkleTree tree;
+    private final NodeStorage nodes;
+    private final int stripeLevel;
+
+    // Lock of each stripe, taken by updates and when reading the top node of the stripe.
+    private final ReentrantLock[] stripeLocks;
+
+    // Shared by updates and exclusive for operations that change the shape of the tree or read all of it.
+    private final ReentrantReadWriteLock structureLock = new ReentrantReadWriteLock();
+
+    // Taken by the combiner, which is the only one writing above the stripes.
+    private final ReentrantLock combinerLock = new ReentrantLock();
+
+    // Guards the leaf position index and the list of empty leaves, which are shared by all stripes.
+    private final Object leafBookkeeping = new Object();
+
+    // Bitmap of the stripes whose top node changed since the last combination. Replaced when the tree grows.
+    private volatile AtomicLongArray dirtyStripes;
+
+    /**
+     * Wraps `tree` using the default stripe level and number of locks.
+     */
+    public StripedMerkleTree(MerkleTree tree) {
+        this(tree, DEFAULT_STRIPE_LEVEL, DEFAULT_LOCK_COUNT);
+    }
+
+    /**
+     * Wraps `tree`, with stripes rooted at `stripeLevel` (covering
+     * 2^stripeLevel leaves each) that share `lockCount` locks.
+     *
+     * @throws IllegalArgumentException if the stripe level isn't positive, if
+     * the number of locks isn't a power of two, or if the storage of the tree
+     * doesn't support concurrent writes.
+     */
+    public StripedMerkleTree(MerkleTree tree, int stripeLevel, int lockCount) {
+        if (stripeLevel <= 0) {
+            throw new IllegalArgumentException("Stripes must be rooted above the leaves");
+        }
+        if (lockCount <= 0 || Integer.bitCount(lockCount) != 1) {
+            throw new IllegalArgumentException("The number of locks must be a power of two");
+        }
+        if (!tree.storage().supportsConcurrentWrites()) {
+            throw new IllegalArgumentException("The storage of the tree can't be written concurrently");
+        }
+        // Changes made lazily before wrapping the tree must be reflected in the stripes first.
+        tree.rehashPending();
+        this.tree = tree;
+        this.nodes = tree.storage();
+        this.stripeLevel = stripeLevel;
+        this.stripeLocks = new ReentrantLock[lockCount];
+        for (int i = 0; i < lockCount; i++) {
+            stripeLocks[i] = new ReentrantLock();
+        }
+        this.dirtyStripes = newDirtyStripes();
+    }
+
+    /**
+     * Updates the data of a leaf, given its current hash in the tree. The
+     * position of the leaf is looked up first, so concurrent changes of the
+     * same leaf must be made by position instead.
+     *
+     * @throws AssertionError if there's no leaf with the provided hash.
+     */
+    public LeafNode updateLeaf(MerkleHash hash, LeafNode newLeaf) {
+        int index;
+        synchronized (leafBookkeeping) {
+            index = tree.findLeafIndex(hash);
+        }
+        return updateLeafAt(index, newLeaf);
+    }
+
+    /**
+     * Updates the data of a leaf, given its position in the leaves layer,
+     * locking only its stripe.
+     *
+     * @throws AssertionError if an invalid index is provided.
+     */
+    public LeafNode updateLeafAt(int index, LeafNode newLeaf) {
+        changeLeafAt(index, newLeaf, false);
+        return newLeaf;
+    }
+
+    /**
+     * Removes a leaf given its current hash in the tree.
+     *
+     * @throws AssertionError if there's no leaf with the provided hash.
+     */
+    public void removeLeaf(MerkleHash hash) {
+        int index;
+        synchronized (leafBookkeeping) {
+            index = tree.findLeafIndex(hash);
+        }
+        removeLeafAt(index);
+    }
+
+    /**
+     * Removes a leaf given its position in the leaves layer, locking only its
+     * stripe.
+     *
+     * @throws AssertionError if an invalid index is provided.
+     */
+    public void removeLeafAt(int index) {
+        changeLeafAt(index, null, true);
+    }
+
+    /**
+     * Adds a new leaf node, with the same placement rules as
+     * `MerkleTree.addLeaf`. It waits for the updates in progress, and blocks
+     * new ones until it's done.
+     *
+     * Returns the position in the bottom layer where the node was added.
+     */
+    public int addLeaf(LeafNode leaf) {
+        structureLock.writeLock().lock();
+        try {
+            combine();
+            int index = tree.addLeaf(leaf);
+            tree.rehashPending();
+            if (dirtyStripes.length() != dirtyWords()) {
+                dirtyStripes = newDirtyStripes();
+            }
+            return index;
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Compacts the tree (see `MerkleTree.compact`), moving up to
+     * `movesPerStep` leaves at a time. Each step waits for the updates in
+     * progress and blocks new ones, which go ahead between steps, so it can
+     * run on a background thread while the tree is in use. Writers that
+     * change leaves by position must follow the moves reported to
+     * `listener`, which is called while the step holds the lock.
+     *
+     * @throws AssertionError if `movesPerStep` isn't positive.
+     */
+    public void compact(MerkleTree.LeafMoveListener listener, int movesPerStep) {
+        MerkleTree.Compaction compaction = tree.compaction(listener);
+        for (boolean compacting = true; compacting;) {
+            structureLock.writeLock().lock();
+            try {
+                combine();
+                compacting = compaction.step(movesPerStep);
+                tree.rehashPending();
+                if (dirtyStripes.length() != dirtyWords()) {
+                    dirtyStripes = newDirtyStripes();
+                }
+            } finally {
+                structureLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Builds and returns a proof that a leaf with hash `leafHash` is in the
+     * tree. Returns null if the leaf isn't in the tree. It waits for the
+     * updates in progress, and blocks new ones until it's done.
+     */
+    public ExistenceProof buildExistenceProof(MerkleHash leafHash) {
+        structureLock.writeLock().lock();
+        try {
+            combine();
+            return tree.buildExistenceProof(leafHash);
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the root of the tree, after recomputing the levels above the
+     * changed stripes. Updates made concurrently may or may not be reflected
+     * in it; once all writers are done, it's the same root the changes would
+     * have produced one at a time.
+     */
+    public MerkleNode getRoot() {
+        structureLock.readLock().lock();
+        combinerLock.lock();
+        try {
+            combineLocked();
+            if (tree.treeHeight() < 2) {
+                return null;
+            }
+            int rootLevel = tree.treeHeight() - 1;
+            return InternalNode.withHash(readNode(rootLevel, 0, topLevel()), tree.getHasher());
+        } finally {
+            combinerLock.unlock();
+            structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Recomputes the levels above the stripes whose top node changed. Can be
+     * called regularly by a combiner thread, concurrently with updates.
+     */
+    public void combine() {
+        structureLock.readLock().lock();
+        combinerLock.lock();
+        try {
+            combineLocked();
+        } finally {
+            combinerLock.unlock();
+            structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the wrapped tree, with all changes combined. Must only be
+     * called once all writers are done.
+     */
+    public MerkleTree getTree() {
+        combine();
+        return tree;
+    }
+
+    private void changeLeafAt(int index, LeafNode newLeaf, boolean removing) {
+        structureLock.readLock().lock();
+        try {
+            int top = topLevel();
+            int stripe = index >>> top;
+            ReentrantLock lock = lockOf(stripe);
+            lock.lock();
+            try {
+                synchronized (leafBookkeeping) {
+                    if (removing) {
+                        tree.clearLeaf(index);
+                    } else {
+                        tree.setLeaf(index, newLeaf);
+                    }
+                }
+                for (int level = 1; level <= top; level++) {
+                    int nodeIndex = index >>> level;
+                    nodes.set(level, nodeIndex, tree.hashChildren(level, nodeIndex));
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            // Marked after the stripe is written, so a combiner clearing the mark sees the new top node.
+            if (top < tree.treeHeight() - 1) {
+                AtomicLongArray dirty = dirtyStripes;
+                int word = stripe >>> 6;
+                long bit = 1L << stripe;
+                if ((dirty.get(word) & bit) == 0) {
+                    dirty.getAndAccumulate(word, bit, (bits, newBit) -> bits | newBit);
+                }
+            }
+            tree.invalidateProofs(index);
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rehashes the ancestors of the dirty stripes. The caller must hold the
+     * combiner lock and at least the shared structure lock.
+     */
+    private void combineLocked() {
+        int top = topLevel();
+        if (top >= tree.treeHeight() - 1) {
+            return;
+        }
+
+        AtomicLongArray dirty = dirtyStripes;
+        int[] dirtyIndexes = new int[16];
+        int dirtyCount = 0;
+        for (int word = 0; word < dirty.length(); word++) {
+            if (dirty.get(word) == 0) {
+                continue;
+            }
+            for (long bits = dirty.getAndSet(word, 0); bits != 0; bits &= bits - 1) {
+                int parentIndex = ((word << 6) + Long.numberOfTrailingZeros(bits)) >>> 1;
+                if (dirtyCount > 0 && dirtyIndexes[dirtyCount - 1] == parentIndex) {
+                    continue;
+                }
+                if (dirtyCount == dirtyIndexes.length) {
+                    dirtyIndexes = Arrays.copyOf(dirtyIndexes, 2 * dirtyCount);
+                }
+                dirtyIndexes[dirtyCount++] = parentIndex;
+            }
+        }
+
+        // The tops of the stripes are read under their locks, as writers may be changing them.
+        for (int level = top + 1; level < tree.treeHeight() && dirtyCount > 0; level++) {
+            int parentCount = 0;
+            for (int i = 0; i < dirtyCount; i++) {
+                int index = dirtyIndexes[i];
+                int childLevel = level - 1;
+                MerkleHash hash = InternalNode.hashOf(readNode(childLevel, 2 * index, top),
+                        readNode(childLevel, 2 * index + 1, top), tree.getHasher());
+                nodes.set(level, index, hash);
+
+                int parentIndex = index >>> 1;
+                if (parentCount == 0 || dirtyIndexes[parentCount - 1] != parentIndex) {
+                    dirtyIndexes[parentCount++] = parentIndex;
+                }
+            }
+            dirtyCount = parentCount;
+        }
+    }
+
+    /**
+     * Reads a node, locking its stripe if it's the top of one.
+     */
+    private MerkleHash readNode(int level, int index, int top) {
+        if (level != top) {
+            return tree.getHash(level, index);
+        }
+        ReentrantLock lock = lockOf(index);
+        lock.lock();
+        try {
+            return tree.getHash(level, index);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the level of the tops of the stripes, which is the root level
+     * while the tree is shorter than the stripe level.
+     */
+    private int topLevel() {
+        return Math.max(1, Math.min(stripeLevel, tree.treeHeight() - 1));
+    }
+
+    private ReentrantLock lockOf(int stripe) {
+        return stripeLocks[stripe & (stripeLocks.length - 1)];
+    }
+
+    private int dirtyWords() {
+        return (tree.levelSize(topLevel()) + 63) >>> 6;
+    }
+
+    private AtomicLongArray newDirtyStripes() {
+        return new AtomicLongArray(dirtyWords());
+    }
+}
@@ -0,0 +1,154 @@
+package net.fsodre.merkle_tree;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+
+/**
+ * Finds the leaf positions at which two trees differ, comparing their nodes
+ * from the top down and only descending into subtrees whose hashes differ.
+ * Finding `d` differing leaves in trees of `N` leaves reads O(d log N) nodes.
+ *
+ * The other tree is read through a `Remote`, so it can be another tree in the
+ * same process (see `local`) or one on another machine (see
+ * `TreeSyncProtocol`). Nodes are requested a level at a time, so comparing
+ * with a remote tree takes one round trip per level.
+ *
+ * Both trees place their nodes the same way, so the node at a given level
+ * and position covers the same leaf positions in both, even if their heights
+ * differ. Positions past the end of one of the trees count as empty there.
+ */
+public final class TreeDiff {
+    /**
+     * Gives access to the nodes of the tree being compared with.
+     */
+    public interface Remote {
+        /**
+         * Returns the number of bytes of the hashes of the tree.
+         */
+        int hashBytes() throws IOException;
+
+        /**
+         * Returns the number of nodes of each level of the tree, from the
+         * leaves up.
+         */
+        int[] levelSizes() throws IOException;
+
+        /**
+         * Returns the hashes of the nodes of `level` at the first `count`
+         * positions of `indexes`, in the same order. Nodes without hash or
+         * past the end of the level are null.
+         */
+        MerkleHash[] hashes(int level, int[] indexes, int count) throws IOException;
+    }
+
+    private TreeDiff() {
+    }
+
+    /**
+     * Returns a Remote that reads `tree` directly. The tree must not be
+     * changed while it's being compared.
+     */
+    public static Remote local(MerkleTree tree) {
+        return new Remote() {
+            @Override
+            public int hashBytes() {
+                return tree.hashBytes();
+            }
+
+            @Override
+            public int[] levelSizes() {
+                tree.rehashPending();
+                return levelSizesOf(tree);
+            }
+
+            @Override
+            public MerkleHash[] hashes(int level, int[] indexes, int count) {
+                return hashesOf(tree, level, indexes, count);
+            }
+        };
+    }
+
+    /**
+     * Returns the sorted leaf positions at which `tree` and `other` differ.
+     *
+     * @throws AssertionError if the trees use hashes of different sizes.
+     */
+    public static int[] diff(MerkleTree tree, MerkleTree other) {
+        assert tree.hashBytes() == other.hashBytes() : "Comparing trees with hashes of different sizes";
+        try {
+            return diff(tree, local(other));
+        } catch (IOException e) {
+            throw new AssertionError("Local trees are read without I/O", e);
+        }
+    }
+
+    /**
+     * Returns the sorted leaf positions at which `tree` and the remote tree
+     * differ.
+     *
+     * @throws IOException upon issues reading the remote tree, if it uses
+     * hashes of a different size or if its level sizes aren't the ones of a
+     * tree.
+     */
+    public static int[] diff(MerkleTree tree, Remote remote) throws IOException {
+        if (remote.hashBytes() != tree.hashBytes()) {
+            throw new IOException("The remote tree uses hashes of " + remote.hashBytes() + " bytes");
+        }
+        tree.rehashPending();
+        int[] remoteSizes = remote.levelSizes();
+        if (!SnapshotFormat.isTreeShape(remoteSizes)) {
+            throw new IOException("The remote tree has invalid level sizes");
+        }
+
+        // The top level of the shorter tree is the highest one both trees have.
+        int level = Math.min(tree.treeHeight(), remoteSizes.length) - 1;
+        int count = Math.max(tree.levelSize(level), remoteSizes[level]);
+        int[] indexes = new int[count];
+        for (int i = 0; i < count; i++) {
+            indexes[i] = i;
+        }
+
+        for (;; level--) {
+            MerkleHash[] remoteHashes = remote.hashes(level, indexes, count);
+            int differing = 0;
+            for (int i = 0; i < count; i++) {
+                if (!Objects.equals(tree.getHash(level, indexes[i]), remoteHashes[i])) {
+                    indexes[differing++] = indexes[i];
+                }
+            }
+            if (level == 0) {
+                return Arrays.copyOf(indexes, differing);
+            }
+
+            // Children past the end of both trees are empty in both, so they can't differ.
+            int childCount = Math.max(tree.levelSize(level - 1), remoteSizes[level - 1]);
+            int[] children = new int[2 * differing];
+            count = 0;
+            for (int i = 0; i < differing; i++) {
+                for (int child = 2 * indexes[i]; child <= 2 * indexes[i] + 1 && child < childCount; child++) {
+                    children[count++] = child;
+                }
+            }
+            indexes = children;
+        }
+    }
+
+    static int[] levelSizesOf(MerkleTree tree) {
+        int[] sizes = new int[tree.treeHeight()];
+        for (int level = 0; level < sizes.length; level++) {
+            sizes[level] = tree.levelSize(level);
+        }
+        return sizes;
+    }
+
+    static MerkleHash[] hashesOf(MerkleTree tree, int level, int[] indexes, int count) {
+        MerkleHash[] hashes = new MerkleHash[count];
+        for (int i = 0; i < count; i++) {
+            hashes[i] = tree.getHash(level, indexes[i]);
+        }
+        return hashes;
+    }
+}
@@ -0,0 +1,141 @@
+package net.fsodre.merkle_tree;
+
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+import net.fsodre.merkle_tree.nodes.InternalNode;
+import net.fsodre.merkle_tree.nodes.MerkleNode;
+
+/**
+ * An immutable version of a PersistentMerkleTree. Snapshots never change, so
+ * any number of threads can read them without locks while the tree keeps
+ * being updated; the nodes they have in common with newer versions are
+ * shared, not copied.
+ */
+public final class TreeSnapshot {
+    /**
+     * An immutable node. Nodes without hash (empty leaves, and internal nodes
+     * with no leaves below them) are represented by null.
+     */
+    static final class Node {
+        final MerkleHash hash;
+        final Node left;
+        final Node right;
+
+        Node(MerkleHash hash, Node left, Node right) {
+            this.hash = hash;
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    private final Hasher hasher;
+
+    // Root of the tree, at level `depth`. The leaves are level 0.
+    private final Node root;
+    private final int depth;
+
+    // Number of positions in the bottom layer, including empty ones.
+    private final int leafCount;
+
+    // Position of each leaf in the bottom layer.
+    private final PersistentLeafIndex leafPosition;
+
+    TreeSnapshot(Hasher hasher, Node root, int depth, int leafCount, PersistentLeafIndex leafPosition) {
+        this.hasher = hasher;
+        this.root = root;
+        this.depth = depth;
+        this.leafCount = leafCount;
+        this.leafPosition = leafPosition;
+    }
+
+    /**
+     * Returns the hasher of the tree.
+     */
+    public Hasher getHasher() {
+        return hasher;
+    }
+
+    /**
+     * Returns the root of the tree, or null if no leaf was ever added to it.
+     */
+    public MerkleNode getRoot() {
+        if (leafCount == 0) {
+            return null;
+        }
+        return InternalNode.withHash(root != null ? root.hash : null, hasher);
+    }
+
+    /**
+     * Returns the number of positions in the bottom layer, including empty
+     * ones.
+     */
+    public int getLeafCount() {
+        return leafCount;
+    }
+
+    /**
+     * Returns the hash of the leaf at `index`, or null if that position is
+     * empty.
+     *
+     * @throws AssertionError if an invalid index is provided.
+     */
+    public MerkleHash getLeafHash(int index) {
+        assert index >= 0 && index < leafCount : "Reading a leaf in an invalid position";
+        Node node = root;
+        for (int level = depth; level > 0 && node != null; level--) {
+            node = isRightChild(index, level - 1) ? node.right : node.left;
+        }
+        return node != null ? node.hash : null;
+    }
+
+    /**
+     * Builds and returns a proof that a leaf with hash `leafHash` is in this
+     * version of the tree. Returns null if the leaf isn't in it.
+     */
+    public ExistenceProof buildExistenceProof(MerkleHash leafHash) {
+        int index = leafPosition.get(leafHash);
+        if (index == -1) {
+            return null;
+        }
+
+        // The path is walked from the root, but the proof lists siblings from the bottom.
+        MerkleHash[] siblings = new MerkleHash[depth];
+        Node node = root;
+        for (int level = depth; level > 0 && node != null; level--) {
+            boolean right = isRightChild(index, level - 1);
+            Node sibling = right ? node.left : node.right;
+            siblings[level - 1] = sibling != null ? sibling.hash : null;
+            node = right ? node.right : node.left;
+        }
+
+        ExistenceProof proof = new ExistenceProof(hasher);
+        for (int level = 0; level < depth; level++) {
+            if (isRightChild(index, level)) {
+                proof.addLeftSibling(siblings[level]);
+            } else {
+                proof.addRightSibling(siblings[level]);
+            }
+        }
+        return proof;
+    }
+
+    Node root() {
+        return root;
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    PersistentLeafIndex leafPosition() {
+        return leafPosition;
+    }
+
+    /**
+     * Returns whether the ancestor at `level` of the leaf at `index` is a
+     * right child.
+     */
+    static boolean isRightChild(int index, int level) {
+        return ((index >>> level) & 1) != 0;
+    }
+}
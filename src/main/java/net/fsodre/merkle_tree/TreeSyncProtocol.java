@@ -0,0 +1,208 @@
+package net.fsodre.merkle_tree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import net.fsodre.merkle_tree.SnapshotFormat.Reader;
+import net.fsodre.merkle_tree.SnapshotFormat.Writer;
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+
+/**
+ * Request/response protocol used by `TreeDiff` to compare a local tree with
+ * one served from elsewhere, over any pair of byte channels (sockets, pipes,
+ * streams wrapped with `Channels.newChannel`, ...).
+ *
+ * Each request starts with its type:
+ *
+ * - SHAPE: answered with a magic number, the protocol version, the hash size,
+ * the number of levels and the size of each level.
+ * - HASHES: followed by a level, a count of at most `MAX_CHUNK_NODES` and that
+ * many positions. Answered with a bitmap of the requested nodes that have a
+ * hash, followed by the hash bytes of those nodes only.
+ * - END: closes the session, without answer.
+ *
+ * Larger requests are split by the client into chunks, so neither side ever
+ * buffers more than a chunk. All ints and longs are big-endian.
+ */
+public final class TreeSyncProtocol {
+    static final int MAGIC = 0x4d4b5444; // "MKTD"
+    static final int VERSION = 1;
+
+    // Maximum number of nodes in a single HASHES request.
+    public static final int MAX_CHUNK_NODES = 4096;
+
+    static final int SHAPE = 1;
+    static final int HASHES = 2;
+    static final int END = 3;
+
+    private TreeSyncProtocol() {
+    }
+
+    /**
+     * Answers the requests read from `requests` about `tree`, writing the
+     * responses to `responses`, until the client ends the session. The tree
+     * must not be changed meanwhile.
+     *
+     * @throws IOException upon issues with the channels, or if a request is
+     * malformed.
+     */
+    public static void serve(MerkleTree tree, ReadableByteChannel requests, WritableByteChannel responses)
+            throws IOException {
+        tree.rehashPending();
+        Reader reader = new Reader(requests);
+        Writer writer = new Writer(responses);
+        int hashBytes = tree.hashBytes();
+        int[] indexes = new int[MAX_CHUNK_NODES];
+        byte[] hash = new byte[hashBytes];
+
+        for (;;) {
+            int type = reader.readInt();
+            if (type == END) {
+                return;
+            }
+            if (type == SHAPE) {
+                int[] levelSizes = TreeDiff.levelSizesOf(tree);
+                writer.writeInt(MAGIC);
+                writer.writeInt(VERSION);
+                writer.writeInt(hashBytes);
+                writer.writeInt(levelSizes.length);
+                for (int size : levelSizes) {
+                    writer.writeInt(size);
+                }
+            } else if (type == HASHES) {
+                int level = reader.readInt();
+                int count = reader.readCount();
+                if (level < 0 || count > MAX_CHUNK_NODES) {
+                    throw new IOException("Invalid hashes request");
+                }
+                for (int i = 0; i < count; i++) {
+                    indexes[i] = reader.readCount();
+                }
+                writeHashes(tree, level, indexes, count, hash, writer);
+            } else {
+                throw new IOException("Unknown request " + type);
+            }
+            writer.flush();
+        }
+    }
+
+    /**
+     * Returns a Remote for the tree served at the other end of the channels.
+     * Closing it ends the session.
+     */
+    public static Client connect(ReadableByteChannel responses, WritableByteChannel requests) {
+        return new Client(responses, requests);
+    }
+
+    private static void writeHashes(MerkleTree tree, int level, int[] indexes, int count, byte[] hash, Writer writer)
+            throws IOException {
+        int size = tree.levelSize(level);
+        for (int word = 0; word < (count + 63) >>> 6; word++) {
+            long bits = 0;
+            for (int i = word << 6; i < Math.min(count, (word + 1) << 6); i++) {
+                if (indexes[i] < size && tree.storage().has(level, indexes[i])) {
+                    bits |= 1L << i;
+                }
+            }
+            writer.writeLong(bits);
+        }
+        for (int i = 0; i < count; i++) {
+            if (indexes[i] < size && tree.storage().read(level, indexes[i], hash, 0)) {
+                writer.write(hash, 0, hash.length);
+            }
+        }
+    }
+
+    /**
+     * Client side of the protocol. The shape of the remote tree is requested
+     * once and kept.
+     */
+    public static final class Client implements TreeDiff.Remote, Closeable {
+        private final Reader reader;
+        private final Writer writer;
+        private int hashBytes;
+        private int[] levelSizes;
+
+        private Client(ReadableByteChannel responses, WritableByteChannel requests) {
+            this.reader = new Reader(responses);
+            this.writer = new Writer(requests);
+        }
+
+        @Override
+        public int hashBytes() throws IOException {
+            readShape();
+            return hashBytes;
+        }
+
+        @Override
+        public int[] levelSizes() throws IOException {
+            readShape();
+            return levelSizes.clone();
+        }
+
+        @Override
+        public MerkleHash[] hashes(int level, int[] indexes, int count) throws IOException {
+            readShape();
+            MerkleHash[] hashes = new MerkleHash[count];
+            byte[] hash = new byte[hashBytes];
+            for (int from = 0; from < count; from += MAX_CHUNK_NODES) {
+                int chunk = Math.min(MAX_CHUNK_NODES, count - from);
+                writer.writeInt(HASHES);
+                writer.writeInt(level);
+                writer.writeInt(chunk);
+                for (int i = from; i < from + chunk; i++) {
+                    writer.writeInt(indexes[i]);
+                }
+                writer.flush();
+
+                long[] present = new long[(chunk + 63) >>> 6];
+                for (int word = 0; word < present.length; word++) {
+                    present[word] = reader.readLong();
+                }
+                for (int i = 0; i < chunk; i++) {
+                    if ((present[i >>> 6] & (1L << i)) != 0) {
+                        reader.readFully(hash, 0, hashBytes);
+                        hashes[from + i] = MerkleHash.fromHashCode(hash, hashBytes);
+                    }
+                }
+            }
+            return hashes;
+        }
+
+        /**
+         * Ends the session. The channels are left open.
+         */
+        @Override
+        public void close() throws IOException {
+            writer.writeInt(END);
+            writer.flush();
+        }
+
+        private void readShape() throws IOException {
+            if (levelSizes != null) {
+                return;
+            }
+            writer.writeInt(SHAPE);
+            writer.flush();
+            if (reader.readInt() != MAGIC) {
+                throw new IOException("Not a tree sync server");
+            }
+            int version = reader.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported tree sync version " + version);
+            }
+            hashBytes = reader.readInt();
+            int levels = reader.readCount();
+            if (levels > SnapshotFormat.MAX_LEVELS) {
+                throw new IOException("Invalid tree shape: too many levels");
+            }
+            int[] sizes = reader.readInts(levels);
+            if (!SnapshotFormat.isTreeShape(sizes)) {
+                throw new IOException("Invalid tree shape");
+            }
+            levelSizes = sizes;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package net.fsodre.merkle_tree.hashers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Hashes data using BLAKE2b with a 256-bit output (RFC 7693), implemented in
+ * plain Java since the JDK doesn't provide it. It's a cryptographic hash like
+ * SHA512-256, but needs fewer operations per byte, and internal nodes fit in a
+ * single compression.
+ *
+ * Each thread reuses its own hashing state, so hashing doesn't allocate
+ * anything but the output.
+ */
+public class Blake2b256Hasher implements Hasher {
+    private static final long serialVersionUID = 1L;
+
+    private static final int OUTPUT_BYTES = 32;
+
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    /**
+     * Returns a MerkleHash created by hashing data in local memory using
+     * BLAKE2b-256.
+     */
+    @Override
+    public MerkleHash hash(byte[] data) {
+        State state = STATE.get();
+        state.reset();
+        state.update(data, 0, data.length);
+        return MerkleHash.wrap(state.finish(new byte[OUTPUT_BYTES], 0));
+    }
+
+    /**
+     * Returns a MerkleHash created by hashing data read from a stream using
+     * BLAKE2b-256.
+     *
+     * @throws IOException upon issues reading the data from the stream.
+     */
+    @Override
+    public MerkleHash hash(InputStream inputStream) throws IOException {
+        State state = STATE.get();
+        state.reset();
+        byte[] chunk = state.chunk;
+        for (int read = inputStream.read(chunk); read >= 0; read = inputStream.read(chunk)) {
+            state.update(chunk, 0, read);
+        }
+        return MerkleHash.wrap(state.finish(new byte[OUTPUT_BYTES], 0));
+    }
+
+    /**
+     * Returns the BLAKE2b-256 hash of the concatenation of two hashes, feeding
+     * them directly to the hashing state.
+     */
+    @Override
+    public MerkleHash hashPair(MerkleHash left, MerkleHash right) {
+        State state = STATE.get();
+        state.reset();
+        state.update(left.bytes(), 0, left.sizeInBytes());
+        state.update(right.bytes(), 0, right.sizeInBytes());
+        return MerkleHash.wrap(state.finish(new byte[OUTPUT_BYTES], 0));
+    }
+
+    /**
+     * Hashes part of an array with the state of the calling thread, writing
+     * the hash directly into `output`.
+     */
+    @Override
+    public void hashInto(byte[] input, int offset, int length, byte[] output, int outputOffset) {
+        State state = STATE.get();
+        state.reset();
+        state.update(input, offset, length);
+        state.finish(output, outputOffset);
+    }
+
+    /**
+     * Hashes a batch of messages with the state of the calling thread,
+     * without allocating anything.
+     */
+    @Override
+    public void hashBatch(ByteBuffer inputs, int messageBytes, int count, ByteBuffer output) {
+        State state = STATE.get();
+        for (int i = 0; i < count; i++) {
+            state.reset();
+            if (inputs.hasArray()) {
+                state.update(inputs.array(), inputs.arrayOffset() + inputs.position(), messageBytes);
+                inputs.position(inputs.position() + messageBytes);
+            } else {
+                for (int remaining = messageBytes; remaining > 0;) {
+                    int chunkLength = Math.min(remaining, state.chunk.length);
+                    inputs.get(state.chunk, 0, chunkLength);
+                    state.update(state.chunk, 0, chunkLength);
+                    remaining -= chunkLength;
+                }
+            }
+            output.put(state.finish(state.output, 0));
+        }
+    }
+
+    /**
+     * Returns the number of bits output by BLAKE2b-256.
+     */
+    @Override
+    public int outputBitsCount() {
+        return 8 * OUTPUT_BYTES;
+    }
+
+    /**
+     * Hashing state of BLAKE2b, without key.
+     */
+    private static final class State {
+        private static final int BLOCK_BYTES = 128;
+        private static final int ROUNDS = 12;
+
+        private static final long[] IV = {
+            0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL, 0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L,
+            0x510e527fade682d1L, 0x9b05688c2b3e6c1fL, 0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L,
+        };
+
+        private static final byte[][] SIGMA = {
+            {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15},
+            {14, 10, 4, 8, 9, 15, 13, 6, 1, 12, 0, 2, 11, 7, 5, 3},
+            {11, 8, 12, 0, 5, 2, 15, 13, 10, 14, 3, 6, 7, 1, 9, 4},
+            {7, 9, 3, 1, 13, 12, 11, 14, 2, 6, 5, 10, 4, 0, 15, 8},
+            {9, 0, 5, 7, 2, 4, 10, 15, 14, 1, 11, 12, 6, 8, 3, 13},
+            {2, 12, 6, 10, 0, 11, 8, 3, 4, 13, 7, 5, 15, 14, 1, 9},
+            {12, 5, 1, 15, 14, 13, 4, 10, 0, 7, 6, 3, 9, 2, 8, 11},
+            {13, 11, 7, 14, 12, 1, 3, 9, 5, 0, 15, 4, 8, 6, 2, 10},
+            {6, 15, 14, 9, 11, 3, 0, 8, 12, 2, 13, 7, 1, 4, 10, 5},
+            {10, 2, 8, 4, 7, 6, 1, 5, 15, 11, 9, 14, 3, 12, 13, 0},
+        };
+
+        // Chained state.
+        private final long[] h = new long[8];
+
+        // Input not compressed yet. The last block is only compressed by `finish`.
+        private final byte[] buffer = new byte[BLOCK_BYTES];
+        private int bufferLength;
+
+        // Number of input bytes compressed so far.
+        private long counter;
+
+        // Scratch space of the compression function.
+        private final long[] m = new long[16];
+        private final long[] v = new long[16];
+
+        // Scratch space to read streams.
+        private final byte[] chunk = new byte[8192];
+
+        // Scratch space for hashes that are copied somewhere else.
+        private final byte[] output = new byte[OUTPUT_BYTES];
+
+        void reset() {
+            System.arraycopy(IV, 0, h, 0, IV.length);
+            // Parameter block: digest length, no key, fanout and depth of 1.
+            h[0] ^= 0x01010000L | OUTPUT_BYTES;
+            bufferLength = 0;
+            counter = 0;
+        }
+
+        void update(byte[] input, int offset, int length) {
+            while (length > 0) {
+                if (bufferLength == BLOCK_BYTES) {
+                    counter += BLOCK_BYTES;
+                    compress(false);
+                    bufferLength = 0;
+                }
+                int chunkLength = Math.min(length, BLOCK_BYTES - bufferLength);
+                System.arraycopy(input, offset, buffer, bufferLength, chunkLength);
+                bufferLength += chunkLength;
+                offset += chunkLength;
+                length -= chunkLength;
+            }
+        }
+
+        /**
+         * Compresses the last block and writes the hash into `output`,
+         * starting at `offset`. Returns `output`.
+         */
+        byte[] finish(byte[] output, int offset) {
+            counter += bufferLength;
+            for (int i = bufferLength; i < BLOCK_BYTES; i++) {
+                buffer[i] = 0;
+            }
+            compress(true);
+
+            for (int i = 0; i < OUTPUT_BYTES; i++) {
+                output[offset + i] = (byte) (h[i >>> 3] >>> (8 * (i & 7)));
+            }
+            return output;
+        }
+
+        private void compress(boolean last) {
+            for (int i = 0; i < 16; i++) {
+                m[i] = readLittleEndian(buffer, 8 * i);
+            }
+            System.arraycopy(h, 0, v, 0, 8);
+            System.arraycopy(IV, 0, v, 8, 8);
+            v[12] ^= counter;
+            if (last) {
+                v[14] = ~v[14];
+            }
+
+            for (int round = 0; round < ROUNDS; round++) {
+                byte[] s = SIGMA[round % 10];
+                mix(0, 4, 8, 12, m[s[0]], m[s[1]]);
+                mix(1, 5, 9, 13, m[s[2]], m[s[3]]);
+                mix(2, 6, 10, 14, m[s[4]], m[s[5]]);
+                mix(3, 7, 11, 15, m[s[6]], m[s[7]]);
+                mix(0, 5, 10, 15, m[s[8]], m[s[9]]);
+                mix(1, 6, 11, 12, m[s[10]], m[s[11]]);
+                mix(2, 7, 8, 13, m[s[12]], m[s[13]]);
+                mix(3, 4, 9, 14, m[s[14]], m[s[15]]);
+            }
+
+            for (int i = 0; i < 8; i++) {
+                h[i] ^= v[i] ^ v[i + 8];
+            }
+        }
+
+        private void mix(int a, int b, int c, int d, long x, long y) {
+            v[a] += v[b] + x;
+            v[d] = Long.rotateRight(v[d] ^ v[a], 32);
+            v[c] += v[d];
+            v[b] = Long.rotateRight(v[b] ^ v[c], 24);
+            v[a] += v[b] + y;
+            v[d] = Long.rotateRight(v[d] ^ v[a], 16);
+            v[c] += v[d];
+            v[b] = Long.rotateRight(v[b] ^ v[c], 63);
+        }
+
+        private static long readLittleEndian(byte[] bytes, int offset) {
+            long value = 0;
+            for (int i = 7; i >= 0; i--) {
+                value = (value << 8) | (bytes[offset + i] & 0xffL);
+            }
+            return value;
+        }
+    }
+}
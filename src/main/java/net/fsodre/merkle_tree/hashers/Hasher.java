@@ -2,12 +2,18 @@ package net.fsodre.merkle_tree.hashers;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Represents a hashing algorithm. Needs to be able to hash data in local memory
  * as well as data coming from possibily buffered input streams.
+ *
+ * Each tree holds its own hasher, which is also carried by the proofs it
+ * builds, so hashers must be serializable.
  */
-public interface Hasher {
+public interface Hasher extends Serializable {
 
     /**
      * Hashes the data provided as a byte array.
@@ -19,6 +25,46 @@ public interface Hasher {
      */
     MerkleHash hash(InputStream inputStream) throws IOException;
 
+    /**
+     * Hashes the concatenation of two hashes, as done for internal nodes.
+     * Implementations may override it to avoid building the concatenation.
+     */
+    default MerkleHash hashPair(MerkleHash left, MerkleHash right) {
+        return hash(left.concat(right));
+    }
+
+    /**
+     * Hashes the `length` bytes of `input` starting at `offset`, writing the
+     * hash into `output` starting at `outputOffset`. The output may overlap
+     * the input.
+     *
+     * Used to verify proofs without creating objects. This default goes
+     * through `hash(byte[])`; implementations may override it to avoid
+     * allocating.
+     */
+    default void hashInto(byte[] input, int offset, int length, byte[] output, int outputOffset) {
+        byte[] hash = hash(Arrays.copyOfRange(input, offset, offset + length)).bytes();
+        System.arraycopy(hash, 0, output, outputOffset, hash.length);
+    }
+
+    /**
+     * Hashes `count` messages of `messageBytes` bytes each, read one after the
+     * other from `inputs`, and puts their hashes one after the other in
+     * `output`. Both buffers are read and written from their current position,
+     * which is advanced.
+     *
+     * Used to hash many internal nodes at once. This default just hashes each
+     * message separately; implementations may override it to avoid per-message
+     * overhead.
+     */
+    default void hashBatch(ByteBuffer inputs, int messageBytes, int count, ByteBuffer output) {
+        byte[] message = new byte[messageBytes];
+        for (int i = 0; i < count; i++) {
+            inputs.get(message);
+            output.put(hash(message).bytes());
+        }
+    }
+
     /**
      * Number of output bits
      */
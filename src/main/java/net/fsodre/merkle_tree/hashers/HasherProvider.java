@@ -1,11 +1,13 @@
 package net.fsodre.merkle_tree.hashers;
 
 /**
- * Used to define which hash algorithm the tree must work with.
+ * Holds the default hasher, used by trees, nodes and proofs that aren't given
+ * one explicitly. It's only read when they are created, so changing it doesn't
+ * affect existing trees.
  */
 public class HasherProvider {
 
-    private static Hasher hasher = new Sha512256Hasher();
+    private static volatile Hasher hasher = new Sha512256Hasher();
 
     public static void setHasher(Hasher hasher) {
         HasherProvider.hasher = hasher;
@@ -3,6 +3,8 @@ package net.fsodre.merkle_tree.hashers;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.binary.Hex;
@@ -18,10 +20,19 @@ final public class MerkleHash implements Serializable {
     final private byte[] bytes;
 
     /**
-     * Creates a MerkleHash by hashing data given as an array of bytes.
+     * Creates a MerkleHash by hashing data given as an array of bytes, using
+     * the default hasher.
      */
     public static MerkleHash fromData(byte[] data) {
-        return HasherProvider.getHasher().hash(data);
+        return fromData(data, HasherProvider.getHasher());
+    }
+
+    /**
+     * Creates a MerkleHash by hashing data given as an array of bytes, using
+     * the given hasher.
+     */
+    public static MerkleHash fromData(byte[] data, Hasher hasher) {
+        return hasher.hash(data);
     }
 
     /**
@@ -32,23 +43,61 @@ final public class MerkleHash implements Serializable {
     }
 
     /**
-     * Creates a MerkleHash by hashing data read from a Stream
+     * Creates a MerkleHash by hashing data read from a Stream, using the
+     * default hasher.
      *
      * @throws IOException upon issues reading from the stream.
      */
     public static MerkleHash fromStream(InputStream stream) throws IOException {
-        return HasherProvider.getHasher().hash(stream);
+        return fromStream(stream, HasherProvider.getHasher());
+    }
+
+    /**
+     * Creates a MerkleHash by hashing data read from a Stream, using the given
+     * hasher.
+     *
+     * @throws IOException upon issues reading from the stream.
+     */
+    public static MerkleHash fromStream(InputStream stream, Hasher hasher) throws IOException {
+        return hasher.hash(stream);
     }
 
     /**
      * Creates a MerkleHash from the hash code itself, given as an array of
      * bytes.
      *
+     * @throws AssertionError if the array of bytes doesn't have the size of
+     * the default hasher's hashes.
+     */
+    public static MerkleHash fromHashCode(byte[] bytes) {
+        return fromHashCode(bytes, expectedSizeInBytes());
+    }
+
+    /**
+     * Creates a MerkleHash from the hash code itself, given as an array of
+     * bytes that must have `sizeInBytes` bytes.
+     *
      * @throws AssertionError if the array of bytes doesn't have the expected
      * size.
      */
-    public static MerkleHash fromHashCode(byte[] bytes) {
-        assert bytes.length == expectedSizeInBytes() : "Invalid hash size upon creation";
+    public static MerkleHash fromHashCode(byte[] bytes, int sizeInBytes) {
+        assert bytes.length == sizeInBytes : "Invalid hash size upon creation";
+        return new MerkleHash(bytes.clone());
+    }
+
+    /**
+     * Creates a MerkleHash from the hash code itself, given as the
+     * `sizeInBytes` bytes of `source` starting at `offset`.
+     */
+    public static MerkleHash fromHashCode(byte[] source, int offset, int sizeInBytes) {
+        return new MerkleHash(Arrays.copyOfRange(source, offset, offset + sizeInBytes));
+    }
+
+    /**
+     * Same as `fromHashCode`, but takes ownership of `bytes` instead of
+     * copying them. Meant for hashers that just produced the array.
+     */
+    static MerkleHash wrap(byte[] bytes) {
         return new MerkleHash(bytes);
     }
 
@@ -57,7 +106,7 @@ final public class MerkleHash implements Serializable {
      *
      * @throws DecoderException if the string isn't a valid hex string.
      * @throws AssertionError if the resulting array of bytes doesn't have the
-     * expected size.
+     * size of the default hasher's hashes.
      */
     public static MerkleHash fromHashCode(String str) throws DecoderException {
         return fromHashCode(Hex.decodeHex(str));
@@ -70,6 +119,21 @@ final public class MerkleHash implements Serializable {
         return this.bytes.clone();
     }
 
+    /**
+     * Returns the number of bytes of the hash code.
+     */
+    public int sizeInBytes() {
+        return bytes.length;
+    }
+
+    /**
+     * Returns the bytes representing the hash code, without copying them.
+     * They must not be modified.
+     */
+    byte[] bytes() {
+        return bytes;
+    }
+
     /**
      * Returns the hexadecimal string representation of the hash code.
      */
@@ -78,6 +142,72 @@ final public class MerkleHash implements Serializable {
         return Hex.encodeHexString(bytes);
     }
 
+    /**
+     * Two MerkleHashes are equal if they have the same hash code bytes.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof MerkleHash)) {
+            return false;
+        }
+        return Arrays.equals(bytes, ((MerkleHash) other).bytes);
+    }
+
+    /**
+     * Same as `Arrays.hashCode(toBytes())`, without copying the bytes.
+     */
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(bytes);
+    }
+
+    /**
+     * Writes the bytes of the hash code into `buffer`, starting at absolute
+     * position `offset`. The position of the buffer isn't changed.
+     */
+    public void writeTo(ByteBuffer buffer, int offset) {
+        for (int i = 0; i < bytes.length; i++) {
+            buffer.put(offset + i, bytes[i]);
+        }
+    }
+
+    /**
+     * Copies the bytes of the hash code into `destination`, starting at
+     * `offset`.
+     */
+    public void copyTo(byte[] destination, int offset) {
+        System.arraycopy(bytes, 0, destination, offset, bytes.length);
+    }
+
+    /**
+     * Returns whether the bytes of `source` starting at `offset` are the bytes
+     * of this hash code.
+     */
+    public boolean matches(byte[] source, int offset) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (source[offset + i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the bytes of `buffer` starting at absolute position
+     * `offset` are the bytes of this hash code.
+     */
+    public boolean matches(ByteBuffer buffer, int offset) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Returns the concatenation of this MerkleHash with another one as an array
      * of bytes.
@@ -86,21 +216,27 @@ final public class MerkleHash implements Serializable {
         if (other == null) {
             return bytes.clone();
         }
-        byte[] result = new byte[2 * expectedSizeInBytes()];
-        System.arraycopy(this.bytes, 0, result, 0, expectedSizeInBytes());
-        System.arraycopy(other.bytes, 0, result, expectedSizeInBytes(), expectedSizeInBytes());
+        byte[] result = new byte[bytes.length + other.bytes.length];
+        System.arraycopy(this.bytes, 0, result, 0, bytes.length);
+        System.arraycopy(other.bytes, 0, result, bytes.length, other.bytes.length);
         return result;
     }
 
+    /**
+     * Number of bytes of the hashes produced by the default hasher.
+     */
     public static int expectedSizeInBytes() {
         return HasherProvider.getHasher().outputBitsCount() / 8;
     }
 
+    /**
+     * Number of hex characters of the hashes produced by the default hasher.
+     */
     public static int expectedSizeInHexChars() {
         return HasherProvider.getHasher().outputBitsCount() / 4;
     }
 
     private MerkleHash(byte[] bytes) {
-        this.bytes = bytes.clone();
+        this.bytes = bytes;
     }
 }
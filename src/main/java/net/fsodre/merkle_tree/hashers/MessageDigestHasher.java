@@ -0,0 +1,115 @@
+package net.fsodre.merkle_tree.hashers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Base of the hashers backed by a JDK MessageDigest. Going through the JDK
+ * provider lets the JVM use its intrinsics for the algorithm (for instance,
+ * SHA-NI for SHA-256) when the CPU has them.
+ *
+ * Looking up a MessageDigest costs about as much as hashing the 64 bytes of an
+ * internal node, so subclasses keep one digest per thread, returned by
+ * `digest()`, instead of creating one per call.
+ */
+abstract class MessageDigestHasher implements Hasher {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Returns the digest of the calling thread, in its initial state.
+     */
+    protected abstract MessageDigest digest();
+
+    /**
+     * Returns a MerkleHash created by hashing data in local memory.
+     */
+    @Override
+    public MerkleHash hash(byte[] data) {
+        return MerkleHash.wrap(digest().digest(data));
+    }
+
+    /**
+     * Returns a MerkleHash created by hashing data read from a stream.
+     *
+     * @throws IOException upon issues reading the data from the stream.
+     */
+    @Override
+    public MerkleHash hash(InputStream inputStream) throws IOException {
+        MessageDigest digest = digest();
+        try {
+            return MerkleHash.wrap(DigestUtils.updateDigest(digest, inputStream).digest());
+        } catch (IOException e) {
+            digest.reset();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the hash of the concatenation of two hashes, feeding them
+     * directly to the digest.
+     */
+    @Override
+    public MerkleHash hashPair(MerkleHash left, MerkleHash right) {
+        MessageDigest digest = digest();
+        digest.update(left.bytes());
+        digest.update(right.bytes());
+        return MerkleHash.wrap(digest.digest());
+    }
+
+    /**
+     * Hashes part of an array with the digest of the calling thread, writing
+     * the hash directly into `output`.
+     */
+    @Override
+    public void hashInto(byte[] input, int offset, int length, byte[] output, int outputOffset) {
+        MessageDigest digest = digest();
+        digest.update(input, offset, length);
+        try {
+            digest.digest(output, outputOffset, outputBitsCount() / 8);
+        } catch (DigestException e) {
+            throw new IllegalStateException("Unexpected digest size", e);
+        }
+    }
+
+    /**
+     * Hashes a batch of messages with the digest of the calling thread,
+     * without creating a MerkleHash for each one.
+     */
+    @Override
+    public void hashBatch(ByteBuffer inputs, int messageBytes, int count, ByteBuffer output) {
+        MessageDigest digest = digest();
+        byte[] hash = new byte[outputBitsCount() / 8];
+        int limit = inputs.limit();
+        try {
+            for (int i = 0; i < count; i++) {
+                inputs.limit(inputs.position() + messageBytes);
+                digest.update(inputs);
+                digest.digest(hash, 0, hash.length);
+                output.put(hash);
+            }
+        } catch (DigestException e) {
+            throw new IllegalStateException("Unexpected digest size", e);
+        } finally {
+            inputs.limit(limit);
+        }
+    }
+
+    /**
+     * Creates a digest for `algorithm`.
+     *
+     * @throws IllegalStateException if the algorithm isn't available.
+     */
+    protected static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(algorithm + " isn't available", e);
+        }
+    }
+}
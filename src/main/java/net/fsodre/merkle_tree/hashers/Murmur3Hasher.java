@@ -0,0 +1,119 @@
+package net.fsodre.merkle_tree.hashers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.apache.commons.codec.digest.MurmurHash3;
+
+/**
+ * Hashes data using the 128-bit, x64 variant of MurmurHash3. It's much faster
+ * than any cryptographic hash, but it's NOT collision resistant: anyone who
+ * controls the data can easily produce collisions. Use it only for trees
+ * over trusted data, for instance to detect changes or duplicates, never to
+ * prove integrity to a third party.
+ *
+ * The output is the two 64-bit halves in little-endian order, the same bytes
+ * produced by the reference implementation.
+ */
+public class Murmur3Hasher implements Hasher {
+    private static final long serialVersionUID = 1L;
+
+    private static final int OUTPUT_BYTES = 16;
+
+    // Room for the concatenation of two hashes of internal nodes.
+    private static final ThreadLocal<byte[]> PAIR = ThreadLocal.withInitial(() -> new byte[2 * OUTPUT_BYTES]);
+
+    /**
+     * Returns a MerkleHash created by hashing data in local memory using
+     * MurmurHash3.
+     */
+    @Override
+    public MerkleHash hash(byte[] data) {
+        return hash(data, 0, data.length);
+    }
+
+    /**
+     * Returns a MerkleHash created by hashing data read from a stream using
+     * MurmurHash3. The algorithm can't be fed incrementally, so the whole data
+     * is read into memory first.
+     *
+     * @throws IOException upon issues reading the data from the stream.
+     */
+    @Override
+    public MerkleHash hash(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        for (int read = inputStream.read(chunk); read >= 0; read = inputStream.read(chunk)) {
+            data.write(chunk, 0, read);
+        }
+        return hash(data.toByteArray());
+    }
+
+    /**
+     * Returns the MurmurHash3 hash of the concatenation of two hashes, built
+     * in a buffer of the calling thread.
+     */
+    @Override
+    public MerkleHash hashPair(MerkleHash left, MerkleHash right) {
+        int length = left.sizeInBytes() + right.sizeInBytes();
+        if (length > 2 * OUTPUT_BYTES) {
+            return hash(left.concat(right));
+        }
+        byte[] pair = PAIR.get();
+        System.arraycopy(left.bytes(), 0, pair, 0, left.sizeInBytes());
+        System.arraycopy(right.bytes(), 0, pair, left.sizeInBytes(), right.sizeInBytes());
+        return hash(pair, 0, length);
+    }
+
+    /**
+     * Hashes a batch of messages, reading them in place when `inputs` is
+     * backed by an array.
+     */
+    @Override
+    public void hashBatch(ByteBuffer inputs, int messageBytes, int count, ByteBuffer output) {
+        byte[] message = inputs.hasArray() ? null : new byte[messageBytes];
+        ByteOrder order = output.order();
+        output.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < count; i++) {
+            long[] halves;
+            if (message == null) {
+                halves = MurmurHash3.hash128x64(inputs.array(), inputs.arrayOffset() + inputs.position(), messageBytes, 0);
+                inputs.position(inputs.position() + messageBytes);
+            } else {
+                inputs.get(message);
+                halves = MurmurHash3.hash128x64(message, 0, messageBytes, 0);
+            }
+            output.putLong(halves[0]);
+            output.putLong(halves[1]);
+        }
+        output.order(order);
+    }
+
+    /**
+     * Returns the number of bits output by MurmurHash3 (x64, 128 bits).
+     */
+    @Override
+    public int outputBitsCount() {
+        return 8 * OUTPUT_BYTES;
+    }
+
+    /**
+     * Hashes part of an array, writing the hash directly into `output`.
+     */
+    @Override
+    public void hashInto(byte[] input, int offset, int length, byte[] output, int outputOffset) {
+        long[] halves = MurmurHash3.hash128x64(input, offset, length, 0);
+        for (int i = 0; i < OUTPUT_BYTES; i++) {
+            output[outputOffset + i] = (byte) (halves[i >>> 3] >>> (8 * (i & 7)));
+        }
+    }
+
+    private MerkleHash hash(byte[] data, int offset, int length) {
+        byte[] output = new byte[OUTPUT_BYTES];
+        hashInto(data, offset, length, output, 0);
+        return MerkleHash.wrap(output);
+    }
+}
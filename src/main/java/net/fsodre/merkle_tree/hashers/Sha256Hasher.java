@@ -0,0 +1,30 @@
+package net.fsodre.merkle_tree.hashers;
+
+import java.security.MessageDigest;
+
+import org.apache.commons.codec.digest.MessageDigestAlgorithms;
+
+/**
+ * Hashes data using SHA-256. Recent JVMs compute it with the SHA extensions
+ * of the CPU when available, which usually makes it the fastest
+ * cryptographic option.
+ */
+public class Sha256Hasher extends MessageDigestHasher {
+    private static final long serialVersionUID = 1L;
+
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal
+            .withInitial(() -> newDigest(MessageDigestAlgorithms.SHA_256));
+
+    /**
+     * Returns the number of bits output by SHA-256.
+     */
+    @Override
+    public int outputBitsCount() {
+        return 256;
+    }
+
+    @Override
+    protected MessageDigest digest() {
+        return DIGEST.get();
+    }
+}
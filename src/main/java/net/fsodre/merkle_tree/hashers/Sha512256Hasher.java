@@ -1,40 +1,28 @@
 package net.fsodre.merkle_tree.hashers;
 
-import java.io.IOException;
-import java.io.InputStream;
+import java.security.MessageDigest;
 
-import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.codec.digest.MessageDigestAlgorithms;
 
-public class Sha512256Hasher implements Hasher {
+/**
+ * Hashes data using SHA512-256.
+ */
+public class Sha512256Hasher extends MessageDigestHasher {
+    private static final long serialVersionUID = 1L;
 
-    /**
-     * Returns a MerkleHash created by hashing data in local memory using
-     * SHA512-256.
-     */
-    @Override
-    public MerkleHash hash(byte[] data) {
-        return MerkleHash.fromHashCode(DigestUtils.sha512_256(data));
-    }
-
-    /**
-     * Returns a MerkleHash created by hashing data read from a stream using
-     * SHA512-256.
-     *
-     * @throws IOException upon issues reading the data from the stream.
-     */
-    @Override
-    public MerkleHash hash(InputStream inputStream) throws IOException {
-        return MerkleHash.fromHashCode(DigestUtils.sha512_256(inputStream));
-    }
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal
+            .withInitial(() -> newDigest(MessageDigestAlgorithms.SHA_512_256));
 
     /**
      * Returns the number of bits output by SHA512-256.
-     *
-     * @throws IOException upon issues reading the data from the stream.
      */
     @Override
     public int outputBitsCount() {
         return 256;
     }
-    
+
+    @Override
+    protected MessageDigest digest() {
+        return DIGEST.get();
+    }
 }
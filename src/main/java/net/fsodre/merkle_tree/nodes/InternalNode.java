@@ -1,5 +1,7 @@
 package net.fsodre.merkle_tree.nodes;
 
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.hashers.HasherProvider;
 import net.fsodre.merkle_tree.hashers.MerkleHash;
 
 /**
@@ -15,21 +17,72 @@ import net.fsodre.merkle_tree.hashers.MerkleHash;
 public final class InternalNode implements MerkleNode {
     private static final long serialVersionUID = 1L;
 
+    // The hasher used to compute the hash from the children.
+    private final Hasher hasher;
+
     // The hash associated with this node.
     private MerkleHash hash;
 
     /**
-     * Creates an internal node given two child nodes.
+     * Creates an internal node given two child nodes, hashed with the default
+     * hasher.
      */
     public static InternalNode from(MerkleNode leftChild, MerkleNode rightChild) {
-        return new InternalNode(leftChild, rightChild);
+        return from(leftChild, rightChild, HasherProvider.getHasher());
+    }
+
+    /**
+     * Creates an internal node given two child nodes, hashed with the given
+     * hasher.
+     */
+    public static InternalNode from(MerkleNode leftChild, MerkleNode rightChild, Hasher hasher) {
+        return new InternalNode(leftChild, rightChild, hasher);
     }
 
     /**
-     * Creates an internal node given only one child (the left one).
+     * Creates an internal node given only one child (the left one), hashed
+     * with the default hasher.
      */
     public static InternalNode from(MerkleNode child) {
-        return new InternalNode(child, null);
+        return from(child, null);
+    }
+
+    /**
+     * Creates an internal node whose hash is already known, for instance
+     * because it was read from storage. Later updates use the given hasher.
+     */
+    public static InternalNode withHash(MerkleHash hash, Hasher hasher) {
+        return new InternalNode(hash, hasher);
+    }
+
+    /**
+     * Computes the hash of an internal node given the hashes of its children,
+     * following the rules described above, with the default hasher.
+     */
+    public static MerkleHash hashOf(MerkleHash leftHash, MerkleHash rightHash) {
+        return hashOf(leftHash, rightHash, HasherProvider.getHasher());
+    }
+
+    /**
+     * Computes the hash of an internal node given the hashes of its children,
+     * following the rules described above, with the given hasher. Null hashes
+     * count as missing children.
+     */
+    public static MerkleHash hashOf(MerkleHash leftHash, MerkleHash rightHash, Hasher hasher) {
+        if (leftHash == null && rightHash == null) {
+            return null;
+        }
+
+        // If there's only one child, let it be called "leftHash" for implementation simplicity later.
+        if (leftHash == null) {
+            leftHash = rightHash;
+            rightHash = null;
+        }
+
+        if (rightHash == null) {
+            return hasher.hash(leftHash.toBytes());
+        }
+        return hasher.hashPair(leftHash, rightHash);
     }
 
     /**
@@ -48,24 +101,19 @@ public final class InternalNode implements MerkleNode {
         hash = concatenateHashes(leftChild, rightChild);
     }
 
-    private InternalNode(MerkleNode leftChild, MerkleNode rightChild) {
+    private InternalNode(MerkleNode leftChild, MerkleNode rightChild, Hasher hasher) {
+        this.hasher = hasher;
         hash = null;
         update(leftChild, rightChild);
     }
 
-    private MerkleHash concatenateHashes(MerkleNode leftChild, MerkleNode rightChild) {
-        if (leftChild == null && rightChild == null) {
-            return null;
-        }
-
-        // If there's only one child, let it be called "leftChild" for implementation simplicity later.
-        if (leftChild == null) {
-            leftChild = rightChild;
-            rightChild = null;
-        }
-
-        byte[] concatenatedHash = rightChild == null ? leftChild.getHash().toBytes() : leftChild.getHash().concat(rightChild.getHash());
-        return MerkleHash.fromData(concatenatedHash);
+    private InternalNode(MerkleHash hash, Hasher hasher) {
+        this.hasher = hasher;
+        this.hash = hash;
     }
 
+    private MerkleHash concatenateHashes(MerkleNode leftChild, MerkleNode rightChild) {
+        return hashOf(leftChild != null ? leftChild.getHash() : null, rightChild != null ? rightChild.getHash() : null,
+                hasher);
+    }
 }
@@ -3,6 +3,8 @@ package net.fsodre.merkle_tree.nodes;
 import java.io.IOException;
 import java.io.InputStream;
 
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.hashers.HasherProvider;
 import net.fsodre.merkle_tree.hashers.MerkleHash;
 
 /**
@@ -21,24 +23,51 @@ public class LeafNode implements MerkleNode {
 
     /**
      * Creates a leaf node by providing the data as an array of bytes to be
-     * hashed.
+     * hashed with the default hasher.
      */
     public static LeafNode fromData(byte[] bytes) {
-        return new LeafNode(bytes);
+        return fromData(bytes, HasherProvider.getHasher());
     }
 
     /**
-     * Creates a leaf node by providing the data as a String to be hashed.
+     * Creates a leaf node by providing the data as an array of bytes to be
+     * hashed with the given hasher, which should be the one of the tree the
+     * leaf is added to.
+     */
+    public static LeafNode fromData(byte[] bytes, Hasher hasher) {
+        return new LeafNode(MerkleHash.fromData(bytes, hasher));
+    }
+
+    /**
+     * Creates a leaf node by providing the data as a String to be hashed with
+     * the default hasher.
      */
     public static LeafNode fromData(String data) {
         return fromData(data.getBytes());
     }
 
     /**
-     * Creates a leaf node by providing the data read from a stream.
+     * Creates a leaf node by providing the data as a String to be hashed with
+     * the given hasher.
+     */
+    public static LeafNode fromData(String data, Hasher hasher) {
+        return fromData(data.getBytes(), hasher);
+    }
+
+    /**
+     * Creates a leaf node by providing the data read from a stream, hashed
+     * with the default hasher.
      */
     public static LeafNode fromStream(InputStream inputStream) throws IOException {
-        return new LeafNode(inputStream);
+        return fromStream(inputStream, HasherProvider.getHasher());
+    }
+
+    /**
+     * Creates a leaf node by providing the data read from a stream, hashed
+     * with the given hasher.
+     */
+    public static LeafNode fromStream(InputStream inputStream, Hasher hasher) throws IOException {
+        return new LeafNode(MerkleHash.fromStream(inputStream, hasher));
     }
 
     /**
@@ -49,11 +78,7 @@ public class LeafNode implements MerkleNode {
         return hash;
     }
 
-    private LeafNode(byte[] data) {
-        this.hash = MerkleHash.fromData(data);
-    }
-
-    private LeafNode(InputStream inputStream) throws IOException {
-        this.hash = MerkleHash.fromStream(inputStream);
+    private LeafNode(MerkleHash hash) {
+        this.hash = hash;
     }
 }
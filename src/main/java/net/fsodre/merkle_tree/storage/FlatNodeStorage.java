@@ -0,0 +1,235 @@
+package net.fsodre.merkle_tree.storage;
+
+import java.util.Arrays;
+
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+
+/**
+ * Stores each level as byte arrays of fixed-width hash slots. Levels are split
+ * into pages of `PAGE_NODES` nodes, so node `i` lives in page
+ * `i / PAGE_NODES`, at offset `(i % PAGE_NODES) * hashBytes`, and no array
+ * gets near the 2GB limit. Levels smaller than a page use a single page that
+ * grows with them. Whether a slot holds a hash is tracked by a bitmap per
+ * level.
+ *
+ * Compared to ListNodeStorage, this avoids the per-node objects (and pointer
+ * chasing) entirely: a node costs its hash bytes plus one bit.
+ */
+public final class FlatNodeStorage implements NodeStorage {
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_LEVEL_CAPACITY = 16;
+
+    /**
+     * Number of nodes of each full page.
+     */
+    static final int PAGE_NODES = 1 << 16;
+
+    // Number of bytes of each hash.
+    private final int hashBytes;
+
+    // Number of levels in use.
+    private int height;
+
+    // Number of nodes in each level.
+    private int[] sizes;
+
+    // Number of nodes of each full page. Always a power of two.
+    private final int pageNodes;
+
+    // Hash slots of each level, by page.
+    private byte[][][] hashes;
+
+    // Bitmap of the slots of each level that hold a hash.
+    private long[][] present;
+
+    /**
+     * Creates a storage for hashes with `hashBytes` bytes, containing only an
+     * empty bottom layer.
+     */
+    public FlatNodeStorage(int hashBytes) {
+        this(hashBytes, PAGE_NODES);
+    }
+
+    /**
+     * Same as `FlatNodeStorage(hashBytes)`, with pages of `pageNodes` nodes,
+     * which must be a power of two.
+     */
+    FlatNodeStorage(int hashBytes, int pageNodes) {
+        assert Integer.bitCount(pageNodes) == 1 : "Pages must have a power of two number of nodes";
+        this.hashBytes = hashBytes;
+        this.pageNodes = pageNodes;
+        this.height = 0;
+        this.sizes = new int[0];
+        this.hashes = new byte[0][][];
+        this.present = new long[0][];
+        addLevel();
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public int hashBytes() {
+        return hashBytes;
+    }
+
+    @Override
+    public int levelSize(int level) {
+        return level < height ? sizes[level] : 0;
+    }
+
+    @Override
+    public boolean has(int level, int index) {
+        assert index < levelSize(level) : "Reading a node that doesn't exist";
+        return (present[level][index >>> 6] & (1L << index)) != 0;
+    }
+
+    @Override
+    public MerkleHash get(int level, int index) {
+        if (!has(level, index)) {
+            return null;
+        }
+        return MerkleHash.fromHashCode(pageOf(level, index), offsetOf(index), hashBytes);
+    }
+
+    @Override
+    public boolean read(int level, int index, byte[] destination, int offset) {
+        if (!has(level, index)) {
+            return false;
+        }
+        System.arraycopy(pageOf(level, index), offsetOf(index), destination, offset, hashBytes);
+        return true;
+    }
+
+    @Override
+    public void write(int level, int index, byte[] source, int offset) {
+        assert index < levelSize(level) : "Writing a node that doesn't exist";
+        System.arraycopy(source, offset, pageOf(level, index), offsetOf(index), hashBytes);
+        present[level][index >>> 6] |= 1L << index;
+    }
+
+    @Override
+    public void set(int level, int index, MerkleHash hash) {
+        assert index < levelSize(level) : "Writing a node that doesn't exist";
+        if (hash == null) {
+            present[level][index >>> 6] &= ~(1L << index);
+            return;
+        }
+        assert hash.sizeInBytes() == hashBytes : "Storing a hash with an unexpected size";
+        hash.copyTo(pageOf(level, index), offsetOf(index));
+        present[level][index >>> 6] |= 1L << index;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException if the level already has
+     * `Integer.MAX_VALUE` nodes.
+     */
+    @Override
+    public void append(int level, MerkleHash hash) {
+        assert level <= height : "Appending to a level above the top one";
+        if (level == height) {
+            addLevel();
+        }
+        int index = sizes[level];
+        if (index == Integer.MAX_VALUE) {
+            throw new IllegalStateException("The level is full");
+        }
+        ensureCapacity(level, index + 1);
+        sizes[level]++;
+        set(level, index, hash);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Levels left with less than a quarter of their capacity in use give the
+     * rest of their memory back.
+     */
+    @Override
+    public void truncate(int level, int size) {
+        assert size <= levelSize(level) : "Truncating a level to more nodes than it has";
+        assert size > 0 || level == height - 1 : "Emptying a level below the top one";
+        if (size == 0 && level > 0) {
+            height--;
+            sizes = Arrays.copyOf(sizes, height);
+            hashes = Arrays.copyOf(hashes, height);
+            present = Arrays.copyOf(present, height);
+            return;
+        }
+
+        // Slots past the end are overwritten when appended again, but their presence bits must be cleared.
+        long[] bits = present[level];
+        int word = size >>> 6;
+        if (word < bits.length) {
+            bits[word] &= (1L << size) - 1;
+            Arrays.fill(bits, word + 1, bits.length, 0);
+        }
+        sizes[level] = size;
+
+        int capacity = capacity(level);
+        if (size < capacity / 4 && capacity > INITIAL_LEVEL_CAPACITY) {
+            resize(level, Math.max(INITIAL_LEVEL_CAPACITY, 2 * size));
+        }
+    }
+
+    private byte[] pageOf(int level, int index) {
+        return hashes[level][index / pageNodes];
+    }
+
+    private int offsetOf(int index) {
+        return (index & (pageNodes - 1)) * hashBytes;
+    }
+
+    private void addLevel() {
+        sizes = Arrays.copyOf(sizes, height + 1);
+        hashes = Arrays.copyOf(hashes, height + 1);
+        present = Arrays.copyOf(present, height + 1);
+        hashes[height] = new byte[][]{new byte[INITIAL_LEVEL_CAPACITY * hashBytes]};
+        present[height] = new long[(INITIAL_LEVEL_CAPACITY + 63) >>> 6];
+        height++;
+    }
+
+    /**
+     * Number of nodes a level has room for without allocating.
+     */
+    private int capacity(int level) {
+        byte[][] pages = hashes[level];
+        return pages.length == 1 ? pages[0].length / hashBytes : (int) Math.min((long) pages.length * pageNodes, Integer.MAX_VALUE);
+    }
+
+    private void ensureCapacity(int level, int nodeCount) {
+        int capacity = capacity(level);
+        if (nodeCount <= capacity) {
+            return;
+        }
+        // A level doubles while it fits in one page, and then grows one page at a time.
+        resize(level, capacity < pageNodes ? Math.max(nodeCount, 2 * capacity) : nodeCount);
+    }
+
+    /**
+     * Makes room for at least `nodeCount` nodes in a level, and at most a page
+     * more, keeping the first ones.
+     */
+    private void resize(int level, int nodeCount) {
+        byte[][] pages = hashes[level];
+        if (nodeCount <= pageNodes) {
+            hashes[level] = new byte[][]{Arrays.copyOf(pages[0], nodeCount * hashBytes)};
+        } else {
+            int pageCount = (int) ((nodeCount + (long) pageNodes - 1) / pageNodes);
+            byte[][] newPages = Arrays.copyOf(pages, pageCount);
+            if (pages[0].length < pageNodes * hashBytes) {
+                newPages[0] = Arrays.copyOf(pages[0], pageNodes * hashBytes);
+            }
+            for (int page = pages.length; page < pageCount; page++) {
+                newPages[page] = new byte[pageNodes * hashBytes];
+            }
+            hashes[level] = newPages;
+        }
+        present[level] = Arrays.copyOf(present[level], (int) ((capacity(level) + 63L) >>> 6));
+    }
+}
@@ -0,0 +1,285 @@
+package net.fsodre.merkle_tree.storage;
+
+import java.io.Serializable;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+import net.fsodre.merkle_tree.nodes.InternalNode;
+
+/**
+ * Wraps another storage, allowing some internal nodes to be added without a
+ * known hash. The hash of such nodes is computed from their children the first
+ * time it's needed, so that a tree can be used right after loading its leaves.
+ * The remaining nodes can then be computed in the background with
+ * `materialize`.
+ *
+ * All methods are synchronized, so the background computation can run while
+ * the tree is in use. Once all hashes are known, nodes are read and written
+ * straight from the wrapped storage without taking the lock, as long as it
+ * supports concurrent writes itself.
+ */
+public final class LazyNodeStorage implements NodeStorage {
+    private static final long serialVersionUID = 1L;
+
+    // Number of nodes computed by `materialize` each time it takes the lock.
+    private static final int MATERIALIZATION_CHUNK = 4096;
+
+    private final NodeStorage nodes;
+
+    // Hasher used to compute unknown nodes from their children.
+    private final Hasher hasher;
+
+    // Nodes whose hash isn't known yet, for the levels that have any.
+    private final Map<Integer, UnknownNodes> unknownNodes;
+
+    // Whether node accesses can go straight to the wrapped storage: all hashes are known and it handles concurrency.
+    private volatile boolean passThrough;
+
+    /**
+     * Positions of the nodes of a level whose hash isn't known yet.
+     */
+    private static final class UnknownNodes implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final BitSet positions = new BitSet();
+        private int count = 0;
+    }
+
+    /**
+     * Wraps `nodes`, whose current hashes are all known. Unknown nodes will be
+     * computed with `hasher`.
+     */
+    public LazyNodeStorage(NodeStorage nodes, Hasher hasher) {
+        this.nodes = nodes;
+        this.hasher = hasher;
+        this.unknownNodes = new HashMap<>();
+        this.passThrough = nodes.supportsConcurrentWrites();
+    }
+
+    /**
+     * Adds `count` nodes at the end of an internal level, whose hashes will be
+     * computed from their children when needed.
+     *
+     * @throws AssertionError if `level` is the bottom layer or above the
+     * current height.
+     */
+    public synchronized void appendUnknown(int level, int count) {
+        assert level > 0 : "Leaves can't be computed from other nodes";
+        passThrough = false;
+        UnknownNodes unknown = unknownNodes.computeIfAbsent(level, l -> new UnknownNodes());
+        int from = nodes.levelSize(level);
+        for (int i = 0; i < count; i++) {
+            nodes.append(level, null);
+        }
+        unknown.positions.set(from, from + count);
+        unknown.count += count;
+    }
+
+    /**
+     * Computes the hashes of all unknown nodes, from the bottom up.
+     */
+    public void materialize() {
+        for (int level = 1; level < height(); level++) {
+            for (int from = 0; from < levelSize(level); from += MATERIALIZATION_CHUNK) {
+                materialize(level, from, from + MATERIALIZATION_CHUNK);
+            }
+        }
+    }
+
+    /**
+     * Runs `materialize` using the given executor.
+     */
+    public CompletableFuture<Void> materializeAsync(Executor executor) {
+        return CompletableFuture.runAsync(this::materialize, executor);
+    }
+
+    /**
+     * Returns whether all hashes are known.
+     */
+    public boolean isMaterialized() {
+        if (passThrough) {
+            return true;
+        }
+        synchronized (this) {
+            return unknownNodes.isEmpty();
+        }
+    }
+
+    @Override
+    public int height() {
+        if (passThrough) {
+            return nodes.height();
+        }
+        synchronized (this) {
+            return nodes.height();
+        }
+    }
+
+    @Override
+    public int hashBytes() {
+        return nodes.hashBytes();
+    }
+
+    @Override
+    public int levelSize(int level) {
+        if (passThrough) {
+            return nodes.levelSize(level);
+        }
+        synchronized (this) {
+            return nodes.levelSize(level);
+        }
+    }
+
+    /**
+     * All accesses are synchronized, so any storage can be wrapped.
+     */
+    @Override
+    public boolean supportsConcurrentWrites() {
+        return true;
+    }
+
+    @Override
+    public boolean has(int level, int index) {
+        if (passThrough) {
+            return nodes.has(level, index);
+        }
+        synchronized (this) {
+            ensureKnown(level, index);
+            return nodes.has(level, index);
+        }
+    }
+
+    @Override
+    public MerkleHash get(int level, int index) {
+        if (passThrough) {
+            return nodes.get(level, index);
+        }
+        synchronized (this) {
+            ensureKnown(level, index);
+            return nodes.get(level, index);
+        }
+    }
+
+    @Override
+    public boolean read(int level, int index, byte[] destination, int offset) {
+        if (passThrough) {
+            return nodes.read(level, index, destination, offset);
+        }
+        synchronized (this) {
+            ensureKnown(level, index);
+            return nodes.read(level, index, destination, offset);
+        }
+    }
+
+    @Override
+    public void write(int level, int index, byte[] source, int offset) {
+        if (passThrough) {
+            nodes.write(level, index, source, offset);
+            return;
+        }
+        synchronized (this) {
+            nodes.write(level, index, source, offset);
+            markKnown(level, index);
+        }
+    }
+
+    @Override
+    public void set(int level, int index, MerkleHash hash) {
+        if (passThrough) {
+            nodes.set(level, index, hash);
+            return;
+        }
+        synchronized (this) {
+            nodes.set(level, index, hash);
+            markKnown(level, index);
+        }
+    }
+
+    @Override
+    public synchronized void append(int level, MerkleHash hash) {
+        nodes.append(level, hash);
+        markKnown(level, nodes.levelSize(level) - 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Removed nodes stop being unknown.
+     */
+    @Override
+    public synchronized void truncate(int level, int size) {
+        UnknownNodes unknown = unknownNodes.get(level);
+        if (unknown != null) {
+            int removed = unknown.positions.get(size, nodes.levelSize(level)).cardinality();
+            unknown.positions.clear(size, nodes.levelSize(level));
+            unknown.count -= removed;
+            if (unknown.count == 0) {
+                forgetLevel(level);
+            }
+        }
+        nodes.truncate(level, size);
+    }
+
+    @Override
+    public synchronized void flush() {
+        nodes.flush();
+    }
+
+    private synchronized void materialize(int level, int from, int to) {
+        for (int index = from; index < Math.min(to, nodes.levelSize(level)); index++) {
+            ensureKnown(level, index);
+        }
+    }
+
+    /**
+     * Computes the hash of a node if it isn't known yet. Its children are
+     * computed first, if needed.
+     */
+    private void ensureKnown(int level, int index) {
+        if (unknownNodes.isEmpty()) {
+            return;
+        }
+        UnknownNodes unknown = unknownNodes.get(level);
+        if (unknown == null || !unknown.positions.get(index)) {
+            return;
+        }
+        int childLevel = level - 1;
+        nodes.set(level, index, InternalNode.hashOf(getChild(childLevel, 2 * index), getChild(childLevel, 2 * index + 1),
+                hasher));
+        markKnown(level, index);
+    }
+
+    private MerkleHash getChild(int level, int index) {
+        return index < nodes.levelSize(level) ? get(level, index) : null;
+    }
+
+    private void markKnown(int level, int index) {
+        if (unknownNodes.isEmpty()) {
+            return;
+        }
+        UnknownNodes unknown = unknownNodes.get(level);
+        if (unknown == null || !unknown.positions.get(index)) {
+            return;
+        }
+        unknown.positions.clear(index);
+        if (--unknown.count == 0) {
+            forgetLevel(level);
+        }
+    }
+
+    /**
+     * Stops tracking a level without unknown nodes left, and lets accesses
+     * skip the lock once there are none at all.
+     */
+    private void forgetLevel(int level) {
+        unknownNodes.remove(level);
+        if (unknownNodes.isEmpty()) {
+            passThrough = nodes.supportsConcurrentWrites();
+        }
+    }
+}
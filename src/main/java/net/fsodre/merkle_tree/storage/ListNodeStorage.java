@@ -0,0 +1,85 @@
+package net.fsodre.merkle_tree.storage;
+
+import java.util.ArrayList;
+
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+
+/**
+ * Stores each level as a list of MerkleHash objects. Simple and flexible, but
+ * every hash costs a couple of objects on top of its bytes.
+ */
+public final class ListNodeStorage implements NodeStorage {
+    private static final long serialVersionUID = 1L;
+
+    // Number of bytes of each hash.
+    private final int hashBytes;
+
+    // All hashes in the tree. The bottom layer is levels[0].
+    private final ArrayList<ArrayList<MerkleHash>> levels;
+
+    /**
+     * Creates a storage for hashes with `hashBytes` bytes, containing only an
+     * empty bottom layer.
+     */
+    public ListNodeStorage(int hashBytes) {
+        this.hashBytes = hashBytes;
+        levels = new ArrayList<>();
+        levels.add(new ArrayList<>());
+    }
+
+    @Override
+    public int height() {
+        return levels.size();
+    }
+
+    @Override
+    public int hashBytes() {
+        return hashBytes;
+    }
+
+    @Override
+    public int levelSize(int level) {
+        return level < levels.size() ? levels.get(level).size() : 0;
+    }
+
+    /**
+     * Each node is a separate list element, so different nodes can be written
+     * concurrently.
+     */
+    @Override
+    public boolean supportsConcurrentWrites() {
+        return true;
+    }
+
+    @Override
+    public MerkleHash get(int level, int index) {
+        assert index < levelSize(level) : "Reading a node that doesn't exist";
+        return levels.get(level).get(index);
+    }
+
+    @Override
+    public void set(int level, int index, MerkleHash hash) {
+        assert index < levelSize(level) : "Writing a node that doesn't exist";
+        levels.get(level).set(index, hash);
+    }
+
+    @Override
+    public void append(int level, MerkleHash hash) {
+        assert level <= levels.size() : "Appending to a level above the top one";
+        if (level == levels.size()) {
+            levels.add(new ArrayList<>());
+        }
+        levels.get(level).add(hash);
+    }
+
+    @Override
+    public void truncate(int level, int size) {
+        assert size <= levelSize(level) : "Truncating a level to more nodes than it has";
+        assert size > 0 || level == levels.size() - 1 : "Emptying a level below the top one";
+        ArrayList<MerkleHash> hashes = levels.get(level);
+        hashes.subList(size, hashes.size()).clear();
+        if (size == 0 && level > 0) {
+            levels.remove(level);
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package net.fsodre.merkle_tree.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+
+/**
+ * Stores the nodes of a tree, as well as the table of its leaf index, in a
+ * memory-mapped file. Changes are written in place, so reopening the file
+ * gives back the tree without rebuilding anything. Use `flush()` to force the
+ * changes to disk and `close()` when done.
+ *
+ * The file is created for a maximum number of leaves, and the space for all
+ * levels is reserved upfront (as a sparse file on most file systems). Its
+ * layout is:
+ *
+ * - A header with the format version, hash size, leaf capacity, number of
+ * levels in use, number of entries in the leaf index, the size of each level
+ * and the hasher id (its class name).
+ * - For each level: a bitmap of the nodes that hold a hash, followed by
+ * fixed-width hash slots.
+ * - The number of empty leaves, followed by a bitmap of their positions, so
+ * that they don't need to be looked for when the file is reopened.
+ * - The table of the leaf index (see LeafIndex).
+ *
+ * Each region is mapped separately. The hash slots and the leaf index table
+ * are mapped in chunks of at most `MAX_CHUNK_BYTES`, each one holding a power
+ * of two number of slots, so a region can be larger than the 2GB a single
+ * mapping is limited to.
+ */
+public final class MappedNodeStorage implements NodeStorage, Closeable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int MAGIC = 0x4d4b5446; // "MKTF"
+    private static final int VERSION = 3;
+    private static final int MAX_LEVELS = 64;
+    private static final int MAX_CHUNK_BYTES = 1 << 30;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int HASH_BYTES_OFFSET = 8;
+    private static final int LEAF_CAPACITY_OFFSET = 12;
+    private static final int HEIGHT_OFFSET = 16;
+    private static final int LEAF_INDEX_SIZE_OFFSET = 20;
+    private static final int LEVEL_SIZES_OFFSET = 24;
+    private static final int HASHER_ID_OFFSET = LEVEL_SIZES_OFFSET + MAX_LEVELS * Integer.BYTES;
+    private static final int HEADER_BYTES = 4096;
+    private static final int MAX_HASHER_ID_BYTES = HEADER_BYTES - HASHER_ID_OFFSET - Integer.BYTES;
+
+    private final transient FileChannel channel;
+    private final transient int hashBytes;
+    private final transient String hasherId;
+    private final transient int[] levelCapacities;
+    private final transient MappedByteBuffer header;
+    private final transient List<MappedByteBuffer> presentBitmaps;
+    private final transient MappedByteBuffer emptyLeaves;
+    private final transient MappedByteBuffer[] leafIndexTable;
+
+    // Hash slots of each level, by chunk, `1 << chunkShift` slots in each chunk.
+    private final transient List<MappedByteBuffer[]> levelHashes;
+    private final transient int chunkShift;
+
+    /**
+     * Opens the tree file at `path`, creating it if it doesn't exist, for a
+     * tree hashed with `hasher`.
+     *
+     * @throws IOException upon issues accessing the file, or if the existing
+     * file wasn't created with the same hasher and leaf capacity.
+     * @throws IllegalArgumentException if the leaf capacity isn't positive.
+     */
+    public static MappedNodeStorage open(Path path, Hasher hasher, int leafCapacity) throws IOException {
+        return open(path, hasher, leafCapacity, MAX_CHUNK_BYTES);
+    }
+
+    /**
+     * Same as `open(path, hasher, leafCapacity)`, mapping regions in chunks
+     * of at most `maxChunkBytes` bytes.
+     */
+    static MappedNodeStorage open(Path path, Hasher hasher, int leafCapacity, int maxChunkBytes) throws IOException {
+        boolean exists = Files.exists(path) && Files.size(path) > 0;
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return new MappedNodeStorage(channel, hasher, leafCapacity, maxChunkBytes, !exists);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private MappedNodeStorage(FileChannel channel, Hasher hasher, int leafCapacity, int maxChunkBytes, boolean create)
+            throws IOException {
+        if (leafCapacity < 1) {
+            throw new IllegalArgumentException("The leaf capacity must be positive");
+        }
+        this.channel = channel;
+        this.hashBytes = hasher.outputBitsCount() / 8;
+        this.hasherId = hasher.getClass().getName();
+        byte[] hasherIdBytes = hasherId.getBytes(StandardCharsets.UTF_8);
+        if (hasherIdBytes.length > MAX_HASHER_ID_BYTES) {
+            throw new IllegalArgumentException("The hasher id doesn't fit in the header");
+        }
+        this.levelCapacities = computeLevelCapacities(leafCapacity);
+
+        long position = 0;
+        header = map(position, HEADER_BYTES);
+        position += HEADER_BYTES;
+
+        presentBitmaps = new ArrayList<>();
+        levelHashes = new ArrayList<>();
+        chunkShift = Integer.numberOfTrailingZeros(Integer.highestOneBit(maxChunkBytes / hashBytes));
+        for (int capacity : levelCapacities) {
+            int bitmapBytes = bitmapBytes(capacity);
+            presentBitmaps.add(map(position, bitmapBytes));
+            position += bitmapBytes;
+            MappedByteBuffer[] chunks = mapChunks(position, capacity, hashBytes, 1 << chunkShift);
+            levelHashes.add(chunks);
+            position += (long) capacity * hashBytes;
+        }
+
+        int emptyLeavesBytes = Long.BYTES + bitmapBytes(leafCapacity);
+        emptyLeaves = map(position, emptyLeavesBytes);
+        position += emptyLeavesBytes;
+
+        int slotBytes = hashBytes + Integer.BYTES;
+        long leafIndexSlots = Long.highestOneBit(Math.max(1, 4L * leafCapacity / 3)) * 2;
+        leafIndexTable = mapChunks(position, leafIndexSlots, slotBytes, Integer.highestOneBit(maxChunkBytes / slotBytes));
+
+        if (create) {
+            header.putInt(MAGIC_OFFSET, MAGIC);
+            header.putInt(VERSION_OFFSET, VERSION);
+            header.putInt(HASH_BYTES_OFFSET, hashBytes);
+            header.putInt(LEAF_CAPACITY_OFFSET, leafCapacity);
+            header.putInt(HEIGHT_OFFSET, 1);
+            header.putInt(HASHER_ID_OFFSET, hasherIdBytes.length);
+            for (int i = 0; i < hasherIdBytes.length; i++) {
+                header.put(HASHER_ID_OFFSET + Integer.BYTES + i, hasherIdBytes[i]);
+            }
+        } else if (header.getInt(MAGIC_OFFSET) != MAGIC || header.getInt(VERSION_OFFSET) != VERSION) {
+            throw new IOException("Not a tree file, or one with an unsupported version");
+        } else if (!hasherId.equals(storedHasherId())) {
+            throw new IOException("The tree file was created with hasher " + storedHasherId());
+        } else if (header.getInt(HASH_BYTES_OFFSET) != hashBytes || header.getInt(LEAF_CAPACITY_OFFSET) != leafCapacity) {
+            throw new IOException("The tree file was created with a different hash size or leaf capacity");
+        }
+    }
+
+    /**
+     * Reads the hasher id from the header, or returns null if its length is
+     * out of range.
+     */
+    private String storedHasherId() {
+        int length = header.getInt(HASHER_ID_OFFSET);
+        if (length < 0 || length > MAX_HASHER_ID_BYTES) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = header.get(HASHER_ID_OFFSET + Integer.BYTES + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the id (class name) of the hasher the file was created for.
+     */
+    public String hasherId() {
+        return hasherId;
+    }
+
+    /**
+     * Returns the regions of the file reserved for the table of the leaf
+     * index, one for each of its segments. There's a power of two number of
+     * them, each one with the same power of two number of index slots.
+     */
+    public ByteBuffer[] leafIndexTable() {
+        return leafIndexTable.clone();
+    }
+
+    /**
+     * Returns the region of the header holding the number of entries of the
+     * leaf index, as an int, so that it doesn't need to be counted when the
+     * file is reopened.
+     */
+    public ByteBuffer leafIndexSize() {
+        ByteBuffer size = header.duplicate();
+        size.position(LEAF_INDEX_SIZE_OFFSET);
+        size.limit(LEAF_INDEX_SIZE_OFFSET + Integer.BYTES);
+        return size.slice();
+    }
+
+    /**
+     * Returns the region of the file reserved for the empty leaves: their
+     * number as a long, followed by a bitmap of their positions.
+     */
+    public ByteBuffer emptyLeaves() {
+        return emptyLeaves;
+    }
+
+    @Override
+    public int height() {
+        return header.getInt(HEIGHT_OFFSET);
+    }
+
+    @Override
+    public int hashBytes() {
+        return hashBytes;
+    }
+
+    @Override
+    public int levelSize(int level) {
+        return level < height() ? header.getInt(LEVEL_SIZES_OFFSET + level * Integer.BYTES) : 0;
+    }
+
+    @Override
+    public boolean has(int level, int index) {
+        assert index < levelSize(level) : "Reading a node that doesn't exist";
+        return (presentBitmaps.get(level).getLong((index >>> 6) * Long.BYTES) & (1L << index)) != 0;
+    }
+
+    @Override
+    public MerkleHash get(int level, int index) {
+        if (!has(level, index)) {
+            return null;
+        }
+        ByteBuffer hashes = chunkOf(level, index);
+        int start = offsetOf(index);
+        byte[] bytes = new byte[hashBytes];
+        for (int i = 0; i < hashBytes; i++) {
+            bytes[i] = hashes.get(start + i);
+        }
+        return MerkleHash.fromHashCode(bytes, hashBytes);
+    }
+
+    @Override
+    public boolean read(int level, int index, byte[] destination, int offset) {
+        if (!has(level, index)) {
+            return false;
+        }
+        ByteBuffer hashes = chunkOf(level, index);
+        int start = offsetOf(index);
+        for (int i = 0; i < hashBytes; i++) {
+            destination[offset + i] = hashes.get(start + i);
+        }
+        return true;
+    }
+
+    @Override
+    public void write(int level, int index, byte[] source, int offset) {
+        assert index < levelSize(level) : "Writing a node that doesn't exist";
+        ByteBuffer hashes = chunkOf(level, index);
+        int start = offsetOf(index);
+        for (int i = 0; i < hashBytes; i++) {
+            hashes.put(start + i, source[offset + i]);
+        }
+        markPresent(level, index);
+    }
+
+    @Override
+    public void set(int level, int index, MerkleHash hash) {
+        assert index < levelSize(level) : "Writing a node that doesn't exist";
+        ByteBuffer bitmap = presentBitmaps.get(level);
+        int wordOffset = (index >>> 6) * Long.BYTES;
+        if (hash == null) {
+            bitmap.putLong(wordOffset, bitmap.getLong(wordOffset) & ~(1L << index));
+            return;
+        }
+        hash.writeTo(chunkOf(level, index), offsetOf(index));
+        markPresent(level, index);
+    }
+
+    private ByteBuffer chunkOf(int level, int index) {
+        return levelHashes.get(level)[index >>> chunkShift];
+    }
+
+    private int offsetOf(int index) {
+        return (index & ((1 << chunkShift) - 1)) * hashBytes;
+    }
+
+    private void markPresent(int level, int index) {
+        ByteBuffer bitmap = presentBitmaps.get(level);
+        int wordOffset = (index >>> 6) * Long.BYTES;
+        bitmap.putLong(wordOffset, bitmap.getLong(wordOffset) | (1L << index));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException if the level is already at its capacity,
+     * which is derived from the leaf capacity of the file.
+     */
+    @Override
+    public void append(int level, MerkleHash hash) {
+        int height = height();
+        assert level <= height : "Appending to a level above the top one";
+        if (level == levelCapacities.length || levelSize(level) == levelCapacities[level]) {
+            throw new IllegalStateException("The tree file is full");
+        }
+        if (level == height) {
+            header.putInt(HEIGHT_OFFSET, height + 1);
+        }
+        int index = levelSize(level);
+        header.putInt(LEVEL_SIZES_OFFSET + level * Integer.BYTES, index + 1);
+        set(level, index, hash);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The file keeps its size, so the space of the removed nodes is reused
+     * when the tree grows again.
+     */
+    @Override
+    public void truncate(int level, int size) {
+        int height = height();
+        assert size <= levelSize(level) : "Truncating a level to more nodes than it has";
+        assert size > 0 || level == height - 1 : "Emptying a level below the top one";
+        header.putInt(LEVEL_SIZES_OFFSET + level * Integer.BYTES, size);
+        if (size == 0 && level > 0) {
+            header.putInt(HEIGHT_OFFSET, height - 1);
+        }
+    }
+
+    /**
+     * Forces all changes to be written to the file.
+     */
+    @Override
+    public void flush() {
+        header.force();
+        for (int level = 0; level < levelCapacities.length; level++) {
+            presentBitmaps.get(level).force();
+            for (MappedByteBuffer chunk : levelHashes.get(level)) {
+                chunk.force();
+            }
+        }
+        emptyLeaves.force();
+        for (MappedByteBuffer chunk : leafIndexTable) {
+            chunk.force();
+        }
+    }
+
+    /**
+     * Flushes the changes and closes the file. The storage can't be used
+     * afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    private MappedByteBuffer map(long position, int size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+    }
+
+    /**
+     * Maps a region of `slots` slots of `slotBytes` bytes each, in chunks of
+     * at most `chunkSlots` slots. Regions smaller than a chunk are mapped as a
+     * single one with all their slots.
+     */
+    private MappedByteBuffer[] mapChunks(long position, long slots, int slotBytes, int chunkSlots) throws IOException {
+        MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((slots + chunkSlots - 1) / chunkSlots)];
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            long chunkStart = (long) chunk * chunkSlots;
+            int bytes = (int) (Math.min(chunkSlots, slots - chunkStart) * slotBytes);
+            chunks[chunk] = map(position + chunkStart * slotBytes, bytes);
+        }
+        return chunks;
+    }
+
+    private static int bitmapBytes(int bits) {
+        return (int) (((bits + 63L) >>> 6) * Long.BYTES);
+    }
+
+    /**
+     * Maximum size of each level, given the maximum number of leaves. Like in
+     * the tree itself, there's always at least one level above the leaves.
+     */
+    private static int[] computeLevelCapacities(int leafCapacity) {
+        List<Integer> capacities = new ArrayList<>();
+        capacities.add(leafCapacity);
+        do {
+            capacities.add((capacities.get(capacities.size() - 1) + 1) / 2);
+        } while (capacities.get(capacities.size() - 1) > 1);
+        assert capacities.size() <= MAX_LEVELS;
+        return capacities.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        throw new NotSerializableException("Mapped trees are persisted by their file");
+    }
+}
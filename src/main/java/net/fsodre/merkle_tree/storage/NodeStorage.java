@@ -0,0 +1,125 @@
+package net.fsodre.merkle_tree.storage;
+
+import java.io.Serializable;
+
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+
+/**
+ * Keeps the hashes of the nodes of a Merkle tree, level by level. Level 0 is
+ * the bottom layer (leaves) and each level above holds the parents of the one
+ * below it, so that the children of node `i` at level `l` are nodes `2i` and
+ * `2i + 1` at level `l - 1`.
+ *
+ * Nodes without a hash (empty leaves and internal nodes with no leaves below
+ * them) are represented by null.
+ */
+public interface NodeStorage extends Serializable {
+
+    /**
+     * Creates the storage of a tree whose hashes have `hashBytes` bytes.
+     */
+    @FunctionalInterface
+    interface Factory {
+        NodeStorage create(int hashBytes);
+    }
+
+    /**
+     * Number of levels currently stored. Empty storages still have a bottom
+     * layer, so this is at least 1.
+     */
+    int height();
+
+    /**
+     * Number of bytes of each hash.
+     */
+    int hashBytes();
+
+    /**
+     * Number of nodes in a level, or 0 if the level doesn't exist.
+     */
+    int levelSize(int level);
+
+    /**
+     * Returns whether a node has a hash.
+     *
+     * @throws AssertionError if the node doesn't exist.
+     */
+    default boolean has(int level, int index) {
+        return get(level, index) != null;
+    }
+
+    /**
+     * Returns the hash of a node, or null if it has none.
+     *
+     * @throws AssertionError if the node doesn't exist.
+     */
+    MerkleHash get(int level, int index);
+
+    /**
+     * Copies the bytes of the hash of a node into `destination`, starting at
+     * `offset`. Returns false, leaving `destination` untouched, if the node
+     * has no hash.
+     *
+     * @throws AssertionError if the node doesn't exist.
+     */
+    default boolean read(int level, int index, byte[] destination, int offset) {
+        MerkleHash hash = get(level, index);
+        if (hash == null) {
+            return false;
+        }
+        hash.copyTo(destination, offset);
+        return true;
+    }
+
+    /**
+     * Replaces the hash of an existing node by the hash whose bytes are in
+     * `source`, starting at `offset`.
+     *
+     * @throws AssertionError if the node doesn't exist.
+     */
+    default void write(int level, int index, byte[] source, int offset) {
+        set(level, index, MerkleHash.fromHashCode(source, offset, hashBytes()));
+    }
+
+    /**
+     * Replaces the hash of an existing node.
+     *
+     * @throws AssertionError if the node doesn't exist.
+     */
+    void set(int level, int index, MerkleHash hash);
+
+    /**
+     * Adds a node at the end of a level. If `level` is equal to the current
+     * height, a new level is created on top of the others.
+     *
+     * @throws AssertionError if `level` is above the current height.
+     */
+    void append(int level, MerkleHash hash);
+
+    /**
+     * Removes the nodes at the end of a level, keeping its first `size`
+     * nodes. Truncating the top level to no nodes removes the level, unless
+     * it's the bottom layer.
+     *
+     * @throws AssertionError if the level has fewer nodes than `size`, or if
+     * a level other than the top one is left without nodes.
+     */
+    void truncate(int level, int size);
+
+    /**
+     * Returns whether different nodes can be written by different threads at
+     * the same time, as long as each node is only accessed by one of them.
+     * Storages that pack the state of several nodes together (like presence
+     * bitmaps) can't.
+     */
+    default boolean supportsConcurrentWrites() {
+        return false;
+    }
+
+    /**
+     * Makes sure all changes reach durable storage. Does nothing for storages
+     * that only live in memory.
+     */
+    default void flush() {
+    }
+}
@@ -0,0 +1,137 @@
+package net.fsodre.merkle_tree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.hashers.HasherProvider;
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+import net.fsodre.merkle_tree.hashers.Sha512256Hasher;
+import net.fsodre.merkle_tree.nodes.LeafNode;
+import net.fsodre.merkle_tree.utils.SerializationUtils;
+import net.fsodre.merkle_tree.utils.TestHasher;
+
+public class CompactProofTest {
+
+    private MerkleTree tree;
+    private LeafNode leafA;
+    private LeafNode leafC;
+    private LeafNode leafE;
+
+    @BeforeAll
+    public static void setUpSuite() {
+        HasherProvider.setHasher(new TestHasher());
+    }
+
+    @BeforeEach
+    public void setUp() {
+        tree = new MerkleTree();
+        leafA = LeafNode.fromData(new byte[]{0xa});
+        leafC = LeafNode.fromData(new byte[]{0xc});
+        leafE = LeafNode.fromData(new byte[]{0xe});
+        tree.addLeaf(leafA);
+        int posB = tree.addLeaf(LeafNode.fromData(new byte[]{0xb}));
+        tree.addLeaf(leafC);
+        tree.addLeaf(LeafNode.fromData(new byte[]{0xd}));
+        tree.addLeaf(leafE);
+        tree.removeLeafAt(posB);
+    }
+
+    @Test
+    public void testProofsOfAllLeaves() throws Exception {
+        MerkleHash root = tree.getRoot().getHash();
+
+        for (LeafNode leaf : new LeafNode[]{leafA, leafC, leafE}) {
+            CompactProof proof = tree.buildCompactProof(leaf.getHash());
+            byte[] scratch = new byte[proof.scratchBytes()];
+
+            assertEquals(3, proof.depth());
+            assertTrue(proof.verify(leaf.getHash(), root, scratch));
+            assertTrue(tree.buildExistenceProof(leaf.getHash()).validate(leaf.getHash(), root));
+        }
+    }
+
+    @Test
+    public void testProofOfSingleLeaf() throws Exception {
+        MerkleTree singleLeafTree = new MerkleTree();
+        singleLeafTree.addLeaf(leafA);
+
+        CompactProof proof = singleLeafTree.buildCompactProof(leafA.getHash());
+
+        assertTrue(proof.verify(leafA.getHash(), singleLeafTree.getRoot().getHash(), new byte[proof.scratchBytes()]));
+    }
+
+    @Test
+    public void testProofForWrongLeafOrRoot() throws Exception {
+        CompactProof proof = tree.buildCompactProof(leafA.getHash());
+        byte[] scratch = new byte[proof.scratchBytes()];
+
+        assertFalse(proof.verify(leafC.getHash(), tree.getRoot().getHash(), scratch));
+        assertFalse(proof.verify(leafA.getHash(), leafC.getHash(), scratch));
+    }
+
+    @Test
+    public void testProofForNonExistingLeaf() throws Exception {
+        assertNull(tree.buildCompactProof(LeafNode.fromData(new byte[]{0xb}).getHash()));
+        assertFalse(tree.buildCompactProof(LeafNode.fromData(new byte[]{0xb}).getHash(), new CompactProof()));
+    }
+
+    @Test
+    public void testEmptyProofIsInvalid() throws Exception {
+        CompactProof proof = new CompactProof();
+
+        assertFalse(proof.verify(leafA.getHash(), leafA.getHash(), new byte[0]));
+    }
+
+    @Test
+    public void testVerifyFromByteArrays() throws Exception {
+        CompactProof proof = tree.buildCompactProof(leafC.getHash());
+        int hashBytes = tree.getHasher().outputBitsCount() / 8;
+        byte[] hashes = new byte[1 + 2 * hashBytes];
+        leafC.getHash().copyTo(hashes, 1);
+        tree.getRoot().getHash().copyTo(hashes, 1 + hashBytes);
+
+        assertTrue(proof.verify(hashes, 1, hashes, 1 + hashBytes, new byte[proof.scratchBytes()]));
+        assertFalse(proof.verify(hashes, 1 + hashBytes, hashes, 1 + hashBytes, new byte[proof.scratchBytes()]));
+    }
+
+    @Test
+    public void testProofReuse() throws Exception {
+        Hasher sha = new Sha512256Hasher();
+        List<LeafNode> leaves = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            leaves.add(LeafNode.fromData("leaf " + i, sha));
+        }
+        MerkleTree bigTree = MerkleTree.builder().hasher(sha).buildFrom(leaves);
+        MerkleHash root = bigTree.getRoot().getHash();
+        CompactProof proof = new CompactProof();
+        byte[] scratch = new byte[64];
+
+        for (int i = 0; i < leaves.size(); i += 37) {
+            assertTrue(bigTree.buildCompactProof(leaves.get(i).getHash(), proof));
+            assertTrue(proof.verify(leaves.get(i).getHash(), root, scratch));
+        }
+
+        // Reused for a smaller tree with another hasher.
+        assertTrue(tree.buildCompactProof(leafE.getHash(), proof));
+        assertTrue(proof.verify(leafE.getHash(), tree.getRoot().getHash(), scratch));
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        CompactProof proof = tree.buildCompactProof(leafE.getHash());
+
+        CompactProof newProof = SerializationUtils.serializeAndBack(proof);
+
+        assertTrue(newProof.verify(leafE.getHash(), tree.getRoot().getHash(), new byte[newProof.scratchBytes()]));
+    }
+}
@@ -0,0 +1,94 @@
+package net.fsodre.merkle_tree;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import net.fsodre.merkle_tree.utils.SerializationUtils;
+
+public class FreeLeafSlotsTest {
+
+    @Test
+    public void testReusesInInsertionOrder() throws Exception {
+        FreeLeafSlots slots = new FreeLeafSlots(false);
+        slots.add(7);
+        slots.add(2);
+        slots.add(7);
+        slots.add(130);
+
+        assertEquals(3, slots.size());
+        assertArrayEquals(new int[]{7, 2, 130}, slots.toArray());
+        assertEquals(7, slots.poll());
+        assertEquals(2, slots.poll());
+        assertEquals(130, slots.poll());
+        assertTrue(slots.isEmpty());
+    }
+
+    @Test
+    public void testReusesLowestFirst() throws Exception {
+        FreeLeafSlots slots = new FreeLeafSlots(true);
+        slots.add(200);
+        slots.add(65);
+        slots.add(3);
+
+        assertEquals(3, slots.poll());
+        slots.add(1);
+        assertArrayEquals(new int[]{1, 65, 200}, slots.toArray());
+        assertEquals(1, slots.poll());
+        assertEquals(65, slots.poll());
+        assertEquals(200, slots.poll());
+        assertTrue(slots.isEmpty());
+    }
+
+    @Test
+    public void testRemovedSlotsAreSkipped() throws Exception {
+        FreeLeafSlots slots = new FreeLeafSlots(false);
+        slots.add(1);
+        slots.add(2);
+        slots.add(3);
+
+        slots.remove(2);
+        slots.remove(5);
+
+        assertFalse(slots.contains(2));
+        assertEquals(2, slots.size());
+        assertEquals(1, slots.poll());
+        assertEquals(3, slots.poll());
+        assertTrue(slots.isEmpty());
+    }
+
+    @Test
+    public void testChurnMatchesQueue() throws Exception {
+        // Positions removed and added back may be reused earlier than a queue would, so only the contents are compared.
+        ArrayDeque<Integer> expected = new ArrayDeque<>();
+        FreeLeafSlots slots = new FreeLeafSlots(false);
+        Random random = new Random(21);
+
+        for (int i = 0; i < 20000; i++) {
+            int index = random.nextInt(300);
+            int operation = random.nextInt(3);
+            if (operation == 0) {
+                if (!expected.contains(index)) {
+                    expected.addLast(index);
+                }
+                slots.add(index);
+            } else if (operation == 1) {
+                expected.remove(index);
+                slots.remove(index);
+            } else if (!expected.isEmpty()) {
+                int taken = slots.poll();
+                assertTrue(expected.remove(taken));
+            }
+            assertEquals(expected.size(), slots.size());
+        }
+
+        FreeLeafSlots copy = SerializationUtils.serializeAndBack(slots);
+        assertArrayEquals(slots.toArray(), copy.toArray());
+    }
+}
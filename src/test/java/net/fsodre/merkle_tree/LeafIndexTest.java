@@ -0,0 +1,179 @@
+package net.fsodre.merkle_tree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+import net.fsodre.merkle_tree.hashers.Sha512256Hasher;
+import net.fsodre.merkle_tree.utils.SerializationUtils;
+
+public class LeafIndexTest {
+
+    private final Sha512256Hasher hasher = new Sha512256Hasher();
+
+    @Test
+    public void testPutAndGet() throws Exception {
+        LeafIndex index = new LeafIndex(32);
+        MerkleHash hash = hasher.hash(new byte[]{0xa});
+
+        index.put(hash, 0);
+
+        assertEquals(0, index.get(hash));
+        assertEquals(0, index.get(hasher.hash(new byte[]{0xa})));
+        assertEquals(-1, index.get(hasher.hash(new byte[]{0xb})));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testPutReplacesPosition() throws Exception {
+        LeafIndex index = new LeafIndex(32);
+        MerkleHash hash = hasher.hash(new byte[]{0xa});
+
+        index.put(hash, 0);
+        index.put(hash, 7);
+
+        assertEquals(7, index.get(hash));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        LeafIndex index = new LeafIndex(32);
+        MerkleHash hash = hasher.hash(new byte[]{0xa});
+        index.put(hash, 3);
+
+        assertFalse(index.remove(hash, 4));
+        assertEquals(3, index.remove(hash));
+        assertEquals(-1, index.get(hash));
+        assertEquals(-1, index.remove(hash));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testRemoveFromBytes() throws Exception {
+        LeafIndex index = new LeafIndex(32);
+        MerkleHash hash = hasher.hash(new byte[]{0xa});
+        index.put(hash, 3);
+        index.put(hasher.hash(new byte[]{0xb}), 4);
+        byte[] bytes = new byte[40];
+        hash.copyTo(bytes, 8);
+
+        assertFalse(index.remove(bytes, 8, 4));
+        assertFalse(index.remove(bytes, 0, 3));
+        assertTrue(index.remove(bytes, 8, 3));
+        assertEquals(-1, index.get(hash));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testRandomOperationsMatchHashMap() throws Exception {
+        for (boolean offHeap : new boolean[]{false, true}) {
+            LeafIndex index = new LeafIndex(32, offHeap);
+            Map<MerkleHash, Integer> expected = new HashMap<>();
+            List<MerkleHash> keys = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                keys.add(hasher.hash(String.valueOf(i).getBytes()));
+            }
+
+            Random random = new Random(42);
+            for (int i = 0; i < 20000; i++) {
+                MerkleHash key = keys.get(random.nextInt(keys.size()));
+                if (random.nextInt(3) == 0) {
+                    assertEquals(expected.getOrDefault(key, -1).intValue(), index.remove(key));
+                    expected.remove(key);
+                } else {
+                    index.put(key, i);
+                    expected.put(key, i);
+                }
+            }
+
+            assertEquals(expected.size(), index.size());
+            for (MerkleHash key : keys) {
+                assertEquals(expected.getOrDefault(key, -1).intValue(), index.get(key));
+            }
+        }
+    }
+
+    @Test
+    public void testSmallSegments() throws Exception {
+        LeafIndex index = new LeafIndex(32, false, 4);
+        for (int i = 0; i < 1000; i++) {
+            index.put(hasher.hash(String.valueOf(i).getBytes()), i);
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            assertEquals(i, index.remove(hasher.hash(String.valueOf(i).getBytes())));
+        }
+
+        assertEquals(2048 / 4, index.segmentCount());
+        assertEquals(500, index.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 2 == 0 ? -1 : i, index.get(hasher.hash(String.valueOf(i).getBytes())));
+        }
+        assertEquals(500, SerializationUtils.serializeAndBack(index).size());
+    }
+
+    @Test
+    public void testSegmentArithmetic() throws Exception {
+        LeafIndex index = new LeafIndex(32, false, 4);
+        for (int i = 0; i < 12; i++) {
+            index.put(hasher.hash(String.valueOf(i).getBytes()), i);
+        }
+
+        // 16 slots in 4 segments of 4 slots with 36 bytes each.
+        assertEquals(4, index.segmentCount());
+        assertSame(index.segmentOf(0), index.segmentOf(3));
+        assertNotSame(index.segmentOf(3), index.segmentOf(4));
+        assertEquals(0, index.offsetOf(4));
+        assertEquals(3 * 36, index.offsetOf(15));
+    }
+
+    @Test
+    public void testFixedSegments() throws Exception {
+        ByteBuffer[] segments = {ByteBuffer.allocate(8 * 36), ByteBuffer.allocate(8 * 36)};
+        ByteBuffer size = ByteBuffer.allocate(Integer.BYTES);
+        LeafIndex index = new LeafIndex(32, size, segments);
+        for (int i = 0; i < 12; i++) {
+            index.put(hasher.hash(String.valueOf(i).getBytes()), i);
+        }
+
+        assertThrows(IllegalStateException.class, () -> index.put(hasher.hash("12".getBytes()), 12));
+
+        index.remove(hasher.hash("11".getBytes()));
+        assertEquals(11, size.getInt(0));
+
+        LeafIndex reopened = new LeafIndex(32, size, segments);
+        assertEquals(11, reopened.size());
+        for (int i = 0; i < 11; i++) {
+            assertEquals(i, reopened.get(hasher.hash(String.valueOf(i).getBytes())));
+        }
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        LeafIndex index = new LeafIndex(32, true);
+        for (int i = 0; i < 100; i++) {
+            index.put(hasher.hash(String.valueOf(i).getBytes()), i);
+        }
+
+        LeafIndex newIndex = SerializationUtils.serializeAndBack(index);
+
+        assertEquals(100, newIndex.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, newIndex.get(hasher.hash(String.valueOf(i).getBytes())));
+        }
+        assertTrue(newIndex.remove(hasher.hash("0".getBytes()), 0));
+    }
+}
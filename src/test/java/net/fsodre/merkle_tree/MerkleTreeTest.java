@@ -2,14 +2,29 @@ package net.fsodre.merkle_tree;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import net.fsodre.merkle_tree.hashers.Hasher;
 import net.fsodre.merkle_tree.hashers.HasherProvider;
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+import net.fsodre.merkle_tree.hashers.Sha512256Hasher;
 import net.fsodre.merkle_tree.nodes.LeafNode;
+import net.fsodre.merkle_tree.storage.FlatNodeStorage;
 import net.fsodre.merkle_tree.utils.SerializationUtils;
 import net.fsodre.merkle_tree.utils.TestHasher;
 import static net.fsodre.merkle_tree.utils.TestHasher.paddedHash;
@@ -184,6 +199,45 @@ public class MerkleTreeTest {
         assertArrayEquals(paddedHash("111d91b9911e91f999"), tree.getRoot().getHash().toBytes());
     }
 
+    @Test
+    public void testEmptySpotsAreNotReusedTwice() throws Exception {
+        tree.addLeaf(LeafNode.fromData(new byte[]{0xa}));
+        tree.addLeaf(null);
+        tree.removeLeafAt(1);
+        int posC = tree.addLeaf(LeafNode.fromData(new byte[]{0xc}));
+        int posD = tree.addLeaf(LeafNode.fromData(new byte[]{0xd}));
+
+        assertEquals(1, posC);
+        assertEquals(2, posD);
+    }
+
+    @Test
+    public void testUpdatingEmptySpotTakesIt() throws Exception {
+        tree.addLeaf(LeafNode.fromData(new byte[]{0xa}));
+        int posB = tree.addLeaf(LeafNode.fromData(new byte[]{0xb}));
+        tree.removeLeafAt(posB);
+        tree.updateLeafAt(posB, LeafNode.fromData(new byte[]{0xc}));
+        tree.updateLeafAt(0, null);
+
+        assertEquals(0, tree.addLeaf(LeafNode.fromData(new byte[]{0xd})));
+        assertEquals(2, tree.addLeaf(LeafNode.fromData(new byte[]{0xe})));
+        assertArrayEquals(paddedHash("111d91c9911e999"), tree.getRoot().getHash().toBytes());
+    }
+
+    @Test
+    public void testReuseLowestEmptyLeaf() throws Exception {
+        MerkleTree lowestFirst = MerkleTree.builder().reuseLowestEmptyLeaf(true).build();
+        for (int i = 0; i < 4; i++) {
+            lowestFirst.addLeaf(LeafNode.fromData(new byte[]{(byte) i}));
+        }
+        lowestFirst.removeLeafAt(3);
+        lowestFirst.removeLeafAt(1);
+
+        assertEquals(1, lowestFirst.addLeaf(LeafNode.fromData(new byte[]{0xa})));
+        assertEquals(3, lowestFirst.addLeaf(LeafNode.fromData(new byte[]{0xb})));
+        assertEquals(4, lowestFirst.addLeaf(LeafNode.fromData(new byte[]{0xc})));
+    }
+
     @Test
     public void testExistenceProofForExistingLeafs() throws Exception {
         LeafNode leafA = LeafNode.fromData(new byte[]{0xa});
@@ -239,6 +293,28 @@ public class MerkleTreeTest {
         assertNull(proof);
     }
 
+    @Test
+    public void testExistenceProofForRemovedLeaf() throws Exception {
+        LeafNode leafA = LeafNode.fromData(new byte[]{0xa});
+        int posA = tree.addLeaf(leafA);
+        tree.addLeaf(LeafNode.fromData(new byte[]{0xb}));
+
+        tree.removeLeafAt(posA);
+
+        assertNull(tree.buildExistenceProof(leafA.getHash()));
+    }
+
+    @Test
+    public void testExistenceProofForReplacedLeaf() throws Exception {
+        LeafNode leafA = LeafNode.fromData(new byte[]{0xa});
+        int posA = tree.addLeaf(leafA);
+        tree.addLeaf(LeafNode.fromData(new byte[]{0xb}));
+
+        tree.updateLeafAt(posA, LeafNode.fromData(new byte[]{0xc}));
+
+        assertNull(tree.buildExistenceProof(leafA.getHash()));
+    }
+
     @Test
     public void testSerialization() throws Exception {
         LeafNode leafA = LeafNode.fromData(new byte[]{0xa});
@@ -267,4 +343,389 @@ public class MerkleTreeTest {
         assertTrue(proofE.validate(leafE.getHash(), newTree.getRoot().getHash()));
         
     }
+
+    @Test
+    public void testBuildFromEmptyList() throws Exception {
+        MerkleTree built = MerkleTree.buildFrom(new ArrayList<>());
+
+        assertNull(built.getRoot());
+    }
+
+    @Test
+    public void testBuildFromMatchesIncrementalTree() throws Exception {
+        List<LeafNode> leaves = new ArrayList<>();
+        for (byte data = 0xa; data <= 0xf; data++) {
+            leaves.add(LeafNode.fromData(new byte[]{data}));
+            tree.addLeaf(leaves.get(leaves.size() - 1));
+
+            MerkleTree built = MerkleTree.buildFrom(leaves);
+
+            assertArrayEquals(tree.getRoot().getHash().toBytes(), built.getRoot().getHash().toBytes());
+        }
+    }
+
+    @Test
+    public void testBuildFromWithNullLeaves() throws Exception {
+        MerkleTree built = MerkleTree.buildFrom(Arrays.asList(null, LeafNode.fromData(new byte[]{0xb}), null));
+
+        assertArrayEquals(paddedHash("111b999"), built.getRoot().getHash().toBytes());
+
+        // Empty spots are reused by later additions.
+        assertEquals(0, built.addLeaf(LeafNode.fromData(new byte[]{0xa})));
+        assertEquals(2, built.addLeaf(LeafNode.fromData(new byte[]{0xc})));
+        assertArrayEquals(paddedHash("111a91b9911c999"), built.getRoot().getHash().toBytes());
+    }
+
+    @Test
+    public void testBuildFromSupportsLaterChanges() throws Exception {
+        LeafNode leafA = LeafNode.fromData(new byte[]{0xa});
+        LeafNode leafC = LeafNode.fromData(new byte[]{0xc});
+        MerkleTree built = MerkleTree.buildFrom(Arrays.asList(leafA, LeafNode.fromData(new byte[]{0xb}), leafC));
+
+        built.addLeaf(LeafNode.fromData(new byte[]{0xd}));
+        built.updateLeaf(leafA.getHash(), LeafNode.fromData(new byte[]{0xe}));
+
+        assertArrayEquals(paddedHash("111e91b9911c91d999"), built.getRoot().getHash().toBytes());
+        assertTrue(built.buildExistenceProof(leafC.getHash()).validate(leafC.getHash(), built.getRoot().getHash()));
+    }
+
+    @Test
+    public void testParallelBuildMatchesSequentialBuild() throws Exception {
+        List<LeafNode> leaves = new ArrayList<>();
+        for (byte data = 0xa; data <= 0xf; data++) {
+            leaves.add(LeafNode.fromData(new byte[]{data}));
+        }
+        leaves.set(2, null);
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            MerkleTree parallel = MerkleTree.builder().parallelism(pool).parallelThreshold(1).buildFrom(leaves);
+            MerkleTree sequential = MerkleTree.buildFrom(leaves);
+
+            assertArrayEquals(sequential.getRoot().getHash().toBytes(), parallel.getRoot().getHash().toBytes());
+            assertArrayEquals(paddedHash("1111a91b9911d999111e91f9999"), parallel.getRoot().getHash().toBytes());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testBatchMatchesIndividualChanges() throws Exception {
+        LeafNode leafA = LeafNode.fromData(new byte[]{0xa});
+        tree.addLeaf(leafA);
+        tree.addLeaf(LeafNode.fromData(new byte[]{0xb}));
+        int posC = tree.addLeaf(LeafNode.fromData(new byte[]{0xc}));
+
+        tree.batch(batch -> {
+            batch.removeLeaf(leafA.getHash());
+            batch.updateLeafAt(posC, LeafNode.fromData(new byte[]{0xe}));
+            // Will get A's spot
+            assertEquals(0, batch.addLeaf(LeafNode.fromData(new byte[]{0xd})));
+            // Will be added to a new spot, creating a new level.
+            assertEquals(3, batch.addLeaf(LeafNode.fromData(new byte[]{0xf})));
+            assertEquals(4, batch.addLeaf(LeafNode.fromData(new byte[]{0xa})));
+        });
+
+        assertArrayEquals(paddedHash("1111d91b9911e91f999111a9999"), tree.getRoot().getHash().toBytes());
+        ExistenceProof proof = tree.buildExistenceProof(leafA.getHash());
+        assertTrue(proof.validate(leafA.getHash(), tree.getRoot().getHash()));
+    }
+
+    @Test
+    public void testParallelBatchMatchesSequentialBatch() throws Exception {
+        List<LeafNode> leaves = new ArrayList<>();
+        for (byte data = 0xa; data <= 0xf; data++) {
+            leaves.add(LeafNode.fromData(new byte[]{data}));
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            MerkleTree parallel = MerkleTree.builder().parallelism(pool).parallelThreshold(1).buildFrom(leaves);
+            MerkleTree sequential = MerkleTree.buildFrom(leaves);
+            for (MerkleTree built : Arrays.asList(parallel, sequential)) {
+                built.batch(batch -> {
+                    batch.updateLeafAt(0, LeafNode.fromData(new byte[]{0xe}));
+                    batch.removeLeafAt(3);
+                    batch.updateLeafAt(5, LeafNode.fromData(new byte[]{0xa}));
+                    batch.addLeaf(LeafNode.fromData(new byte[]{0xb}));
+                });
+            }
+
+            assertArrayEquals(sequential.getRoot().getHash().toBytes(), parallel.getRoot().getHash().toBytes());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testBatchOnEmptyTree() throws Exception {
+        tree.batch(batch -> batch.addLeaf(LeafNode.fromData(new byte[]{0xa})));
+
+        assertArrayEquals(paddedHash("11a99"), tree.getRoot().getHash().toBytes());
+    }
+
+    @Test
+    public void testBatchRehashesSharedAncestorsOnce() throws Exception {
+        AtomicInteger hashCount = new AtomicInteger();
+        tree = MerkleTree.builder().hasher(new CountingHasher(new TestHasher(), hashCount)).build();
+        tree.addLeaf(LeafNode.fromData(new byte[]{0xa}));
+        tree.addLeaf(LeafNode.fromData(new byte[]{0xb}));
+        tree.addLeaf(LeafNode.fromData(new byte[]{0xc}));
+        tree.addLeaf(LeafNode.fromData(new byte[]{0xd}));
+        LeafNode leafE = LeafNode.fromData(new byte[]{0xe});
+        LeafNode leafF = LeafNode.fromData(new byte[]{0xf});
+        hashCount.set(0);
+
+        tree.batch(batch -> {
+            batch.updateLeafAt(0, leafE);
+            batch.updateLeafAt(1, leafF);
+        });
+
+        // One hash for their parent and one for the root.
+        assertEquals(2, hashCount.get());
+        assertArrayEquals(paddedHash("111e91f9911c91d999"), tree.getRoot().getHash().toBytes());
+    }
+
+    @Test
+    public void testTreesWithDifferentHashers() throws Exception {
+        Hasher sha = new Sha512256Hasher();
+        MerkleTree shaTree = MerkleTree.builder().hasher(sha).build();
+        LeafNode shaLeafA = LeafNode.fromData("a", sha);
+        LeafNode shaLeafB = LeafNode.fromData("b", sha);
+        shaTree.addLeaf(shaLeafA);
+        shaTree.addLeaf(shaLeafB);
+        tree.addLeaf(LeafNode.fromData(new byte[]{0xa}));
+        tree.addLeaf(LeafNode.fromData(new byte[]{0xb}));
+
+        assertEquals(sha, shaTree.getHasher());
+        assertEquals(sha.hashPair(shaLeafA.getHash(), shaLeafB.getHash()), shaTree.getRoot().getHash());
+        assertArrayEquals(paddedHash("11a91b99"), tree.getRoot().getHash().toBytes());
+        ExistenceProof proof = shaTree.buildExistenceProof(shaLeafA.getHash());
+        assertTrue(proof.validate(shaLeafA.getHash(), shaTree.getRoot().getHash()));
+    }
+
+    @Test
+    public void testBatchHashedLevelsMatchIncrementalTree() throws Exception {
+        Hasher sha = new Sha512256Hasher();
+        List<LeafNode> leaves = new ArrayList<>();
+        MerkleTree incrementalTree = MerkleTree.builder().hasher(sha).build();
+        for (int i = 0; i < 1000; i++) {
+            LeafNode leaf = LeafNode.fromData("leaf " + i, sha);
+            leaves.add(leaf);
+            incrementalTree.addLeaf(leaf);
+        }
+
+        MerkleTree builtTree = MerkleTree.builder().hasher(sha).buildFrom(leaves);
+        assertEquals(incrementalTree.getRoot().getHash(), builtTree.getRoot().getHash());
+
+        builtTree.batch(batch -> {
+            for (int i = 0; i < 1000; i += 3) {
+                batch.updateLeafAt(i, LeafNode.fromData("new leaf " + i, sha));
+            }
+            for (int i = 1; i < 1000; i += 7) {
+                batch.removeLeafAt(i);
+            }
+        });
+        for (int i = 0; i < 1000; i += 3) {
+            incrementalTree.updateLeafAt(i, LeafNode.fromData("new leaf " + i, sha));
+        }
+        for (int i = 1; i < 1000; i += 7) {
+            incrementalTree.removeLeafAt(i);
+        }
+        assertEquals(incrementalTree.getRoot().getHash(), builtTree.getRoot().getHash());
+    }
+
+    @Test
+    public void testDefaultHasherIsReadOnCreation() throws Exception {
+        try {
+            HasherProvider.setHasher(new Sha512256Hasher());
+            tree.addLeaf(LeafNode.fromData(new byte[]{0xa}, tree.getHasher()));
+        } finally {
+            HasherProvider.setHasher(new TestHasher());
+        }
+
+        assertArrayEquals(paddedHash("11a99"), tree.getRoot().getHash().toBytes());
+    }
+
+    @Test
+    public void testFlatStorageMatchesDefaultStorage() throws Exception {
+        MerkleTree flatTree = MerkleTree.builder().storage(FlatNodeStorage::new).build();
+        LeafNode leafB = LeafNode.fromData(new byte[]{0xb});
+
+        for (MerkleTree current : new MerkleTree[]{tree, flatTree}) {
+            current.addLeaf(LeafNode.fromData(new byte[]{0xa}));
+            current.addLeaf(leafB);
+            current.addLeaf(null);
+            current.addLeaf(LeafNode.fromData(new byte[]{0xd}));
+            current.removeLeafAt(0);
+            current.updateLeafAt(2, LeafNode.fromData(new byte[]{0xc}));
+            current.addLeaf(LeafNode.fromData(new byte[]{0xe}));
+        }
+
+        assertArrayEquals(tree.getRoot().getHash().toBytes(), flatTree.getRoot().getHash().toBytes());
+        ExistenceProof proof = flatTree.buildExistenceProof(leafB.getHash());
+        assertTrue(proof.validate(leafB.getHash(), flatTree.getRoot().getHash()));
+    }
+
+    @Test
+    public void testLazyHashingRehashesOnRead() throws Exception {
+        AtomicInteger hashCount = new AtomicInteger();
+        tree = MerkleTree.builder().hasher(new CountingHasher(new TestHasher(), hashCount)).lazyHashing(true).build();
+        tree.addLeaf(LeafNode.fromData(new byte[]{0xa}));
+        tree.addLeaf(LeafNode.fromData(new byte[]{0xb}));
+        tree.addLeaf(LeafNode.fromData(new byte[]{0xc}));
+        tree.addLeaf(LeafNode.fromData(new byte[]{0xd}));
+        assertArrayEquals(paddedHash("111a91b9911c91d999"), tree.getRoot().getHash().toBytes());
+        hashCount.set(0);
+
+        tree.updateLeafAt(0, LeafNode.fromData(new byte[]{0xe}));
+        tree.updateLeafAt(1, LeafNode.fromData(new byte[]{0xf}));
+        tree.updateLeafAt(0, LeafNode.fromData(new byte[]{0xe}));
+        assertEquals(0, hashCount.get());
+
+        // One hash for their parent and one for the root.
+        assertArrayEquals(paddedHash("111e91f9911c91d999"), tree.getRoot().getHash().toBytes());
+        assertEquals(2, hashCount.get());
+    }
+
+    @Test
+    public void testLazyHashingMatchesEagerHashing() throws Exception {
+        Hasher sha = new Sha512256Hasher();
+        MerkleTree lazyTree = MerkleTree.builder().hasher(sha).lazyHashing(true).build();
+        MerkleTree eagerTree = MerkleTree.builder().hasher(sha).build();
+        List<MerkleHash> hashes = new ArrayList<>();
+        Random random = new Random(5);
+
+        for (int step = 0; step < 2000; step++) {
+            LeafNode leaf = LeafNode.fromData("leaf " + step, sha);
+            int action = hashes.isEmpty() ? 0 : random.nextInt(5);
+            if (action < 2) {
+                assertEquals(eagerTree.addLeaf(leaf), lazyTree.addLeaf(leaf));
+                hashes.add(leaf.getHash());
+            } else if (action == 2) {
+                MerkleHash hash = hashes.set(random.nextInt(hashes.size()), leaf.getHash());
+                eagerTree.updateLeaf(hash, leaf);
+                lazyTree.updateLeaf(hash, leaf);
+            } else if (action == 3) {
+                MerkleHash hash = hashes.remove(random.nextInt(hashes.size()));
+                eagerTree.removeLeaf(hash);
+                lazyTree.batch(batch -> batch.removeLeaf(hash));
+            } else {
+                MerkleHash hash = hashes.get(random.nextInt(hashes.size()));
+                assertTrue(lazyTree.buildExistenceProof(hash).validate(hash, eagerTree.getRoot().getHash()));
+            }
+        }
+        assertEquals(eagerTree.getRoot().getHash(), lazyTree.getRoot().getHash());
+    }
+
+    @Test
+    public void testCompactMatchesTreeOfRemainingLeaves() throws Exception {
+        Hasher sha = new Sha512256Hasher();
+        List<LeafNode> leaves = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            leaves.add(LeafNode.fromData("leaf " + i, sha));
+        }
+        MerkleTree sparseTree = MerkleTree.builder().hasher(sha).storage(FlatNodeStorage::new).buildFrom(leaves);
+        Random random = new Random(22);
+        for (int i = 0; i < 1000; i++) {
+            if (random.nextInt(10) < 9) {
+                sparseTree.removeLeafAt(i);
+                leaves.set(i, null);
+            }
+        }
+
+        int[] moves = new int[leaves.size()];
+        Arrays.fill(moves, -1);
+        sparseTree.compact((oldIndex, newIndex) -> moves[oldIndex] = newIndex);
+
+        List<LeafNode> compacted = new ArrayList<>(leaves);
+        for (int i = 0; i < moves.length; i++) {
+            if (moves[i] != -1) {
+                compacted.set(moves[i], compacted.get(i));
+                compacted.set(i, null);
+            }
+        }
+        compacted.removeIf(leaf -> leaf == null);
+        MerkleTree denseTree = MerkleTree.builder().hasher(sha).buildFrom(compacted);
+
+        assertEquals(denseTree.treeHeight(), sparseTree.treeHeight());
+        assertEquals(compacted.size(), sparseTree.levelSize(0));
+        assertEquals(denseTree.getRoot().getHash(), sparseTree.getRoot().getHash());
+        LeafNode leaf = compacted.get(compacted.size() - 1);
+        assertTrue(sparseTree.buildExistenceProof(leaf.getHash()).validate(leaf.getHash(), denseTree.getRoot().getHash()));
+        assertEquals(compacted.size(), sparseTree.addLeaf(LeafNode.fromData("added", sha)));
+    }
+
+    @Test
+    public void testCompactionStepsWithChangesInBetween() throws Exception {
+        tree = MerkleTree.builder().lazyHashing(true).build();
+        for (int i = 0; i < 8; i++) {
+            tree.addLeaf(LeafNode.fromData(new byte[]{(byte) i}));
+        }
+        tree.removeLeafAt(1);
+        tree.removeLeafAt(2);
+        tree.removeLeafAt(5);
+
+        List<String> moves = new ArrayList<>();
+        MerkleTree.Compaction compaction = tree.compaction((oldIndex, newIndex) -> moves.add(oldIndex + ">" + newIndex));
+        assertTrue(compaction.step(1));
+        tree.removeLeafAt(0);
+        assertTrue(compaction.step(1));
+        // The spot emptied behind the compaction is found again.
+        assertFalse(compaction.step(1));
+
+        assertEquals(Arrays.asList("7>1", "6>2", "4>0"), moves);
+        assertTrue(compaction.isDone());
+        MerkleTree expected = MerkleTree.buildFrom(Arrays.asList(LeafNode.fromData(new byte[]{4}),
+                LeafNode.fromData(new byte[]{7}), LeafNode.fromData(new byte[]{6}), LeafNode.fromData(new byte[]{3})));
+        assertEquals(expected.getRoot().getHash(), tree.getRoot().getHash());
+    }
+
+    @Test
+    public void testCompactEmptiedTree() throws Exception {
+        tree.addLeaf(LeafNode.fromData(new byte[]{0xa}));
+        tree.addLeaf(LeafNode.fromData(new byte[]{0xb}));
+        tree.removeLeafAt(0);
+        tree.removeLeafAt(1);
+
+        tree.compact((oldIndex, newIndex) -> {
+        });
+
+        assertNull(tree.getRoot());
+        assertEquals(1, tree.treeHeight());
+        assertEquals(0, tree.addLeaf(LeafNode.fromData(new byte[]{0xc})));
+        assertArrayEquals(paddedHash("11c99"), tree.getRoot().getHash().toBytes());
+    }
+
+    /**
+     * Counts how many times data is hashed.
+     */
+    private static final class CountingHasher implements Hasher {
+        private static final long serialVersionUID = 1L;
+
+        private final Hasher hasher;
+        private final AtomicInteger count;
+
+        CountingHasher(Hasher hasher, AtomicInteger count) {
+            this.hasher = hasher;
+            this.count = count;
+        }
+
+        @Override
+        public MerkleHash hash(byte[] bytes) {
+            count.incrementAndGet();
+            return hasher.hash(bytes);
+        }
+
+        @Override
+        public MerkleHash hash(InputStream inputStream) throws IOException {
+            count.incrementAndGet();
+            return hasher.hash(inputStream);
+        }
+
+        @Override
+        public int outputBitsCount() {
+            return hasher.outputBitsCount();
+        }
+    }
 }
@@ -0,0 +1,153 @@
+package net.fsodre.merkle_tree;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InvalidObjectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.hashers.HasherProvider;
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+import net.fsodre.merkle_tree.hashers.Sha512256Hasher;
+import net.fsodre.merkle_tree.nodes.LeafNode;
+import net.fsodre.merkle_tree.utils.SerializationUtils;
+import net.fsodre.merkle_tree.utils.TestHasher;
+
+public class MultiProofTest {
+
+    private MerkleTree tree;
+    private List<MerkleHash> leafHashes;
+
+    @BeforeAll
+    public static void setUpSuite() {
+        HasherProvider.setHasher(new TestHasher());
+    }
+
+    @BeforeEach
+    public void setUp() {
+        tree = new MerkleTree();
+        leafHashes = new ArrayList<>();
+        for (byte data = 0xa; data <= 0xf; data++) {
+            LeafNode leaf = LeafNode.fromData(new byte[]{data});
+            tree.addLeaf(leaf);
+            leafHashes.add(leaf.getHash());
+        }
+    }
+
+    @Test
+    public void testAdjacentLeavesNeedNoSiblingBetweenThem() throws Exception {
+        List<MerkleHash> targets = Arrays.asList(leafHashes.get(0), leafHashes.get(1));
+
+        MultiProof proof = tree.buildMultiProof(targets);
+
+        // Only the hash of (c, d) and the one of (e, f) are needed.
+        assertEquals(2, proof.siblingCount());
+        assertArrayEquals(new int[]{0, 1}, proof.positions());
+        assertTrue(proof.verify(targets, tree.getRoot().getHash()));
+    }
+
+    @Test
+    public void testMissingSiblings() throws Exception {
+        tree.removeLeafAt(3);
+        List<MerkleHash> targets = Arrays.asList(leafHashes.get(5), leafHashes.get(2), leafHashes.get(4));
+
+        MultiProof proof = tree.buildMultiProof(targets);
+
+        // Leaf 3 is empty and the pair (e, f) has no sibling, so only (a, b) is included.
+        assertEquals(1, proof.siblingCount());
+        assertTrue(proof.verify(targets, tree.getRoot().getHash()));
+    }
+
+    @Test
+    public void testWrongLeavesOrRoot() throws Exception {
+        List<MerkleHash> targets = Arrays.asList(leafHashes.get(0), leafHashes.get(3));
+        MultiProof proof = tree.buildMultiProof(targets);
+
+        assertFalse(proof.verify(Arrays.asList(leafHashes.get(3), leafHashes.get(0)), tree.getRoot().getHash()));
+        assertFalse(proof.verify(Arrays.asList(leafHashes.get(0), leafHashes.get(2)), tree.getRoot().getHash()));
+        assertFalse(proof.verify(Collections.singletonList(leafHashes.get(0)), tree.getRoot().getHash()));
+        assertFalse(proof.verify(targets, leafHashes.get(0)));
+        assertFalse(proof.verify(Arrays.asList(leafHashes.get(0), null), tree.getRoot().getHash()));
+        assertFalse(proof.verify(Arrays.asList(leafHashes.get(0), MerkleHash.fromHashCode(new byte[4], 4)),
+                tree.getRoot().getHash()));
+    }
+
+    @Test
+    public void testMalformedProof() throws Exception {
+        // Three needed siblings, none of them missing, but no room for their hashes.
+        MultiProof proof = new MultiProof(new TestHasher(), 32, 3, new int[]{0}, new byte[32], 3, new BitSet());
+
+        assertFalse(proof.verify(Collections.singletonList(leafHashes.get(0)), tree.getRoot().getHash()));
+        assertThrows(InvalidObjectException.class, () -> SerializationUtils.serializeAndBack(proof));
+    }
+
+    @Test
+    public void testRepeatedLeaves() throws Exception {
+        List<MerkleHash> targets = Arrays.asList(leafHashes.get(2), leafHashes.get(2));
+
+        MultiProof proof = tree.buildMultiProof(targets);
+
+        assertTrue(proof.verify(targets, tree.getRoot().getHash()));
+        assertFalse(proof.verify(Arrays.asList(leafHashes.get(2), leafHashes.get(3)), tree.getRoot().getHash()));
+    }
+
+    @Test
+    public void testLeafNotInTree() throws Exception {
+        MerkleHash notInTree = LeafNode.fromData(new byte[]{0x8}).getHash();
+
+        assertNull(tree.buildMultiProof(Arrays.asList(leafHashes.get(0), notInTree)));
+    }
+
+    @Test
+    public void testSingleLeafTree() throws Exception {
+        MerkleTree singleLeafTree = new MerkleTree();
+        singleLeafTree.addLeaf(LeafNode.fromData(new byte[]{0xa}));
+        List<MerkleHash> targets = Collections.singletonList(leafHashes.get(0));
+
+        MultiProof proof = singleLeafTree.buildMultiProof(targets);
+
+        assertTrue(proof.verify(targets, singleLeafTree.getRoot().getHash()));
+    }
+
+    @Test
+    public void testManyLeavesShareSiblings() throws Exception {
+        Hasher sha = new Sha512256Hasher();
+        List<LeafNode> leaves = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            leaves.add(LeafNode.fromData("leaf " + i, sha));
+        }
+        MerkleTree bigTree = MerkleTree.builder().hasher(sha).buildFrom(leaves);
+        List<MerkleHash> targets = new ArrayList<>();
+        for (int i = 0; i < 1000; i += 10) {
+            targets.add(leaves.get(i).getHash());
+        }
+
+        MultiProof proof = bigTree.buildMultiProof(targets);
+
+        // Separate proofs would include 100 siblings per level.
+        assertTrue(proof.siblingCount() < 100 * 5);
+        assertTrue(proof.verify(targets, bigTree.getRoot().getHash()));
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        List<MerkleHash> targets = Arrays.asList(leafHashes.get(1), leafHashes.get(4));
+
+        MultiProof proof = SerializationUtils.serializeAndBack(tree.buildMultiProof(targets));
+
+        assertTrue(proof.verify(targets, tree.getRoot().getHash()));
+    }
+}
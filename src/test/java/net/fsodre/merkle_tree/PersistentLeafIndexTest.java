@@ -0,0 +1,86 @@
+package net.fsodre.merkle_tree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+import net.fsodre.merkle_tree.hashers.Sha512256Hasher;
+
+public class PersistentLeafIndexTest {
+
+    private final Sha512256Hasher hasher = new Sha512256Hasher();
+
+    @Test
+    public void testChangesDontAffectOlderVersions() {
+        MerkleHash a = hasher.hash(new byte[]{0xa});
+        MerkleHash b = hasher.hash(new byte[]{0xb});
+
+        PersistentLeafIndex first = PersistentLeafIndex.EMPTY.put(a, 0);
+        PersistentLeafIndex second = first.put(b, 1).put(a, 7);
+        PersistentLeafIndex third = second.remove(a, 7);
+
+        assertEquals(0, first.get(a));
+        assertEquals(-1, first.get(b));
+        assertEquals(7, second.get(a));
+        assertEquals(1, second.get(b));
+        assertEquals(-1, third.get(a));
+        assertEquals(1, third.get(b));
+    }
+
+    @Test
+    public void testRemoveOnlyAtGivenPosition() {
+        MerkleHash a = hasher.hash(new byte[]{0xa});
+        PersistentLeafIndex index = PersistentLeafIndex.EMPTY.put(a, 3);
+
+        assertEquals(index, index.remove(a, 4));
+        assertEquals(-1, index.remove(a, 3).get(a));
+    }
+
+    @Test
+    public void testEqualHashCodes() {
+        // Both arrays have the same Arrays.hashCode.
+        MerkleHash first = MerkleHash.fromHashCode(new byte[]{0, 31}, 2);
+        MerkleHash second = MerkleHash.fromHashCode(new byte[]{1, 0}, 2);
+        MerkleHash third = MerkleHash.fromHashCode(new byte[]{2, -31}, 2);
+        assertEquals(first.hashCode(), second.hashCode());
+        assertEquals(first.hashCode(), third.hashCode());
+
+        PersistentLeafIndex index = PersistentLeafIndex.EMPTY.put(first, 1).put(second, 2).put(third, 3);
+        assertEquals(1, index.get(first));
+        assertEquals(2, index.get(second));
+        assertEquals(3, index.get(third));
+
+        index = index.remove(second, 2);
+        assertEquals(1, index.get(first));
+        assertEquals(-1, index.get(second));
+        assertEquals(3, index.get(third));
+    }
+
+    @Test
+    public void testMatchesHashMap() {
+        Random random = new Random(3);
+        Map<MerkleHash, Integer> expected = new HashMap<>();
+        PersistentLeafIndex index = PersistentLeafIndex.EMPTY;
+
+        for (int step = 0; step < 20000; step++) {
+            MerkleHash hash = hasher.hash(new byte[]{(byte) random.nextInt(256), (byte) random.nextInt(16)});
+            int position = random.nextInt(8);
+            if (random.nextInt(3) > 0) {
+                index = index.put(hash, position);
+                expected.put(hash, position);
+            } else {
+                index = index.remove(hash, position);
+                expected.remove(hash, position);
+            }
+            assertEquals((int) expected.getOrDefault(hash, -1), index.get(hash));
+        }
+        for (Map.Entry<MerkleHash, Integer> entry : expected.entrySet()) {
+            assertEquals((int) entry.getValue(), index.get(entry.getKey()));
+        }
+    }
+}
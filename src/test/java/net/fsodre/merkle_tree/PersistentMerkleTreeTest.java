@@ -0,0 +1,168 @@
+package net.fsodre.merkle_tree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.hashers.HasherProvider;
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+import net.fsodre.merkle_tree.hashers.Sha512256Hasher;
+import net.fsodre.merkle_tree.nodes.LeafNode;
+import net.fsodre.merkle_tree.utils.TestHasher;
+
+public class PersistentMerkleTreeTest {
+
+    private final Hasher sha = new Sha512256Hasher();
+
+    @BeforeAll
+    public static void setUpSuite() {
+        HasherProvider.setHasher(new TestHasher());
+    }
+
+    @Test
+    public void testEmptyTree() {
+        PersistentMerkleTree tree = new PersistentMerkleTree();
+
+        assertNull(tree.getRoot());
+        assertEquals(0, tree.snapshot().getLeafCount());
+    }
+
+    @Test
+    public void testSameRootsAsMerkleTree() {
+        PersistentMerkleTree tree = new PersistentMerkleTree();
+        MerkleTree expected = new MerkleTree();
+        for (byte data = 0xa; data <= 0xe; data++) {
+            LeafNode leaf = LeafNode.fromData(new byte[]{data});
+            assertEquals(expected.addLeaf(leaf), tree.addLeaf(leaf));
+            assertEquals(expected.getRoot().getHash(), tree.getRoot().getHash());
+        }
+
+        LeafNode newLeaf = LeafNode.fromData(new byte[]{0x9});
+        tree.updateLeafAt(1, newLeaf);
+        expected.updateLeafAt(1, newLeaf);
+        assertEquals(expected.getRoot().getHash(), tree.getRoot().getHash());
+
+        tree.removeLeaf(newLeaf.getHash());
+        expected.removeLeaf(newLeaf.getHash());
+        assertEquals(expected.getRoot().getHash(), tree.getRoot().getHash());
+        assertNull(tree.buildExistenceProof(newLeaf.getHash()));
+    }
+
+    @Test
+    public void testRandomChangesMatchMerkleTree() {
+        Random random = new Random(11);
+        PersistentMerkleTree tree = new PersistentMerkleTree(sha);
+        MerkleTree expected = MerkleTree.builder().hasher(sha).build();
+        List<MerkleHash> hashes = new ArrayList<>();
+
+        for (int step = 0; step < 3000; step++) {
+            LeafNode leaf = LeafNode.fromData("leaf " + step, sha);
+            if (hashes.isEmpty() || random.nextInt(3) > 0) {
+                int index = tree.addLeaf(leaf);
+                assertEquals(expected.addLeaf(leaf), index);
+                hashes.add(leaf.getHash());
+            } else if (random.nextBoolean()) {
+                MerkleHash hash = hashes.set(random.nextInt(hashes.size()), leaf.getHash());
+                tree.updateLeaf(hash, leaf);
+                expected.updateLeaf(hash, leaf);
+            } else {
+                MerkleHash hash = hashes.remove(random.nextInt(hashes.size()));
+                tree.removeLeaf(hash);
+                expected.removeLeaf(hash);
+            }
+            assertEquals(expected.getRoot().getHash(), tree.getRoot().getHash());
+        }
+
+        MerkleHash root = tree.getRoot().getHash();
+        for (MerkleHash hash : hashes) {
+            assertTrue(tree.buildExistenceProof(hash).validate(hash, root));
+        }
+    }
+
+    @Test
+    public void testSnapshotsAreNotAffectedByLaterChanges() {
+        PersistentMerkleTree tree = new PersistentMerkleTree(sha);
+        List<LeafNode> leaves = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            leaves.add(LeafNode.fromData("leaf " + i, sha));
+            tree.addLeaf(leaves.get(i));
+        }
+        TreeSnapshot snapshot = tree.snapshot();
+        MerkleHash root = snapshot.getRoot().getHash();
+
+        tree.removeLeafAt(3);
+        tree.updateLeafAt(7, LeafNode.fromData("new leaf", sha));
+        for (int i = 10; i < 40; i++) {
+            tree.addLeaf(LeafNode.fromData("leaf " + i, sha));
+        }
+
+        assertEquals(root, snapshot.getRoot().getHash());
+        assertEquals(10, snapshot.getLeafCount());
+        assertEquals(leaves.get(3).getHash(), snapshot.getLeafHash(3));
+        for (LeafNode leaf : leaves) {
+            assertTrue(snapshot.buildExistenceProof(leaf.getHash()).validate(leaf.getHash(), root));
+        }
+        assertNull(tree.buildExistenceProof(leaves.get(3).getHash()));
+    }
+
+    @Test
+    public void testProofsWhileWriting() throws Exception {
+        PersistentMerkleTree tree = new PersistentMerkleTree(sha);
+        List<MerkleHash> hashes = new ArrayList<>();
+        for (int i = 0; i < 256; i++) {
+            LeafNode leaf = LeafNode.fromData("leaf " + i, sha);
+            tree.addLeaf(leaf);
+            hashes.add(leaf.getHash());
+        }
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Callable<Integer>> readers = new ArrayList<>();
+            for (int reader = 0; reader < 3; reader++) {
+                int seed = reader;
+                readers.add(() -> {
+                    // The first leaves are never changed, so they're in every snapshot.
+                    Random random = new Random(seed);
+                    int proofs = 0;
+                    while (writing.get() || proofs == 0) {
+                        TreeSnapshot snapshot = tree.snapshot();
+                        MerkleHash hash = hashes.get(random.nextInt(128));
+                        assertTrue(snapshot.buildExistenceProof(hash).validate(hash, snapshot.getRoot().getHash()));
+                        proofs++;
+                    }
+                    return proofs;
+                });
+            }
+            List<Future<Integer>> results = new ArrayList<>();
+            for (Callable<Integer> reader : readers) {
+                results.add(executor.submit(reader));
+            }
+
+            for (int i = 0; i < 5000; i++) {
+                tree.updateLeafAt(128 + i % 128, LeafNode.fromData("update " + i, sha));
+                tree.addLeaf(LeafNode.fromData("added " + i, sha));
+            }
+            writing.set(false);
+
+            for (Future<Integer> result : results) {
+                assertTrue(result.get() > 0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package net.fsodre.merkle_tree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.hashers.HasherProvider;
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+import net.fsodre.merkle_tree.hashers.Sha512256Hasher;
+import net.fsodre.merkle_tree.nodes.LeafNode;
+import net.fsodre.merkle_tree.utils.TestHasher;
+
+public class ProofCacheTest {
+
+    @BeforeAll
+    public static void setUpSuite() {
+        HasherProvider.setHasher(new TestHasher());
+    }
+
+    @Test
+    public void testRepeatedProofsAreCached() {
+        MerkleTree tree = MerkleTree.builder().proofCache(4).buildFrom(leaves(0xa, 0xf));
+        MerkleHash hash = LeafNode.fromData(new byte[]{0xb}).getHash();
+
+        ExistenceProof first = tree.buildExistenceProof(hash);
+        ExistenceProof second = tree.buildExistenceProof(hash);
+
+        assertSame(first, second);
+        assertEquals(1, tree.getProofCacheHits());
+        assertEquals(1, tree.getProofCacheMisses());
+    }
+
+    @Test
+    public void testChangesRefreshOnlyStaleProofs() {
+        MerkleTree tree = MerkleTree.builder().proofCache(4).buildFrom(leaves(0xa, 0xf));
+        MerkleHash changed = LeafNode.fromData(new byte[]{0xb}).getHash();
+        MerkleHash other = LeafNode.fromData(new byte[]{0xe}).getHash();
+        ExistenceProof otherProof = tree.buildExistenceProof(other);
+        tree.buildExistenceProof(changed);
+
+        LeafNode newLeaf = LeafNode.fromData(new byte[]{0x9});
+        tree.updateLeaf(changed, newLeaf);
+
+        // The siblings of the updated position didn't change, so its proof is still the same.
+        ExistenceProof newLeafProof = tree.buildExistenceProof(newLeaf.getHash());
+        ExistenceProof newOtherProof = tree.buildExistenceProof(other);
+        assertNotSame(otherProof, newOtherProof);
+        assertTrue(newLeafProof.validate(newLeaf.getHash(), tree.getRoot().getHash()));
+        assertTrue(newOtherProof.validate(other, tree.getRoot().getHash()));
+        assertTrue(otherProof.validate(other, rootOf(leaves(0xa, 0xf))));
+        assertEquals(2, tree.getProofCacheMisses());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedProofsAreEvicted() {
+        MerkleTree tree = MerkleTree.builder().proofCache(2).buildFrom(leaves(0xa, 0xf));
+        MerkleHash a = LeafNode.fromData(new byte[]{0xa}).getHash();
+        MerkleHash b = LeafNode.fromData(new byte[]{0xb}).getHash();
+        MerkleHash c = LeafNode.fromData(new byte[]{0xc}).getHash();
+
+        tree.buildExistenceProof(a);
+        tree.buildExistenceProof(b);
+        tree.buildExistenceProof(a);
+        tree.buildExistenceProof(c);
+        tree.buildExistenceProof(a);
+        tree.buildExistenceProof(b);
+
+        assertEquals(2, tree.getProofCacheHits());
+        assertEquals(4, tree.getProofCacheMisses());
+    }
+
+    @Test
+    public void testCachedProofsCantBeModified() {
+        MerkleTree tree = MerkleTree.builder().proofCache(4).buildFrom(leaves(0xa, 0xf));
+        ExistenceProof proof = tree.buildExistenceProof(LeafNode.fromData(new byte[]{0xb}).getHash());
+
+        assertThrows(UnsupportedOperationException.class, () -> proof.addLeftSibling(null));
+        assertThrows(UnsupportedOperationException.class, () -> proof.addRightSibling(null));
+    }
+
+    @Test
+    public void testCachedProofsMatchFreshOnes() {
+        Hasher sha = new Sha512256Hasher();
+        Random random = new Random(7);
+        List<LeafNode> leaves = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            leaves.add(LeafNode.fromData("leaf " + i, sha));
+        }
+        MerkleTree cached = MerkleTree.builder().hasher(sha).proofCache(8).buildFrom(leaves);
+        MerkleTree uncached = MerkleTree.builder().hasher(sha).buildFrom(leaves);
+
+        for (int step = 0; step < 2000; step++) {
+            int index = random.nextInt(leaves.size());
+            LeafNode newLeaf = LeafNode.fromData("leaf " + step + " " + index, sha);
+            switch (random.nextInt(5)) {
+                case 0:
+                    leaves.add(newLeaf);
+                    cached.addLeaf(newLeaf);
+                    uncached.addLeaf(newLeaf);
+                    break;
+                case 1:
+                    leaves.set(index, newLeaf);
+                    cached.updateLeafAt(index, newLeaf);
+                    uncached.updateLeafAt(index, newLeaf);
+                    break;
+                case 2:
+                    int other = random.nextInt(leaves.size());
+                    LeafNode otherLeaf = LeafNode.fromData("other leaf " + step, sha);
+                    leaves.set(index, newLeaf);
+                    leaves.set(other, otherLeaf);
+                    cached.batch(batch -> {
+                        batch.updateLeafAt(index, newLeaf);
+                        batch.updateLeafAt(other, otherLeaf);
+                    });
+                    uncached.updateLeafAt(index, newLeaf);
+                    uncached.updateLeafAt(other, otherLeaf);
+                    break;
+                default:
+                    // Proofs are requested more often than leaves change, and mostly for a few leaves.
+                    MerkleHash hash = leaves.get(random.nextInt(4) == 0 ? index : index % 6).getHash();
+                    assertSameSiblings(uncached.buildExistenceProof(hash), cached.buildExistenceProof(hash));
+                    assertTrue(cached.buildExistenceProof(hash).validate(hash, cached.getRoot().getHash()));
+            }
+        }
+        assertTrue(cached.getProofCacheHits() > 0);
+    }
+
+    private static void assertSameSiblings(ExistenceProof expected, ExistenceProof actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int level = 0; level < expected.size(); level++) {
+            assertEquals(expected.siblingHash(level), actual.siblingHash(level));
+        }
+    }
+
+    private static MerkleHash rootOf(List<LeafNode> leaves) {
+        return MerkleTree.buildFrom(leaves).getRoot().getHash();
+    }
+
+    private static List<LeafNode> leaves(int from, int to) {
+        List<LeafNode> leaves = new ArrayList<>();
+        for (int data = from; data <= to; data++) {
+            leaves.add(LeafNode.fromData(new byte[]{(byte) data}));
+        }
+        return leaves;
+    }
+}
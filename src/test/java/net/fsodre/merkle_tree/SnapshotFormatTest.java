@@ -0,0 +1,197 @@
+package net.fsodre.merkle_tree;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.fsodre.merkle_tree.hashers.HasherProvider;
+import net.fsodre.merkle_tree.hashers.Sha512256Hasher;
+import net.fsodre.merkle_tree.nodes.LeafNode;
+import net.fsodre.merkle_tree.storage.FlatNodeStorage;
+import net.fsodre.merkle_tree.storage.LazyNodeStorage;
+import net.fsodre.merkle_tree.utils.TestHasher;
+import static net.fsodre.merkle_tree.utils.TestHasher.paddedHash;
+
+public class SnapshotFormatTest {
+
+    @TempDir
+    Path directory;
+
+    private MerkleTree tree;
+    private LeafNode leafA;
+    private LeafNode leafD;
+
+    @BeforeAll
+    public static void setUpSuite() {
+        HasherProvider.setHasher(new TestHasher());
+    }
+
+    @BeforeEach
+    public void setUp() {
+        tree = new MerkleTree();
+        leafA = LeafNode.fromData(new byte[]{0xa});
+        leafD = LeafNode.fromData(new byte[]{0xd});
+        tree.addLeaf(leafA);
+        tree.addLeaf(LeafNode.fromData(new byte[]{0xb}));
+        int posC = tree.addLeaf(LeafNode.fromData(new byte[]{0xc}));
+        tree.addLeaf(leafD);
+        tree.removeLeafAt(posC);
+        tree.removeLeaf(leafA.getHash());
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        MerkleTree newTree = MerkleTree.builder().readSnapshot(Channels.newChannel(new ByteArrayInputStream(write(tree))));
+
+        assertArrayEquals(tree.getRoot().getHash().toBytes(), newTree.getRoot().getHash().toBytes());
+        assertTrue(newTree.buildExistenceProof(leafD.getHash()).validate(leafD.getHash(), newTree.getRoot().getHash()));
+        assertNull(newTree.buildExistenceProof(leafA.getHash()));
+
+        // Empty spots are reused in the same order as in the original tree.
+        assertEquals(2, newTree.addLeaf(LeafNode.fromData(new byte[]{0xe})));
+        assertEquals(0, newTree.addLeaf(LeafNode.fromData(new byte[]{0xf})));
+        assertArrayEquals(paddedHash("111f91b9911e91d999"), newTree.getRoot().getHash().toBytes());
+    }
+
+    @Test
+    public void testRoundTripIntoFlatStorage() throws Exception {
+        MerkleTree newTree = MerkleTree.builder()
+                .storage(FlatNodeStorage::new)
+                .readSnapshot(Channels.newChannel(new ByteArrayInputStream(write(tree))));
+
+        assertArrayEquals(tree.getRoot().getHash().toBytes(), newTree.getRoot().getHash().toBytes());
+    }
+
+    @Test
+    public void testEmptyTree() throws Exception {
+        MerkleTree newTree = MerkleTree.builder().readSnapshot(Channels.newChannel(new ByteArrayInputStream(write(new MerkleTree()))));
+
+        assertNull(newTree.getRoot());
+    }
+
+    @Test
+    public void testInvalidSnapshot() throws Exception {
+        byte[] snapshot = write(tree);
+        snapshot[0] = 0;
+
+        assertThrows(IOException.class, () -> MerkleTree.builder().readSnapshot(Channels.newChannel(new ByteArrayInputStream(snapshot))));
+    }
+
+    @Test
+    public void testCorruptedHeader() throws Exception {
+        // The hasher id starts after the magic, the version and its length, and is followed by the hash size.
+        int levelsOffset = 4 * Integer.BYTES + TestHasher.class.getName().length();
+        int emptyOffset = levelsOffset + 4 * Integer.BYTES;
+
+        assertEquals(2, ByteBuffer.wrap(write(tree)).getInt(emptyOffset));
+        assertEquals(3, ByteBuffer.wrap(write(tree)).getInt(levelsOffset));
+
+        // Lengths that would be allocated before reading anything else.
+        assertCorrupted(2 * Integer.BYTES, Integer.MAX_VALUE);
+        assertCorrupted(levelsOffset, Integer.MAX_VALUE);
+        assertCorrupted(emptyOffset, Integer.MAX_VALUE);
+
+        // Level sizes of 4 leaves are 4, 2 and 1.
+        assertCorrupted(levelsOffset + 4, 5);
+        assertCorrupted(levelsOffset + 8, 3);
+        assertCorrupted(levelsOffset + 12, 2);
+
+        // Empty leaves outside of the bottom level.
+        assertCorrupted(emptyOffset + 4, 4);
+        assertCorrupted(emptyOffset + 4, -1);
+
+        // Empty leaves 2 and 0, replaced by a leaf in use and by a duplicate.
+        assertEquals(2, ByteBuffer.wrap(write(tree)).getInt(emptyOffset + 4));
+        assertCorrupted(emptyOffset + 4, 1);
+        assertCorrupted(emptyOffset + 8, 2);
+    }
+
+    private void assertCorrupted(int offset, int value) throws IOException {
+        byte[] snapshot = write(tree);
+        ByteBuffer.wrap(snapshot).putInt(offset, value);
+
+        assertThrows(IOException.class, () -> MerkleTree.builder().readSnapshot(Channels.newChannel(new ByteArrayInputStream(snapshot))));
+        assertThrows(IOException.class,
+                () -> MerkleTree.builder().readSnapshotLazily(Channels.newChannel(new ByteArrayInputStream(snapshot)), 1));
+    }
+
+    @Test
+    public void testSnapshotWithDifferentHasher() throws Exception {
+        byte[] snapshot = write(tree);
+
+        MerkleTree.Builder builder = MerkleTree.builder().hasher(new Sha512256Hasher());
+        assertThrows(IOException.class,
+                () -> builder.readSnapshot(Channels.newChannel(new ByteArrayInputStream(snapshot))));
+    }
+
+    @Test
+    public void testTruncatedSnapshot() throws Exception {
+        byte[] snapshot = write(tree);
+        byte[] truncated = Arrays.copyOf(snapshot, snapshot.length - 1);
+
+        assertThrows(IOException.class, () -> MerkleTree.builder().readSnapshot(Channels.newChannel(new ByteArrayInputStream(truncated))));
+    }
+
+    @Test
+    public void testLazyLoad() throws Exception {
+        for (int topLevels = 0; topLevels <= 3; topLevels++) {
+            MerkleTree newTree = MerkleTree.builder().readSnapshotLazily(Channels.newChannel(new ByteArrayInputStream(write(tree))), topLevels);
+
+            assertArrayEquals(tree.getRoot().getHash().toBytes(), newTree.getRoot().getHash().toBytes());
+            assertTrue(newTree.buildExistenceProof(leafD.getHash()).validate(leafD.getHash(), newTree.getRoot().getHash()));
+        }
+    }
+
+    @Test
+    public void testLazyLoadMaterialization() throws Exception {
+        MerkleTree newTree = MerkleTree.builder().readSnapshotLazily(Channels.newChannel(new ByteArrayInputStream(write(tree))), 1);
+
+        newTree.materialization().get();
+
+        assertTrue(((LazyNodeStorage) newTree.storage()).isMaterialized());
+        assertArrayEquals(tree.getRoot().getHash().toBytes(), newTree.getRoot().getHash().toBytes());
+        assertTrue(tree.materialization().isDone());
+    }
+
+    @Test
+    public void testLazyLoadFromSeekableChannel() throws Exception {
+        Path file = directory.resolve("snapshot");
+        Files.write(file, write(tree));
+
+        try (FileChannel channel = FileChannel.open(file)) {
+            MerkleTree newTree = MerkleTree.builder().readSnapshotLazily(channel, 1);
+
+            newTree.addLeaf(LeafNode.fromData(new byte[]{0xe}));
+            tree.addLeaf(LeafNode.fromData(new byte[]{0xe}));
+            assertArrayEquals(tree.getRoot().getHash().toBytes(), newTree.getRoot().getHash().toBytes());
+
+            LazyNodeStorage nodes = (LazyNodeStorage) newTree.storage();
+            nodes.materialize();
+            assertTrue(nodes.isMaterialized());
+            assertArrayEquals(tree.getRoot().getHash().toBytes(), newTree.getRoot().getHash().toBytes());
+        }
+    }
+
+    private static byte[] write(MerkleTree tree) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        tree.writeSnapshot(Channels.newChannel(out));
+        return out.toByteArray();
+    }
+}
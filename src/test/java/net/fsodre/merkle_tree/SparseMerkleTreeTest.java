@@ -0,0 +1,217 @@
+package net.fsodre.merkle_tree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+import net.fsodre.merkle_tree.hashers.Sha256Hasher;
+import net.fsodre.merkle_tree.nodes.LeafNode;
+import net.fsodre.merkle_tree.utils.SerializationUtils;
+
+public class SparseMerkleTreeTest {
+
+    private final Hasher sha = new Sha256Hasher();
+
+    @Test
+    public void testEmptyTreeHasDefaultRoot() throws Exception {
+        SparseMerkleTree tree = new SparseMerkleTree(sha);
+
+        assertEquals(256, tree.depth());
+        assertEquals(0, tree.size());
+        assertEquals(SparseMerkleTree.defaultHashes(sha, 256)[256], tree.getRoot().getHash());
+    }
+
+    @Test
+    public void testSingleKeyRootIsItsShortcut() throws Exception {
+        SparseMerkleTree tree = new SparseMerkleTree(sha);
+        MerkleHash key = key(1);
+        LeafNode leaf = LeafNode.fromData("value", sha);
+
+        tree.put(key, leaf);
+
+        // A key alone in the tree is a shortcut leaf at the root: the hash of its leaf hash, the key and 0x01.
+        byte[] shortcut = new byte[65];
+        leaf.getHash().copyTo(shortcut, 0);
+        key.copyTo(shortcut, 32);
+        shortcut[64] = 1;
+        assertEquals(sha.hash(shortcut), tree.getRoot().getHash());
+        assertEquals(leaf.getHash(), tree.get(key));
+        assertEquals(0, tree.buildProof(key).siblingCount());
+    }
+
+    @Test
+    public void testKeysSharingTheWholePath() throws Exception {
+        byte[] bytes = key(1).toBytes();
+        MerkleHash left = MerkleHash.fromHashCode(bytes, 32);
+        bytes[31] ^= 1;
+        MerkleHash right = MerkleHash.fromHashCode(bytes, 32);
+        SparseMerkleTree tree = new SparseMerkleTree(sha);
+        tree.put(left, LeafNode.fromData("a", sha));
+        MerkleHash singleRoot = tree.getRoot().getHash();
+
+        tree.put(right, LeafNode.fromData("b", sha));
+        MerkleHash root = tree.getRoot().getHash();
+
+        // Both shortcut leaves go down to the bottom level, below 255 internal nodes.
+        SparseProof proof = tree.buildProof(left);
+        assertEquals(1, proof.siblingCount());
+        assertTrue(proof.verify(left, tree.get(left), root));
+        assertTrue(tree.buildProof(right).verify(right, tree.get(right), root));
+        assertTrue(tree.buildExclusionProof(key(2)).verifyAbsence(key(2), root));
+
+        tree.remove(right);
+        assertEquals(singleRoot, tree.getRoot().getHash());
+    }
+
+    @Test
+    public void testRemovingKeysMatchesNeverAddingThem() throws Exception {
+        SparseMerkleTree all = new SparseMerkleTree(sha);
+        SparseMerkleTree odd = new SparseMerkleTree(sha);
+        for (int i = 0; i < 100; i++) {
+            all.put(key(i), LeafNode.fromData("value " + i, sha));
+            if (i % 2 == 1) {
+                odd.put(key(i), LeafNode.fromData("value " + i, sha));
+            }
+        }
+
+        for (int i = 0; i < 100; i += 2) {
+            all.remove(key(i));
+        }
+
+        assertEquals(50, all.size());
+        assertEquals(odd.getRoot().getHash(), all.getRoot().getHash());
+    }
+
+    @Test
+    public void testRootDoesNotDependOnInsertionOrder() throws Exception {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            ids.add(i);
+        }
+        SparseMerkleTree first = new SparseMerkleTree(sha);
+        for (int id : ids) {
+            first.put(key(id), LeafNode.fromData("value " + id, sha));
+        }
+        Collections.shuffle(ids, new Random(23));
+        SparseMerkleTree second = new SparseMerkleTree(sha);
+        for (int id : ids) {
+            second.put(key(id), LeafNode.fromData("value " + id, sha));
+        }
+
+        assertEquals(200, second.size());
+        assertEquals(first.getRoot().getHash(), second.getRoot().getHash());
+    }
+
+    @Test
+    public void testRemovingAllKeysRestoresEmptyRoot() throws Exception {
+        SparseMerkleTree tree = new SparseMerkleTree(sha);
+        MerkleHash emptyRoot = tree.getRoot().getHash();
+        for (int i = 0; i < 50; i++) {
+            tree.put(key(i), LeafNode.fromData("value " + i, sha));
+        }
+        for (int i = 0; i < 50; i++) {
+            tree.remove(key(i));
+        }
+
+        assertEquals(0, tree.size());
+        assertNull(tree.get(key(0)));
+        assertEquals(emptyRoot, tree.getRoot().getHash());
+    }
+
+    @Test
+    public void testProofs() throws Exception {
+        SparseMerkleTree tree = new SparseMerkleTree(sha);
+        for (int i = 0; i < 100; i++) {
+            tree.put(key(i), LeafNode.fromData("value " + i, sha));
+        }
+        MerkleHash root = tree.getRoot().getHash();
+        MerkleHash leafHash = tree.get(key(42));
+
+        SparseProof proof = tree.buildProof(key(42));
+
+        // Only the siblings near the root aren't empty, as 100 random keys share few path bits.
+        assertTrue(proof.siblingCount() < 20);
+        assertTrue(proof.verify(key(42), leafHash, root));
+        assertTrue(proof.verify(key(42), leafHash, root, new byte[proof.scratchBytes()]));
+        assertFalse(proof.verify(key(43), leafHash, root));
+        assertFalse(proof.verify(key(42), tree.get(key(43)), root));
+    }
+
+    @Test
+    public void testExclusionProofs() throws Exception {
+        SparseMerkleTree tree = new SparseMerkleTree(sha);
+        for (int i = 0; i < 100; i++) {
+            tree.put(key(i), LeafNode.fromData("value " + i, sha));
+        }
+        MerkleHash root = tree.getRoot().getHash();
+        byte[] scratch = null;
+
+        for (int i = 100; i < 200; i++) {
+            SparseProof proof = tree.buildExclusionProof(key(i));
+            if (scratch == null) {
+                scratch = new byte[proof.scratchBytes()];
+            }
+            assertTrue(proof.provesAbsence());
+            assertTrue(proof.verifyAbsence(key(i), root, scratch));
+            assertTrue(proof.siblingCount() < 20);
+            assertFalse(proof.verify(key(i), LeafNode.fromData("value " + i, sha).getHash(), root));
+        }
+        assertNull(tree.buildExclusionProof(key(7)));
+        assertNull(tree.buildProof(key(100)));
+        assertFalse(tree.buildProof(key(7)).verifyAbsence(key(7), root));
+    }
+
+    @Test
+    public void testExclusionProofFailsOnceKeyIsAdded() throws Exception {
+        SparseMerkleTree tree = new SparseMerkleTree(sha);
+        tree.put(key(1), LeafNode.fromData("a", sha));
+        SparseProof proof = tree.buildExclusionProof(key(2));
+        assertTrue(proof.verifyAbsence(key(2), tree.getRoot().getHash()));
+
+        tree.put(key(2), LeafNode.fromData("b", sha));
+
+        assertFalse(proof.verifyAbsence(key(2), tree.getRoot().getHash()));
+    }
+
+    @Test
+    public void testExclusionProofInEmptyTree() throws Exception {
+        SparseMerkleTree tree = new SparseMerkleTree(sha);
+
+        SparseProof proof = tree.buildExclusionProof(key(1));
+
+        assertEquals(0, proof.siblingCount());
+        assertTrue(proof.verifyAbsence(key(1), tree.getRoot().getHash()));
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        SparseMerkleTree tree = new SparseMerkleTree(sha);
+        tree.put(key(1), LeafNode.fromData("a", sha));
+        tree.put(key(2), LeafNode.fromData("b", sha));
+        MerkleHash root = tree.getRoot().getHash();
+        SparseProof proof = tree.buildProof(key(1));
+
+        SparseMerkleTree newTree = SerializationUtils.serializeAndBack(tree);
+        SparseProof newProof = SerializationUtils.serializeAndBack(proof);
+
+        assertEquals(root, newTree.getRoot().getHash());
+        assertTrue(newProof.verify(key(1), tree.get(key(1)), root));
+        newTree.remove(key(2));
+        tree.remove(key(2));
+        assertEquals(tree.getRoot().getHash(), newTree.getRoot().getHash());
+    }
+
+    private MerkleHash key(int id) {
+        return sha.hash(("key " + id).getBytes());
+    }
+}
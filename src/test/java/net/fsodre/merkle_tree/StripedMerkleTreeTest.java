@@ -0,0 +1,190 @@
+package net.fsodre.merkle_tree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+import net.fsodre.merkle_tree.hashers.Sha512256Hasher;
+import net.fsodre.merkle_tree.nodes.LeafNode;
+import net.fsodre.merkle_tree.storage.FlatNodeStorage;
+
+public class StripedMerkleTreeTest {
+    private static final int WRITERS = 4;
+
+    private final Hasher sha = new Sha512256Hasher();
+
+    @Test
+    public void testConcurrentUpdatesMatchSequentialTree() throws Exception {
+        List<LeafNode> leaves = leaves(1000);
+        MerkleTree expected = MerkleTree.builder().hasher(sha).buildFrom(leaves);
+        StripedMerkleTree striped = new StripedMerkleTree(MerkleTree.builder().hasher(sha).buildFrom(leaves), 3, 4);
+
+        // Each writer owns the positions congruent to its id, so the final state doesn't depend on timing.
+        List<List<Runnable>> changes = new ArrayList<>();
+        for (int writer = 0; writer < WRITERS; writer++) {
+            Random random = new Random(writer);
+            List<Runnable> writerChanges = new ArrayList<>();
+            for (int step = 0; step < 3000; step++) {
+                int index = WRITERS * random.nextInt(leaves.size() / WRITERS) + writer;
+                if (random.nextInt(10) == 0) {
+                    expected.removeLeafAt(index);
+                    writerChanges.add(() -> striped.removeLeafAt(index));
+                } else {
+                    LeafNode leaf = LeafNode.fromData("leaf " + writer + " " + step, sha);
+                    expected.updateLeafAt(index, leaf);
+                    writerChanges.add(() -> striped.updateLeafAt(index, leaf));
+                }
+            }
+            changes.add(writerChanges);
+        }
+
+        runWithCombiner(striped, changes);
+
+        assertEquals(expected.getRoot().getHash(), striped.getRoot().getHash());
+        assertEquals(expected.getRoot().getHash(), striped.getTree().getRoot().getHash());
+    }
+
+    @Test
+    public void testAddsDuringUpdates() throws Exception {
+        List<LeafNode> leaves = leaves(100);
+        MerkleTree expected = MerkleTree.builder().hasher(sha).buildFrom(leaves);
+        StripedMerkleTree striped = new StripedMerkleTree(MerkleTree.builder().hasher(sha).buildFrom(leaves), 2, 2);
+
+        List<List<Runnable>> changes = new ArrayList<>();
+        List<Runnable> adds = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            LeafNode leaf = LeafNode.fromData("added " + i, sha);
+            expected.addLeaf(leaf);
+            adds.add(() -> striped.addLeaf(leaf));
+        }
+        changes.add(adds);
+        for (int writer = 0; writer < WRITERS - 1; writer++) {
+            Random random = new Random(writer);
+            List<Runnable> writerChanges = new ArrayList<>();
+            for (int step = 0; step < 2000; step++) {
+                int index = (WRITERS - 1) * random.nextInt(leaves.size() / WRITERS) + writer;
+                LeafNode leaf = LeafNode.fromData("leaf " + writer + " " + step, sha);
+                expected.updateLeafAt(index, leaf);
+                writerChanges.add(() -> striped.updateLeafAt(index, leaf));
+            }
+            changes.add(writerChanges);
+        }
+
+        runWithCombiner(striped, changes);
+
+        assertEquals(expected.getRoot().getHash(), striped.getRoot().getHash());
+    }
+
+    @Test
+    public void testProofsAfterUpdates() {
+        List<LeafNode> leaves = leaves(50);
+        StripedMerkleTree striped = new StripedMerkleTree(MerkleTree.builder().hasher(sha).buildFrom(leaves), 2, 4);
+
+        LeafNode newLeaf = LeafNode.fromData("new leaf", sha);
+        striped.updateLeaf(leaves.get(17).getHash(), newLeaf);
+        striped.removeLeaf(leaves.get(30).getHash());
+
+        MerkleHash root = striped.getRoot().getHash();
+        assertTrue(striped.buildExistenceProof(newLeaf.getHash()).validate(newLeaf.getHash(), root));
+        assertTrue(striped.buildExistenceProof(leaves.get(40).getHash()).validate(leaves.get(40).getHash(), root));
+    }
+
+    @Test
+    public void testCompactionDuringUpdates() throws Exception {
+        List<LeafNode> leaves = leaves(1000);
+        MerkleTree expected = MerkleTree.builder().hasher(sha).buildFrom(leaves);
+        MerkleTree sparseTree = MerkleTree.builder().hasher(sha).buildFrom(leaves);
+        for (int i = 500; i < leaves.size(); i += 2) {
+            expected.removeLeafAt(i);
+            sparseTree.removeLeafAt(i);
+        }
+        StripedMerkleTree striped = new StripedMerkleTree(sparseTree, 3, 4);
+
+        // Writers only change the first leaves, which compaction doesn't move.
+        List<List<Runnable>> changes = new ArrayList<>();
+        for (int writer = 0; writer < WRITERS; writer++) {
+            Random random = new Random(writer);
+            List<Runnable> writerChanges = new ArrayList<>();
+            for (int step = 0; step < 1000; step++) {
+                int index = WRITERS * random.nextInt(500 / WRITERS) + writer;
+                LeafNode leaf = LeafNode.fromData("leaf " + writer + " " + step, sha);
+                expected.updateLeafAt(index, leaf);
+                writerChanges.add(() -> striped.updateLeafAt(index, leaf));
+            }
+            changes.add(writerChanges);
+        }
+        changes.add(Collections.singletonList(() -> striped.compact((oldIndex, newIndex) -> {
+        }, 8)));
+        expected.compact((oldIndex, newIndex) -> {
+        });
+
+        runWithCombiner(striped, changes);
+
+        assertEquals(750, striped.getTree().levelSize(0));
+        assertEquals(expected.getRoot().getHash(), striped.getRoot().getHash());
+    }
+
+    @Test
+    public void testStorageMustSupportConcurrentWrites() {
+        MerkleTree tree = MerkleTree.builder().hasher(sha).storage(FlatNodeStorage::new).buildFrom(leaves(10));
+
+        assertThrows(IllegalArgumentException.class, () -> new StripedMerkleTree(tree));
+    }
+
+    @Test
+    public void testInvalidStripes() {
+        MerkleTree tree = MerkleTree.builder().hasher(sha).buildFrom(leaves(10));
+
+        assertThrows(IllegalArgumentException.class, () -> new StripedMerkleTree(tree, 0, 4));
+        assertThrows(IllegalArgumentException.class, () -> new StripedMerkleTree(tree, 2, 3));
+        assertThrows(IllegalArgumentException.class, () -> new StripedMerkleTree(tree, 2, 0));
+    }
+
+    /**
+     * Runs each list of changes in its own thread, while another thread
+     * keeps combining them.
+     */
+    private static void runWithCombiner(StripedMerkleTree striped, List<List<Runnable>> changes) throws Exception {
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(changes.size() + 1);
+        try {
+            Future<?> combiner = executor.submit(() -> {
+                while (writing.get()) {
+                    striped.getRoot();
+                }
+            });
+            List<Future<?>> writers = new ArrayList<>();
+            for (List<Runnable> writerChanges : changes) {
+                writers.add(executor.submit(() -> writerChanges.forEach(Runnable::run)));
+            }
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+            writing.set(false);
+            combiner.get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private List<LeafNode> leaves(int count) {
+        List<LeafNode> leaves = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            leaves.add(LeafNode.fromData("leaf " + i, sha));
+        }
+        return leaves;
+    }
+}
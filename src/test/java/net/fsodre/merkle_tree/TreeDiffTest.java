@@ -0,0 +1,190 @@
+package net.fsodre.merkle_tree;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+import net.fsodre.merkle_tree.hashers.Sha512256Hasher;
+import net.fsodre.merkle_tree.nodes.LeafNode;
+
+public class TreeDiffTest {
+
+    private final Hasher sha = new Sha512256Hasher();
+
+    @Test
+    public void testIdenticalTrees() throws Exception {
+        MerkleTree tree = MerkleTree.builder().hasher(sha).buildFrom(leaves(300));
+        MerkleTree other = MerkleTree.builder().hasher(sha).buildFrom(leaves(300));
+
+        assertArrayEquals(new int[0], TreeDiff.diff(tree, other));
+    }
+
+    @Test
+    public void testFindsChangedLeavesReadingFewNodes() throws Exception {
+        MerkleTree tree = MerkleTree.builder().hasher(sha).buildFrom(leaves(4096));
+        MerkleTree other = MerkleTree.builder().hasher(sha).buildFrom(leaves(4096));
+        other.updateLeafAt(17, LeafNode.fromData("changed", sha));
+        other.removeLeafAt(2000);
+        other.updateLeafAt(4095, LeafNode.fromData("changed", sha));
+
+        CountingRemote remote = new CountingRemote(TreeDiff.local(other));
+
+        assertArrayEquals(new int[]{17, 2000, 4095}, TreeDiff.diff(tree, remote));
+        // At most two children of each of the three paths per level.
+        assertTrue(remote.nodes <= 3 * 2 * 13);
+    }
+
+    @Test
+    public void testTreesOfDifferentSizes() throws Exception {
+        MerkleTree tree = MerkleTree.builder().hasher(sha).lazyHashing(true).buildFrom(leaves(5));
+        MerkleTree other = MerkleTree.builder().hasher(sha).buildFrom(leaves(40));
+        other.updateLeafAt(2, LeafNode.fromData("changed", sha));
+        other.removeLeafAt(30);
+        tree.addLeaf(null);
+
+        int[] expected = new int[40 - 5];
+        expected[0] = 2;
+        for (int i = 1, position = 5; position < 40; position++) {
+            if (position != 30) {
+                expected[i++] = position;
+            }
+        }
+        assertArrayEquals(expected, TreeDiff.diff(tree, other));
+        assertArrayEquals(expected, TreeDiff.diff(other, tree));
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4}, TreeDiff.diff(tree, MerkleTree.builder().hasher(sha).build()));
+    }
+
+    @Test
+    public void testRandomChangesOverChannels() throws Exception {
+        MerkleTree tree = MerkleTree.builder().hasher(sha).buildFrom(leaves(20000));
+        MerkleTree remoteTree = MerkleTree.builder().hasher(sha).buildFrom(leaves(20000));
+        TreeSet<Integer> changed = new TreeSet<>();
+        Random random = new Random(25);
+        // Enough changes for the bottom levels to need several chunks.
+        for (int i = 0; i < 3000; i++) {
+            int index = random.nextInt(20000);
+            remoteTree.updateLeafAt(index, LeafNode.fromData("changed " + i, sha));
+            changed.add(index);
+        }
+
+        Pipe requests = Pipe.open();
+        Pipe responses = Pipe.open();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> server = executor.submit(() -> {
+                TreeSyncProtocol.serve(remoteTree, requests.source(), responses.sink());
+                return null;
+            });
+            int[] differing;
+            try (TreeSyncProtocol.Client client = TreeSyncProtocol.connect(responses.source(), requests.sink())) {
+                differing = TreeDiff.diff(tree, client);
+            }
+            server.get();
+
+            assertArrayEquals(changed.stream().mapToInt(Integer::intValue).toArray(), differing);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testInvalidRemoteShapes() throws Exception {
+        MerkleTree tree = MerkleTree.builder().hasher(sha).buildFrom(leaves(10));
+
+        assertThrows(IOException.class, () -> TreeDiff.diff(tree, new FixedShapeRemote()));
+        assertThrows(IOException.class, () -> TreeDiff.diff(tree, new FixedShapeRemote(10, 5, 2)));
+        assertThrows(IOException.class, () -> TreeDiff.diff(tree, new FixedShapeRemote(10, 4, 2, 1)));
+    }
+
+    @Test
+    public void testInvalidShapeOverChannels() throws Exception {
+        // A server answering the shape request with more levels than any tree has.
+        ByteBuffer response = ByteBuffer.allocate(4 * Integer.BYTES);
+        response.putInt(TreeSyncProtocol.MAGIC).putInt(TreeSyncProtocol.VERSION).putInt(32).putInt(Integer.MAX_VALUE);
+        TreeSyncProtocol.Client client = TreeSyncProtocol.connect(
+                Channels.newChannel(new ByteArrayInputStream(response.array())),
+                Channels.newChannel(new ByteArrayOutputStream()));
+
+        assertThrows(IOException.class, client::levelSizes);
+    }
+
+    /**
+     * A Remote with the given level sizes.
+     */
+    private final class FixedShapeRemote implements TreeDiff.Remote {
+        private final int[] levelSizes;
+
+        FixedShapeRemote(int... levelSizes) {
+            this.levelSizes = levelSizes;
+        }
+
+        @Override
+        public int hashBytes() {
+            return sha.outputBitsCount() / 8;
+        }
+
+        @Override
+        public int[] levelSizes() {
+            return levelSizes;
+        }
+
+        @Override
+        public MerkleHash[] hashes(int level, int[] indexes, int count) {
+            return new MerkleHash[count];
+        }
+    }
+
+    /**
+     * Counts the nodes requested from a Remote.
+     */
+    private static final class CountingRemote implements TreeDiff.Remote {
+        private final TreeDiff.Remote remote;
+        private int nodes = 0;
+
+        CountingRemote(TreeDiff.Remote remote) {
+            this.remote = remote;
+        }
+
+        @Override
+        public int hashBytes() throws IOException {
+            return remote.hashBytes();
+        }
+
+        @Override
+        public int[] levelSizes() throws IOException {
+            return remote.levelSizes();
+        }
+
+        @Override
+        public MerkleHash[] hashes(int level, int[] indexes, int count) throws IOException {
+            nodes += count;
+            return remote.hashes(level, indexes, count);
+        }
+    }
+
+    private List<LeafNode> leaves(int count) {
+        List<LeafNode> leaves = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            leaves.add(LeafNode.fromData("leaf " + i, sha));
+        }
+        return leaves;
+    }
+}
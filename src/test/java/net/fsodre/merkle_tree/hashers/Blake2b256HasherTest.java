@@ -0,0 +1,105 @@
+package net.fsodre.merkle_tree.hashers;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class Blake2b256HasherTest {
+
+    private final Blake2b256Hasher hasher = new Blake2b256Hasher();
+
+    @Test
+    public void testEmptyInput() {
+        MerkleHash hash = hasher.hash(new byte[0]);
+
+        assertEquals("0e5751c026e543b2e8ab2eb06099daa1d1e5df47778f7787faab45cdf12fe3a8", hash.toString());
+    }
+
+    @Test
+    public void testShortInput() {
+        MerkleHash hash = hasher.hash("abc".getBytes());
+
+        assertEquals("bddd813c634239723171ef3fee98579b94964e3bb1cb3e427262c8c068d52319", hash.toString());
+    }
+
+    @Test
+    public void testInputSpanningSeveralBlocks() {
+        // 768 bytes, that is, exactly 6 blocks.
+        byte[] data = new byte[768];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+
+        MerkleHash hash = hasher.hash(data);
+
+        assertEquals("b8007121274217790e2923e0ad7027986e5a99d5531ef6ae7d294140fc81615d", hash.toString());
+    }
+
+    @Test
+    public void testStreamHashing() throws Exception {
+        byte[] data = "The quick brown fox jumps over the lazy dog".getBytes();
+
+        MerkleHash hash = hasher.hash(new ByteArrayInputStream(data));
+
+        assertEquals("01718cec35cd3d796dd00020e0bfecb473ad23457d063b75eff29c0ffa2e58a9", hash.toString());
+    }
+
+    @Test
+    public void testPairHashing() {
+        MerkleHash left = hasher.hash("a".getBytes());
+        MerkleHash right = hasher.hash("b".getBytes());
+
+        MerkleHash hash = hasher.hashPair(left, right);
+
+        assertEquals(hasher.hash(left.concat(right)), hash);
+    }
+
+    @Test
+    public void testRepeatedHashingResetsState() {
+        byte[] data = new byte[300];
+        Arrays.fill(data, (byte) 7);
+        MerkleHash first = hasher.hash(data);
+        hasher.hash("b".getBytes());
+        MerkleHash second = hasher.hash(data);
+
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void testBatchHashing() {
+        ByteBuffer inputs = ByteBuffer.allocateDirect(3 * 64);
+        for (int i = 0; i < inputs.capacity(); i++) {
+            inputs.put(i, (byte) i);
+        }
+        ByteBuffer output = ByteBuffer.allocate(3 * hasher.outputBitsCount() / 8);
+
+        hasher.hashBatch(inputs, 64, 3, output);
+
+        assertEquals(inputs.capacity(), inputs.position());
+        assertEquals(output.capacity(), output.position());
+        for (int i = 0; i < 3; i++) {
+            byte[] message = new byte[64];
+            inputs.position(64 * i);
+            inputs.get(message);
+            byte[] hash = new byte[hasher.outputBitsCount() / 8];
+            output.position(hash.length * i);
+            output.get(hash);
+            assertArrayEquals(hasher.hash(message).toBytes(), hash);
+        }
+    }
+
+    @Test
+    public void testHashInto() {
+        byte[] buffer = "xabcx".getBytes();
+        byte[] output = new byte[1 + hasher.outputBitsCount() / 8];
+
+        hasher.hashInto(buffer, 1, 3, output, 1);
+
+        assertTrue(hasher.hash("abc".getBytes()).matches(output, 1));
+    }
+}
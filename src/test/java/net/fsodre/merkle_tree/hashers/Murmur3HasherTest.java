@@ -0,0 +1,80 @@
+package net.fsodre.merkle_tree.hashers;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class Murmur3HasherTest {
+
+    private final Murmur3Hasher hasher = new Murmur3Hasher();
+
+    @Test
+    public void testEmptyInput() {
+        MerkleHash hash = hasher.hash(new byte[0]);
+
+        assertEquals("00000000000000000000000000000000", hash.toString());
+    }
+
+    @Test
+    public void testShortInput() {
+        MerkleHash hash = hasher.hash("abc".getBytes());
+
+        assertEquals("6778ad3f3f3f96b4522dca264174a23b", hash.toString());
+    }
+
+    @Test
+    public void testStreamHashing() throws Exception {
+        byte[] data = "The quick brown fox jumps over the lazy dog".getBytes();
+
+        MerkleHash hash = hasher.hash(new ByteArrayInputStream(data));
+
+        assertEquals("6c1b07bc7bbc4be347939ac4a93c437a", hash.toString());
+    }
+
+    @Test
+    public void testPairHashing() {
+        MerkleHash left = hasher.hash("a".getBytes());
+        MerkleHash right = hasher.hash("b".getBytes());
+
+        MerkleHash hash = hasher.hashPair(left, right);
+
+        assertEquals(hasher.hash(left.concat(right)), hash);
+    }
+
+    @Test
+    public void testBatchHashing() {
+        ByteBuffer inputs = ByteBuffer.allocateDirect(3 * 64);
+        for (int i = 0; i < inputs.capacity(); i++) {
+            inputs.put(i, (byte) i);
+        }
+        ByteBuffer output = ByteBuffer.allocate(3 * hasher.outputBitsCount() / 8);
+
+        hasher.hashBatch(inputs, 64, 3, output);
+
+        assertEquals(inputs.capacity(), inputs.position());
+        assertEquals(output.capacity(), output.position());
+        for (int i = 0; i < 3; i++) {
+            byte[] message = new byte[64];
+            inputs.position(64 * i);
+            inputs.get(message);
+            byte[] hash = new byte[hasher.outputBitsCount() / 8];
+            output.position(hash.length * i);
+            output.get(hash);
+            assertArrayEquals(hasher.hash(message).toBytes(), hash);
+        }
+    }
+
+    @Test
+    public void testHashInto() {
+        byte[] buffer = "xabcx".getBytes();
+        byte[] output = new byte[1 + hasher.outputBitsCount() / 8];
+
+        hasher.hashInto(buffer, 1, 3, output, 1);
+
+        assertTrue(hasher.hash("abc".getBytes()).matches(output, 1));
+    }
+}
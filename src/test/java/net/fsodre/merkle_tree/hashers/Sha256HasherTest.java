@@ -0,0 +1,64 @@
+package net.fsodre.merkle_tree.hashers;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+public class Sha256HasherTest {
+
+    private final Sha256Hasher hasher = new Sha256Hasher();
+
+    @Test
+    public void testSha256Hashing() {
+        MerkleHash hash = hasher.hash("abc".getBytes());
+
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", hash.toString());
+    }
+
+    @Test
+    public void testSha256StreamHashing() throws Exception {
+        InputStream stream = new ByteArrayInputStream("a".getBytes());
+
+        MerkleHash hash = hasher.hash(stream);
+
+        assertArrayEquals(DigestUtils.sha256("a"), hash.toBytes());
+    }
+
+    @Test
+    public void testSha256PairHashing() {
+        MerkleHash left = hasher.hash("a".getBytes());
+        MerkleHash right = hasher.hash("b".getBytes());
+
+        MerkleHash hash = hasher.hashPair(left, right);
+
+        assertArrayEquals(DigestUtils.sha256(left.concat(right)), hash.toBytes());
+    }
+
+    @Test
+    public void testBatchHashing() {
+        ByteBuffer inputs = ByteBuffer.allocate(3 * 64);
+        for (int i = 0; i < inputs.capacity(); i++) {
+            inputs.put(i, (byte) i);
+        }
+        ByteBuffer output = ByteBuffer.allocate(3 * hasher.outputBitsCount() / 8);
+
+        hasher.hashBatch(inputs, 64, 3, output);
+
+        assertEquals(inputs.capacity(), inputs.position());
+        assertEquals(output.capacity(), output.position());
+        for (int i = 0; i < 3; i++) {
+            byte[] message = new byte[64];
+            inputs.position(64 * i);
+            inputs.get(message);
+            byte[] hash = new byte[hasher.outputBitsCount() / 8];
+            output.position(hash.length * i);
+            output.get(hash);
+            assertArrayEquals(hasher.hash(message).toBytes(), hash);
+        }
+    }
+}
@@ -2,9 +2,19 @@ package net.fsodre.merkle_tree.hashers;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
 
 public class Sha512256HasherTest {
@@ -26,4 +36,73 @@ public class Sha512256HasherTest {
 
         assertArrayEquals(hash.toBytes(), DigestUtils.sha512_256("a"));
     }
+
+    @Test
+    public void testSha512256PairHashing() {
+        MerkleHash left = hasher.hash("a".getBytes());
+        MerkleHash right = hasher.hash("b".getBytes());
+
+        MerkleHash hash = hasher.hashPair(left, right);
+
+        assertArrayEquals(DigestUtils.sha512_256(left.concat(right)), hash.toBytes());
+    }
+
+    @Test
+    public void testRepeatedHashingReusesDigestCorrectly() throws Exception {
+        MerkleHash first = hasher.hash("a".getBytes());
+        hasher.hash(new ByteArrayInputStream("b".getBytes()));
+        MerkleHash second = hasher.hash("a".getBytes());
+
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void testConcurrentHashing() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Callable<MerkleHash>> tasks = IntStream.range(0, 1000)
+                    .mapToObj(i -> (Callable<MerkleHash>) () -> hasher.hash(String.valueOf(i).getBytes()))
+                    .collect(Collectors.toList());
+            List<Future<MerkleHash>> results = executor.invokeAll(tasks);
+
+            for (int i = 0; i < results.size(); i++) {
+                assertArrayEquals(DigestUtils.sha512_256(String.valueOf(i)), results.get(i).get().toBytes());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBatchHashing() {
+        ByteBuffer inputs = ByteBuffer.allocate(3 * 64);
+        for (int i = 0; i < inputs.capacity(); i++) {
+            inputs.put(i, (byte) i);
+        }
+        ByteBuffer output = ByteBuffer.allocate(3 * hasher.outputBitsCount() / 8);
+
+        hasher.hashBatch(inputs, 64, 3, output);
+
+        assertEquals(inputs.capacity(), inputs.position());
+        assertEquals(output.capacity(), output.position());
+        for (int i = 0; i < 3; i++) {
+            byte[] message = new byte[64];
+            inputs.position(64 * i);
+            inputs.get(message);
+            byte[] hash = new byte[hasher.outputBitsCount() / 8];
+            output.position(hash.length * i);
+            output.get(hash);
+            assertArrayEquals(hasher.hash(message).toBytes(), hash);
+        }
+    }
+
+    @Test
+    public void testHashInto() {
+        byte[] buffer = "xabcx".getBytes();
+        byte[] output = new byte[1 + hasher.outputBitsCount() / 8];
+
+        hasher.hashInto(buffer, 1, 3, output, 1);
+
+        assertTrue(hasher.hash("abc".getBytes()).matches(output, 1));
+    }
 }
@@ -55,4 +55,14 @@ public class InternalNodeTest {
 
         assertArrayEquals(internalParent.getHash().toBytes(), paddedHash("111a91b9911c91d999"));
     }
+
+    @Test
+    public void testChildWithoutHashIsIgnored() throws Exception {
+        InternalNode emptyChild = InternalNode.from(null);
+        LeafNode right = LeafNode.fromData(new byte[]{0xb});
+
+        InternalNode internal = InternalNode.from(emptyChild, right);
+
+        assertArrayEquals(paddedHash("11b99"), internal.getHash().toBytes());
+    }
 }
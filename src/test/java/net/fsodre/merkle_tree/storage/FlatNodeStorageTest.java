@@ -0,0 +1,131 @@
+package net.fsodre.merkle_tree.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+import net.fsodre.merkle_tree.hashers.Sha512256Hasher;
+import net.fsodre.merkle_tree.utils.SerializationUtils;
+
+public class FlatNodeStorageTest {
+
+    private final Sha512256Hasher hasher = new Sha512256Hasher();
+
+    @Test
+    public void testEmptyStorage() throws Exception {
+        FlatNodeStorage storage = new FlatNodeStorage(32);
+
+        assertEquals(1, storage.height());
+        assertEquals(0, storage.levelSize(0));
+        assertEquals(0, storage.levelSize(1));
+    }
+
+    @Test
+    public void testAppendAndGet() throws Exception {
+        FlatNodeStorage storage = new FlatNodeStorage(32);
+
+        for (int i = 0; i < 100; i++) {
+            storage.append(0, i % 3 == 0 ? null : hasher.hash(String.valueOf(i).getBytes()));
+        }
+
+        assertEquals(100, storage.levelSize(0));
+        for (int i = 0; i < 100; i++) {
+            MerkleHash hash = storage.get(0, i);
+            if (i % 3 == 0) {
+                assertNull(hash);
+            } else {
+                assertEquals(hasher.hash(String.valueOf(i).getBytes()), hash);
+            }
+        }
+    }
+
+    @Test
+    public void testSetAndClear() throws Exception {
+        FlatNodeStorage storage = new FlatNodeStorage(32);
+        MerkleHash hashA = hasher.hash("a".getBytes());
+        MerkleHash hashB = hasher.hash("b".getBytes());
+        storage.append(0, hashA);
+
+        storage.set(0, 0, hashB);
+        assertEquals(hashB, storage.get(0, 0));
+
+        storage.set(0, 0, null);
+        assertNull(storage.get(0, 0));
+    }
+
+    @Test
+    public void testAppendNewLevel() throws Exception {
+        FlatNodeStorage storage = new FlatNodeStorage(32);
+        MerkleHash hash = hasher.hash("a".getBytes());
+
+        storage.append(0, hash);
+        storage.append(1, hash);
+
+        assertEquals(2, storage.height());
+        assertEquals(1, storage.levelSize(1));
+        assertEquals(hash, storage.get(1, 0));
+    }
+
+    @Test
+    public void testTruncate() throws Exception {
+        FlatNodeStorage storage = new FlatNodeStorage(32);
+        MerkleHash hash = hasher.hash("a".getBytes());
+        for (int i = 0; i < 100; i++) {
+            storage.append(0, hash);
+        }
+        storage.append(1, hash);
+
+        storage.truncate(1, 0);
+        storage.truncate(0, 3);
+
+        assertEquals(1, storage.height());
+        assertEquals(3, storage.levelSize(0));
+        assertEquals(hash, storage.get(0, 2));
+        storage.append(0, null);
+        assertNull(storage.get(0, 3));
+    }
+
+    @Test
+    public void testPages() throws Exception {
+        FlatNodeStorage storage = new FlatNodeStorage(32, 32);
+        for (int i = 0; i < 200; i++) {
+            storage.append(0, i % 3 == 0 ? null : hasher.hash(String.valueOf(i).getBytes()));
+        }
+        storage.set(0, 64, hasher.hash("a".getBytes()));
+        storage.truncate(0, 70);
+        storage.append(0, null);
+
+        assertEquals(71, storage.levelSize(0));
+        assertEquals(hasher.hash("a".getBytes()), storage.get(0, 64));
+        assertNull(storage.get(0, 70));
+        for (int i = 0; i < 70; i++) {
+            if (i != 64) {
+                assertEquals(i % 3 == 0 ? null : hasher.hash(String.valueOf(i).getBytes()), storage.get(0, i));
+            }
+        }
+
+        storage.truncate(0, 5);
+        for (int i = 5; i < 100; i++) {
+            storage.append(0, hasher.hash(String.valueOf(i).getBytes()));
+        }
+        byte[] bytes = new byte[32];
+        assertTrue(storage.read(0, 99, bytes, 0));
+        assertEquals(hasher.hash("99".getBytes()), MerkleHash.fromHashCode(bytes, 32));
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        FlatNodeStorage storage = new FlatNodeStorage(32);
+        MerkleHash hash = hasher.hash("a".getBytes());
+        storage.append(0, null);
+        storage.append(0, hash);
+
+        FlatNodeStorage newStorage = SerializationUtils.serializeAndBack(storage);
+
+        assertNull(newStorage.get(0, 0));
+        assertEquals(hash, newStorage.get(0, 1));
+    }
+}
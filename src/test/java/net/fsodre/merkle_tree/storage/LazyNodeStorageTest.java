@@ -0,0 +1,63 @@
+package net.fsodre.merkle_tree.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import net.fsodre.merkle_tree.hashers.HasherProvider;
+import net.fsodre.merkle_tree.hashers.MerkleHash;
+import net.fsodre.merkle_tree.utils.TestHasher;
+import static net.fsodre.merkle_tree.utils.TestHasher.paddedHash;
+
+public class LazyNodeStorageTest {
+
+    private LazyNodeStorage storage;
+
+    @BeforeAll
+    public static void setUpSuite() {
+        HasherProvider.setHasher(new TestHasher());
+    }
+
+    @BeforeEach
+    public void setUp() {
+        storage = new LazyNodeStorage(new ListNodeStorage(MerkleHash.expectedSizeInBytes()), new TestHasher());
+        storage.append(0, MerkleHash.fromData(new byte[]{0xa}));
+        storage.append(0, MerkleHash.fromData(new byte[]{0xb}));
+        storage.append(0, null);
+        storage.append(0, MerkleHash.fromData(new byte[]{0xd}));
+        storage.append(0, MerkleHash.fromData(new byte[]{0xe}));
+        storage.appendUnknown(1, 3);
+        storage.appendUnknown(2, 2);
+        storage.appendUnknown(3, 1);
+    }
+
+    @Test
+    public void testUnknownNodesAreComputedOnDemand() throws Exception {
+        assertFalse(storage.isMaterialized());
+        assertArrayEquals(paddedHash("1111a91b9911d999111e9999"), storage.get(3, 0).toBytes());
+        assertArrayEquals(paddedHash("11d99"), storage.get(1, 1).toBytes());
+    }
+
+    @Test
+    public void testSetNodesAreKnown() throws Exception {
+        storage.set(1, 2, null);
+
+        assertNull(storage.get(1, 2));
+        assertArrayEquals(paddedHash("1111a91b9911d9999"), storage.get(3, 0).toBytes());
+    }
+
+    @Test
+    public void testMaterialize() throws Exception {
+        storage.materializeAsync(ForkJoinPool.commonPool()).get();
+
+        assertTrue(storage.isMaterialized());
+        assertArrayEquals(paddedHash("1111a91b9911d999111e9999"), storage.get(3, 0).toBytes());
+    }
+}
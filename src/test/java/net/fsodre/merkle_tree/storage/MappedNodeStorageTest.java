@@ -0,0 +1,159 @@
+package net.fsodre.merkle_tree.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.fsodre.merkle_tree.MerkleTree;
+import net.fsodre.merkle_tree.hashers.Blake2b256Hasher;
+import net.fsodre.merkle_tree.hashers.Hasher;
+import net.fsodre.merkle_tree.hashers.HasherProvider;
+import net.fsodre.merkle_tree.hashers.Sha256Hasher;
+import net.fsodre.merkle_tree.hashers.Sha512256Hasher;
+import net.fsodre.merkle_tree.nodes.LeafNode;
+import net.fsodre.merkle_tree.utils.TestHasher;
+import static net.fsodre.merkle_tree.utils.TestHasher.paddedHash;
+
+public class MappedNodeStorageTest {
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    public static void setUpSuite() {
+        HasherProvider.setHasher(new TestHasher());
+    }
+
+    @Test
+    public void testEmptyTree() throws Exception {
+        try (MappedNodeStorage storage = MappedNodeStorage.open(directory.resolve("tree"), new TestHasher(), 8)) {
+            MerkleTree tree = MerkleTree.builder().mappedStorage(storage).build();
+
+            assertNull(tree.getRoot());
+        }
+    }
+
+    @Test
+    public void testReopenTree() throws Exception {
+        Path file = directory.resolve("tree");
+        LeafNode leafA = LeafNode.fromData(new byte[]{0xa});
+        LeafNode leafC = LeafNode.fromData(new byte[]{0xc});
+
+        try (MappedNodeStorage storage = MappedNodeStorage.open(file, new TestHasher(), 8)) {
+            MerkleTree tree = MerkleTree.builder().mappedStorage(storage).build();
+            tree.addLeaf(leafA);
+            tree.addLeaf(LeafNode.fromData(new byte[]{0xb}));
+            tree.addLeaf(leafC);
+            tree.removeLeaf(leafA.getHash());
+            tree.flush();
+        }
+
+        try (MappedNodeStorage storage = MappedNodeStorage.open(file, new TestHasher(), 8)) {
+            MerkleTree tree = MerkleTree.builder().mappedStorage(storage).build();
+
+            assertArrayEquals(paddedHash("111b9911c999"), tree.getRoot().getHash().toBytes());
+            assertTrue(tree.buildExistenceProof(leafC.getHash()).validate(leafC.getHash(), tree.getRoot().getHash()));
+            assertNull(tree.buildExistenceProof(leafA.getHash()));
+
+            // The empty spot left by A is found again.
+            tree.addLeaf(LeafNode.fromData(new byte[]{0xd}));
+            assertArrayEquals(paddedHash("111d91b9911c999"), tree.getRoot().getHash().toBytes());
+        }
+    }
+
+    @Test
+    public void testReopenWithEmptySpots() throws Exception {
+        Path file = directory.resolve("tree");
+        Hasher sha = new Sha512256Hasher();
+        try (MappedNodeStorage storage = MappedNodeStorage.open(file, sha, 200)) {
+            MerkleTree tree = MerkleTree.builder().hasher(sha).mappedStorage(storage).build();
+            for (int i = 0; i < 150; i++) {
+                tree.addLeaf(LeafNode.fromData(new byte[]{(byte) i}, sha));
+            }
+            tree.removeLeaf(LeafNode.fromData(new byte[]{(byte) 130}, sha).getHash());
+            tree.removeLeaf(LeafNode.fromData(new byte[]{(byte) 7}, sha).getHash());
+        }
+
+        try (MappedNodeStorage storage = MappedNodeStorage.open(file, sha, 200)) {
+            assertEquals(2, storage.emptyLeaves().getLong(0));
+            assertEquals(148, storage.leafIndexSize().getInt(0));
+            MerkleTree tree = MerkleTree.builder().hasher(sha).mappedStorage(storage).reuseLowestEmptyLeaf(true).build();
+
+            assertEquals(7, tree.addLeaf(LeafNode.fromData(new byte[]{(byte) 200}, sha)));
+            assertEquals(130, tree.addLeaf(LeafNode.fromData(new byte[]{(byte) 201}, sha)));
+            assertEquals(150, tree.addLeaf(LeafNode.fromData(new byte[]{(byte) 202}, sha)));
+            assertEquals(0, storage.emptyLeaves().getLong(0));
+        }
+    }
+
+    @Test
+    public void testChunkedRegions() throws Exception {
+        Path file = directory.resolve("tree");
+        Hasher sha = new Sha512256Hasher();
+        List<LeafNode> leaves = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            leaves.add(LeafNode.fromData(new byte[]{(byte) i}, sha));
+        }
+
+        // Chunks of 8 hashes, and of 4 slots of the leaf index.
+        try (MappedNodeStorage storage = MappedNodeStorage.open(file, sha, 100, 8 * 32 + 31)) {
+            assertEquals(64, storage.leafIndexTable().length);
+            MerkleTree tree = MerkleTree.builder().hasher(sha).mappedStorage(storage).build();
+            for (LeafNode leaf : leaves) {
+                tree.addLeaf(leaf);
+            }
+
+            assertArrayEquals(MerkleTree.builder().hasher(sha).buildFrom(leaves).getRoot().getHash().toBytes(), tree.getRoot().getHash().toBytes());
+        }
+
+        try (MappedNodeStorage storage = MappedNodeStorage.open(file, sha, 100, 8 * 32 + 31)) {
+            MerkleTree tree = MerkleTree.builder().hasher(sha).mappedStorage(storage).build();
+
+            for (LeafNode leaf : leaves) {
+                assertTrue(tree.buildExistenceProof(leaf.getHash()).validate(leaf.getHash(), tree.getRoot().getHash()));
+            }
+        }
+    }
+
+    @Test
+    public void testFullTree() throws Exception {
+        try (MappedNodeStorage storage = MappedNodeStorage.open(directory.resolve("tree"), new TestHasher(), 2)) {
+            MerkleTree tree = MerkleTree.builder().mappedStorage(storage).build();
+            tree.addLeaf(LeafNode.fromData(new byte[]{0xa}));
+            tree.addLeaf(LeafNode.fromData(new byte[]{0xb}));
+
+            assertThrows(IllegalStateException.class, () -> tree.addLeaf(LeafNode.fromData(new byte[]{0xc})));
+        }
+    }
+
+    @Test
+    public void testReopenWithDifferentCapacity() throws Exception {
+        Path file = directory.resolve("tree");
+        MappedNodeStorage.open(file, new TestHasher(), 8).close();
+
+        assertThrows(IOException.class, () -> MappedNodeStorage.open(file, new TestHasher(), 16));
+    }
+
+    @Test
+    public void testReopenWithDifferentHasher() throws Exception {
+        Path file = directory.resolve("tree");
+        MappedNodeStorage.open(file, new Sha256Hasher(), 8).close();
+
+        assertThrows(IOException.class, () -> MappedNodeStorage.open(file, new Blake2b256Hasher(), 8));
+        try (MappedNodeStorage storage = MappedNodeStorage.open(file, new Sha256Hasher(), 8)) {
+            MerkleTree.Builder builder = MerkleTree.builder().hasher(new Sha512256Hasher()).mappedStorage(storage);
+            assertThrows(IllegalArgumentException.class, builder::build);
+        }
+    }
+}
@@ -25,6 +25,8 @@ import net.fsodre.merkle_tree.hashers.MerkleHash;
  * work for input data that have "1" or "9" digits in it.
  */
 final public class TestHasher implements Hasher {
+    private static final long serialVersionUID = 1L;
+
     private final static int OUTPUT_BIT_COUNT = 256;
     private final static int OUTPUT_HEX_CHAR_COUNT = OUTPUT_BIT_COUNT / 4;
 